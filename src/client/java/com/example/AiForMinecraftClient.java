@@ -0,0 +1,23 @@
+package com.example;
+
+import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
+
+public class AiForMinecraftClient implements ClientModInitializer {
+	private final StreamingReplyRenderer replyRenderer = new StreamingReplyRenderer();
+
+	@Override
+	public void onInitializeClient() {
+		// 注册通道后服务端就会改用它发送AI回复；网络线程上只复制数据，解码和显示在渲染线程进行
+		ClientPlayNetworking.registerGlobalReceiver(ReplyChannel.ID, (client, handler, buf, responseSender) -> {
+			byte[] frame = new byte[buf.readableBytes()];
+			buf.readBytes(frame);
+			client.execute(() -> replyRenderer.receive(client, frame));
+		});
+		HudRenderCallback.EVENT.register(replyRenderer::render);
+		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(replyRenderer::clear));
+		AiForMinecraft.LOGGER.info("AI for Minecraft client initialized successfully");
+	}
+}
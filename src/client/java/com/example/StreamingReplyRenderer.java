@@ -0,0 +1,135 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.OrderedText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import org.slf4j.Logger;
+
+/**
+ * 显示经 {@link ReplyChannel} 收到的AI回复。
+ * <p>
+ * 回复生成期间，收到的增量原地追加到屏幕左上角的一个面板里，面板只显示最后几行；
+ * 回复结束后面板关闭，完整回复作为一条消息加入聊天记录，不再拆成许多条聊天消息刷屏。
+ * Markdown 样式在客户端用 {@link MarkdownFormatter} 转换，按面板宽度换行。所有方法都在渲染线程上调用。
+ */
+public class StreamingReplyRenderer {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private static final int MAX_WIDTH = 320;
+    private static final int MAX_LINES = 10;
+    private static final int MARGIN = 4;
+    private static final int PADDING = 3;
+    // 面板按像素宽度换行，格式化器只在很长的行上切断
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int BACKGROUND = 0x90000000;
+
+    private final ReplyDeltaCodec codec = new ReplyDeltaCodec(0);
+    // 按开始的先后排列，面板显示最近的一条
+    private final Map<Integer, Reply> replies = new LinkedHashMap<>();
+
+    public void receive(MinecraftClient client, byte[] bytes) {
+        ReplyDeltaCodec.Frame frame;
+        try {
+            frame = codec.decode(bytes);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Dropping malformed AI reply frame: {}", e.getMessage());
+            return;
+        }
+        switch (frame.type) {
+            case ReplyDeltaCodec.START:
+                replies.put(frame.replyId, new Reply((frame.flags & ReplyDeltaCodec.STRIP_THINK) != 0));
+                break;
+            case ReplyDeltaCodec.DELTA:
+                replies.computeIfAbsent(frame.replyId, id -> new Reply(false)).append(frame.text);
+                break;
+            default:
+                Reply reply = replies.remove(frame.replyId);
+                if (reply != null) {
+                    reply.finish();
+                    if (!reply.lines.isEmpty()) {
+                        client.inGameHud.getChatHud().addMessage(reply.toText());
+                    }
+                }
+                break;
+        }
+    }
+
+    public void render(DrawContext context, float tickDelta) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (replies.isEmpty() || client.options.hudHidden) {
+            return;
+        }
+        Reply reply = null;
+        for (Reply candidate : replies.values()) {
+            reply = candidate;
+        }
+        TextRenderer textRenderer = client.textRenderer;
+        int width = Math.min(MAX_WIDTH, client.getWindow().getScaledWidth() / 2);
+        List<OrderedText> wrapped = reply.wrap(textRenderer, width);
+        int from = Math.max(0, wrapped.size() - MAX_LINES);
+        int lineHeight = textRenderer.fontHeight + 1;
+        int height = lineHeight * (wrapped.size() - from + 1);
+        context.fill(MARGIN, MARGIN, MARGIN + width + PADDING * 2, MARGIN + height + PADDING * 2, BACKGROUND);
+        int y = MARGIN + PADDING;
+        context.drawTextWithShadow(textRenderer, Text.literal(from > 0 ? "AI 正在回复…（仅显示最后几行）" : "AI 正在回复…")
+            .formatted(Formatting.GRAY), MARGIN + PADDING, y, 0xFFFFFF);
+        for (int i = from; i < wrapped.size(); i++) {
+            y += lineHeight;
+            context.drawTextWithShadow(textRenderer, wrapped.get(i), MARGIN + PADDING, y, 0xFFFFFF);
+        }
+    }
+
+    public void clear() {
+        replies.clear();
+    }
+
+    private static final class Reply {
+        final List<Text> lines = new ArrayList<>();
+        final MarkdownFormatter formatter;
+        // 换行结果只在内容或宽度变化时重新计算
+        List<OrderedText> wrapped;
+        int wrappedWidth = -1;
+
+        Reply(boolean stripThink) {
+            formatter = new MarkdownFormatter(spans -> lines.add(MarkdownText.toText(spans)), MAX_LINE_LENGTH, stripThink);
+        }
+
+        void append(String text) {
+            formatter.append(text);
+            wrapped = null;
+        }
+
+        void finish() {
+            formatter.flush();
+        }
+
+        List<OrderedText> wrap(TextRenderer textRenderer, int width) {
+            if (wrapped == null || wrappedWidth != width) {
+                wrapped = new ArrayList<>();
+                for (Text line : lines) {
+                    wrapped.addAll(textRenderer.wrapLines(line, width));
+                }
+                wrappedWidth = width;
+            }
+            return wrapped;
+        }
+
+        Text toText() {
+            MutableText text = Text.empty();
+            for (int i = 0; i < lines.size(); i++) {
+                if (i > 0) {
+                    text.append("\n");
+                }
+                text.append(lines.get(i));
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 请求体的生成和响应的解析。
+ * 生成对比旧的 String.format 拼接（不转义）和 JsonWriter；解析对比每次 new Gson() 构建整棵树和流式读取。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatCompletionCodecBenchmark {
+    private static final String DELTA = "{\"id\":\"chatcmpl-benchmark\",\"object\":\"chat.completion.chunk\","
+        + "\"created\":1700000000,\"model\":\"gpt-3.5-turbo\",\"choices\":[{\"index\":0,"
+        + "\"delta\":{\"content\":\"然后点燃框架内侧。\"},\"finish_reason\":null}]}";
+
+    private static final Flow.Subscription NO_OP_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private byte[] response;
+    private OpenAIAPIConfig config;
+    private List<ChatMessage> messages;
+
+    @Setup
+    public void setup() {
+        config = ChatCompletionCodec.GSON.fromJson("{\"model\":\"gpt-3.5-turbo\",\"max_tokens\":1000,\"temperature\":0.7}",
+            OpenAIAPIConfig.class);
+        messages = List.of(
+            new ChatMessage(ChatMessage.SYSTEM, OpenAIAPIConfig.DEFAULT_SYSTEM_PROMPT),
+            new ChatMessage(ChatMessage.USER, "怎么做下界传送门？需要多少黑曜石"),
+            new ChatMessage(ChatMessage.ASSISTANT, "至少需要 10 块黑曜石，摆成 4×5 的框架后用打火石点燃。"),
+            new ChatMessage(ChatMessage.USER, "那在下界里怎么回去？"));
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            content.append("第").append(i).append("步：把 \"黑曜石\" 摆成框架，然后点燃。\n");
+        }
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", content.toString());
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", 120);
+        usage.addProperty("completion_tokens", 480);
+        JsonObject body = new JsonObject();
+        body.addProperty("id", "chatcmpl-benchmark");
+        body.addProperty("object", "chat.completion");
+        body.addProperty("created", 1700000000L);
+        body.addProperty("model", "gpt-3.5-turbo");
+        body.add("choices", choices);
+        body.add("usage", usage);
+        response = body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] formatRequest() {
+        ChatMessage last = messages.get(messages.size() - 1);
+        return String.format(
+            "{\"model\":\"%s\",\"messages\":[{\"role\":\"user\",\"content\":\"%s\"}],\"max_tokens\":%d,\"temperature\":%f}",
+            config.getModel(), last.getContent(), config.getMaxTokens(), config.getTemperature()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public BodyPublisher writeRequest() {
+        return ChatCompletionCodec.bodyPublisher(config.getModel(), config, messages, false);
+    }
+
+    @Benchmark
+    public String treeParse() {
+        JsonObject json = new Gson().fromJson(new String(response, StandardCharsets.UTF_8), JsonObject.class);
+        return json.getAsJsonArray("choices").get(0).getAsJsonObject()
+            .getAsJsonObject("message").get("content").getAsString();
+    }
+
+    @Benchmark
+    public String streamingRead() throws Exception {
+        // 和 HttpClient 收到整个响应体时一样，经订阅者解析
+        BodySubscriber<ChatCompletionCodec.Reply> subscriber = ChatCompletionCodec.replySubscriber();
+        subscriber.onSubscribe(NO_OP_SUBSCRIPTION);
+        subscriber.onNext(List.of(ByteBuffer.wrap(response)));
+        subscriber.onComplete();
+        return subscriber.getBody().toCompletableFuture().get().getContent();
+    }
+
+    @Benchmark
+    public String readDelta() throws IOException {
+        return ChatCompletionCodec.readDelta(DELTA).getContent();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 每个请求开头读取配置快照的开销，包括多线程同时读取的情况。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigSnapshotBenchmark {
+    private Path directory;
+    private ConfigManager configManager;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("ai-config-benchmark");
+        configManager = new ConfigManager(directory.resolve("ai-for-minecraft.json"));
+        configManager.load();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        configManager.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public int snapshotRead() {
+        OpenAIAPIConfig config = configManager.get();
+        return config.getMaxTokens() + config.getMaxConcurrentRequests() + (config.isStreamEnabled() ? 1 : 0);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int snapshotReadContended() {
+        OpenAIAPIConfig config = configManager.get();
+        return config.getMaxTokens() + config.getMaxConcurrentRequests() + (config.isStreamEnabled() ? 1 : 0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 本地游戏资料索引的查询开销：直接回答配方问题、为其他问题检索上下文，以及 /reload 后的增量更新。
+ * 资料规模与原版相近（约 1300 个物品、1200 个配方和 200 个标签）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KnowledgeIndexBenchmark {
+    private static final int ITEMS = 1300;
+    private static final int RECIPES = 1200;
+    private static final int TAGS = 200;
+
+    private KnowledgeIndex index;
+    private List<KnowledgeIndex.Document> documents;
+    private List<KnowledgeIndex.Document> reloaded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String[] names = new String[ITEMS];
+        documents = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            names[i] = i == 0 ? "活塞" : randomName(random);
+            String id = "minecraft:item_" + i;
+            documents.add(new KnowledgeIndex.Document("item:" + id, KnowledgeIndex.Kind.ITEM, id, names[i],
+                List.of(names[i], "item " + i, id), "#minecraft:tag_" + (i % TAGS), names[i] + "（" + id + "）：方块，硬度 1.5"));
+        }
+        for (int i = 0; i < RECIPES; i++) {
+            int product = i % ITEMS;
+            String inputs = names[random.nextInt(ITEMS)] + " " + names[random.nextInt(ITEMS)] + " 工作台";
+            documents.add(new KnowledgeIndex.Document("recipe:0:minecraft:recipe_" + i, KnowledgeIndex.Kind.RECIPE,
+                "minecraft:item_" + product, names[product], List.of(), inputs, names[product] + "（工作台，无序合成）：" + inputs));
+        }
+        for (int i = 0; i < TAGS; i++) {
+            String tag = "#minecraft:tag_" + i;
+            documents.add(new KnowledgeIndex.Document("tag:" + tag, KnowledgeIndex.Kind.TAG, null, tag, List.of(),
+                names[i] + " " + names[(i + 1) % ITEMS], tag + "：" + names[i] + "、" + names[(i + 1) % ITEMS]));
+        }
+        index = new KnowledgeIndex();
+        index.update(documents);
+
+        // 模拟数据包改动了几十个配方
+        reloaded = new ArrayList<>(documents);
+        for (int i = ITEMS; i < ITEMS + 50; i++) {
+            KnowledgeIndex.Document old = reloaded.get(i);
+            reloaded.set(i, new KnowledgeIndex.Document(old.getKey(), old.getKind(), old.getSubject(), old.getTitle(), List.of(),
+                "铜锭 工作台", old.getTitle() + "（工作台，无序合成）：铜锭"));
+        }
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 2 + random.nextInt(3); i++) {
+            name.append((char) (0x4E00 + random.nextInt(2000)));
+        }
+        return name.toString();
+    }
+
+    @Benchmark
+    public String directAnswer() {
+        return index.answer("怎么合成活塞？");
+    }
+
+    @Benchmark
+    public String promptContext() {
+        return index.context("活塞可以推动哪些方块，怎么做一个活塞门", 3);
+    }
+
+    @Benchmark
+    public KnowledgeIndex.UpdateResult incrementalReload() {
+        index.update(reloaded);
+        return index.update(documents);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 对比旧的正则替换链和单遍格式化器，以及两者去掉大段 &lt;think&gt; 内容的开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkdownFormatterBenchmark {
+    private static final String REPLY = "<think>玩家想知道怎么做下界传送门，先列材料再讲步骤。</think>"
+        + "# 下界传送门\n"
+        + "制作**下界传送门**需要 *至少10块* 黑曜石，外加一个`打火石`。\n"
+        + "## 步骤\n"
+        + "- 用钻石镐挖黑曜石，或者用 **水桶 + 岩浆** 现场生成\n"
+        + "- 摆成 4×5 的框架，四个角可以省略\n"
+        + "- 用打火石点燃框架内侧\n"
+        + "### 注意\n"
+        + "传送门的坐标换算是 1:8，详见 [Minecraft Wiki](https://minecraft.wiki/w/Nether_portal)。"
+        + "If you are playing on a server, make sure **mob griefing** is enabled so ghasts cannot destroy it, "
+        + "and always carry a spare `flint and steel` because portals can be deactivated by explosions.\n"
+        + "```\n/execute in minecraft:the_nether run tp @s ~ ~ ~\n```\n"
+        + "> 小提示：在下界里不要睡觉。\n";
+
+    // 推理模型的回复，思考过程比正文长得多
+    private static final String THINKING_REPLY = "<think>" + "玩家问的是下界传送门。先确认材料：黑曜石和打火石。".repeat(40)
+        + "</think>" + "需要 **10块黑曜石** 和一个打火石。";
+
+    private List<String> fragments;
+
+    @Setup
+    public void setup() {
+        // 模拟流式输出，每个碎片十几个字符
+        fragments = new ArrayList<>();
+        for (int i = 0; i < REPLY.length(); i += 12) {
+            fragments.add(REPLY.substring(i, Math.min(REPLY.length(), i + 12)));
+        }
+    }
+
+    @Benchmark
+    public void regexChain(Blackhole blackhole) {
+        String text = REPLY.replaceAll("<think>.*?</think>", "");
+        text = text.replaceAll("\\*\\*(.*?)\\*\\*", "§l$1§r");
+        text = text.replaceAll("\\*(.*?)\\*", "§o$1§r");
+        text = text.replaceAll("`(.*?)`", "§7$1§r");
+        text = text.replaceAll("# (.*?)\\n", "§6$1§r\\n");
+        text = text.replaceAll("## (.*?)\\n", "§e$1§r\\n");
+        text = text.replaceAll("### (.*?)\\n", "§a$1§r\\n");
+        text = text.replaceAll("\\[([^\\]]+)\\]\\([^)]+\\)", "§9$1§r");
+        for (int i = 0; i < text.length(); i += 256) {
+            blackhole.consume(text.substring(i, Math.min(text.length(), i + 256)));
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        MarkdownFormatter formatter = new MarkdownFormatter(blackhole::consume, 256, true);
+        formatter.append(REPLY);
+        formatter.flush();
+    }
+
+    @Benchmark
+    public String thinkRegex() {
+        return THINKING_REPLY.replaceAll("<think>.*?</think>", "");
+    }
+
+    @Benchmark
+    public void thinkSinglePass(Blackhole blackhole) {
+        MarkdownFormatter formatter = new MarkdownFormatter(blackhole::consume, 256, true);
+        formatter.append(THINKING_REPLY);
+        formatter.flush();
+    }
+
+    @Benchmark
+    public void singlePassStreamed(Blackhole blackhole) {
+        MarkdownFormatter formatter = new MarkdownFormatter(blackhole::consume, 256, true);
+        for (String fragment : fragments) {
+            formatter.append(fragment);
+        }
+        formatter.flush();
+    }
+}
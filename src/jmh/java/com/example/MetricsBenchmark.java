@@ -0,0 +1,45 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 请求路径上记录指标的开销：直方图记录一个样本、记录一次调用结果。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final AIMetrics metrics = new AIMetrics();
+    private long sample = 1;
+
+    @Benchmark
+    public void recordLatency() {
+        // 在几微秒到几十秒之间变化，覆盖不同的桶
+        sample = sample * 6364136223846793005L + 1442695040888963407L;
+        metrics.record(AIMetrics.Stage.TOTAL, (sample >>> 30) & 0x3FFFFFFFFL);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatencyContended() {
+        metrics.record(AIMetrics.Stage.TOTAL, System.nanoTime() & 0x3FFFFFFFFL);
+    }
+
+    @Benchmark
+    public void recordOutcome() {
+        metrics.onComplete(null);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 把不含 Markdown 的长回复切成聊天消息：旧的定长 substring、格式化器按空白切段、流式按句子切段。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplyChunkingBenchmark {
+    private static final int MAX_LENGTH = 256;
+    private static final String REPLY = ("村民交易是获取绿宝石最稳定的方式。先找到村庄，给村民放置对应的工作方块，"
+        + "比如制图台让村民成为制图师，讲台让村民成为图书管理员。 Librarians can sell enchanted books such as Mending, "
+        + "so it is worth cycling their trades by breaking and replacing the lectern until a good offer appears! "
+        + "交易次数用完后，村民会在工作时间补货，一天最多两次。\n").repeat(8);
+
+    private List<String> fragments;
+
+    @Setup
+    public void setup() {
+        fragments = new ArrayList<>();
+        for (int i = 0; i < REPLY.length(); i += 12) {
+            fragments.add(REPLY.substring(i, Math.min(REPLY.length(), i + 12)));
+        }
+    }
+
+    @Benchmark
+    public void fixedSubstring(Blackhole blackhole) {
+        for (int i = 0; i < REPLY.length(); i += MAX_LENGTH) {
+            blackhole.consume(REPLY.substring(i, Math.min(REPLY.length(), i + MAX_LENGTH)));
+        }
+    }
+
+    @Benchmark
+    public void formatter(Blackhole blackhole) {
+        MarkdownFormatter formatter = new MarkdownFormatter(blackhole::consume, MAX_LENGTH, false);
+        formatter.append(REPLY);
+        formatter.flush();
+    }
+
+    @Benchmark
+    public void sentenceBufferStreamed(Blackhole blackhole) {
+        StreamingSentenceBuffer sentences = new StreamingSentenceBuffer(blackhole::consume, MAX_LENGTH);
+        for (String fragment : fragments) {
+            sentences.append(fragment);
+        }
+        sentences.flush();
+    }
+}
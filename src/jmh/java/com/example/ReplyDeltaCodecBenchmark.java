@@ -0,0 +1,63 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 自定义回复通道的编解码：流式模式下一个tick内的一两个句子（不压缩），以及非流式的整条回复（压缩）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplyDeltaCodecBenchmark {
+    private static final String SENTENCE = "先找到村庄，给村民放置对应的工作方块，比如讲台让村民成为图书管理员。\n";
+    private static final String REPLY = ("村民交易是获取绿宝石最稳定的方式。先找到村庄，给村民放置对应的工作方块，"
+        + "比如制图台让村民成为制图师，讲台让村民成为图书管理员。 Librarians can sell enchanted books such as Mending, "
+        + "so it is worth cycling their trades by breaking and replacing the lectern until a good offer appears! "
+        + "交易次数用完后，村民会在工作时间补货，一天最多两次。\n").repeat(8);
+
+    private ReplyDeltaCodec encoder;
+    private ReplyDeltaCodec decoder;
+    private byte[] sentenceFrame;
+    private byte[] replyFrame;
+
+    @Setup
+    public void setup() {
+        encoder = new ReplyDeltaCodec(256);
+        decoder = new ReplyDeltaCodec(0);
+        sentenceFrame = encoder.delta(1, SENTENCE);
+        replyFrame = encoder.delta(1, REPLY);
+    }
+
+    @Benchmark
+    public byte[] encodeSentence() {
+        return encoder.delta(1, SENTENCE);
+    }
+
+    @Benchmark
+    public byte[] encodeCompressedReply() {
+        return encoder.delta(1, REPLY);
+    }
+
+    @Benchmark
+    public ReplyDeltaCodec.Frame decodeSentence() {
+        return decoder.decode(sentenceFrame);
+    }
+
+    @Benchmark
+    public ReplyDeltaCodec.Frame decodeCompressedReply() {
+        return decoder.decode(replyFrame);
+    }
+}
@@ -0,0 +1,301 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用 N 个模拟玩家压测 {@link OpenAIAPIService}，上游换成本地的 {@link MockOpenAIServer}。
+ * <p>
+ * 每个玩家发出一个问题，收到结果后思考一段时间（指数分布）再问下一个，直到压测时间结束。
+ * 结束后输出吞吐量、端到端延迟分位数、各阶段延迟、结果分布、线程数和堆内存增长，
+ * 同时写到 --report 指定的文件。有调用在截止时间之后仍未结束，或者一次都没有成功时以非零状态退出。
+ * <p>
+ * 服务从工作目录下的 config/ai-for-minecraft.json 读取配置，压测前会覆盖这个文件，
+ * 所以要在单独的目录里运行（./gradlew loadTest 使用 build/loadtest）。
+ */
+public class LoadHarness {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("players", "50");
+        DEFAULTS.put("duration", "10");
+        DEFAULTS.put("think-ms", "200");
+        DEFAULTS.put("stream", "false");
+        DEFAULTS.put("latency", "log-normal:150:0.5");
+        DEFAULTS.put("reply-tokens", "40");
+        DEFAULTS.put("token-interval-ms", "5");
+        DEFAULTS.put("rate-429", "0.01");
+        DEFAULTS.put("rate-5xx", "0.005");
+        DEFAULTS.put("slow-loris", "0.002");
+        DEFAULTS.put("timeout", "5");
+        DEFAULTS.put("max-concurrent", "16");
+        DEFAULTS.put("report", "load-report.txt");
+    }
+
+    private final Map<String, String> options;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<AIMetrics.Outcome, LongAdder> outcomes = new EnumMap<>(AIMetrics.Outcome.class);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicInteger peakQueued = new AtomicInteger();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final LongAdder streamedParts = new LongAdder();
+
+    LoadHarness(Map<String, String> options) {
+        this.options = options;
+        for (AIMetrics.Outcome outcome : AIMetrics.Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Usage: LoadHarness [--option=value ...], options and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            if (!DEFAULTS.containsKey(name)) {
+                System.err.println("Unknown option: " + name + ", known options: " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            options.put(name, arg.substring(arg.indexOf('=') + 1));
+        }
+        // 服务的后台线程不都是守护线程，跑完直接退出
+        System.exit(new LoadHarness(options).run() ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        int players = integer("players");
+        int durationSeconds = integer("duration");
+        int timeoutSeconds = integer("timeout");
+        boolean stream = Boolean.parseBoolean(options.get("stream"));
+        String[] latencySpec = options.get("latency").split(":");
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        try (MockOpenAIServer server = new MockOpenAIServer()) {
+            server.latency(MockOpenAIServer.parseDistribution(latencySpec[0]),
+                    Double.parseDouble(latencySpec.length > 1 ? latencySpec[1] : "150"),
+                    Double.parseDouble(latencySpec.length > 2 ? latencySpec[2] : "0"))
+                .reply(integer("reply-tokens"), integer("token-interval-ms"))
+                .errors(decimal("rate-429"), decimal("rate-5xx"))
+                .slowLoris(decimal("slow-loris"), 1000)
+                .start();
+            writeConfig(server.getCompletionsUrl(), players, timeoutSeconds);
+
+            OpenAIAPIService service = new OpenAIAPIService();
+            ScheduledExecutorService timers = Executors.newScheduledThreadPool(2, runnable -> {
+                Thread thread = new Thread(runnable, "Load-Player");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+            CountDownLatch finished = new CountDownLatch(players);
+            for (int i = 0; i < players; i++) {
+                Player player = new Player(i, service, timers, end, stream, finished);
+                // 错开起步，避免所有玩家在同一毫秒发出第一个请求
+                timers.schedule(player::ask, ThreadLocalRandom.current().nextLong(Math.max(1, integer("think-ms"))), TimeUnit.MILLISECONDS);
+            }
+
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Load-Sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sampler.scheduleAtFixedRate(() -> {
+                RequestScheduler.Snapshot snapshot = service.getScheduler().snapshot();
+                peakInFlight.accumulateAndGet(snapshot.inFlight, Math::max);
+                peakQueued.accumulateAndGet(snapshot.queued, Math::max);
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            }, 0, 100, TimeUnit.MILLISECONDS);
+
+            // 压测结束后最后一批请求最多再等一个超时时间，之后仍未结束的算作挂起
+            boolean drained = finished.await(durationSeconds + timeoutSeconds + 5L, TimeUnit.SECONDS);
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            sampler.shutdownNow();
+            timers.shutdownNow();
+
+            int peakThreads = threads.getPeakThreadCount();
+            int threadsDuring = threads.getThreadCount();
+            Map<String, Integer> threadGroups = threadGroups(threads);
+            System.gc();
+            long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+            StringBuilder report = new StringBuilder(2048);
+            report.append("AI 请求压测报告\n");
+            report.append("选项: ").append(options).append('\n');
+            report.append(String.format(Locale.ROOT, "运行时间: %.1f s，玩家 %d，%s%n", elapsedSeconds, players, stream ? "流式" : "非流式"));
+            long successes = outcomes.get(AIMetrics.Outcome.SUCCESS).sum();
+            long total = latency.getCount();
+            report.append(String.format(Locale.ROOT, "完成调用: %d，成功 %d，吞吐量 %.1f 次/s（成功 %.1f 次/s）%n",
+                total, successes, total / elapsedSeconds, successes / elapsedSeconds));
+            report.append("结果:");
+            for (AIMetrics.Outcome outcome : AIMetrics.Outcome.values()) {
+                report.append(' ').append(outcome.name().toLowerCase(Locale.ROOT)).append('=').append(outcomes.get(outcome).sum());
+            }
+            report.append('\n');
+            report.append(String.format(Locale.ROOT, "端到端延迟(ms): p50 %.1f，p90 %.1f，p99 %.1f，max %.1f%n",
+                latency.percentileMillis(50), latency.percentileMillis(90), latency.percentileMillis(99), latency.percentileMillis(100)));
+            AIMetrics metrics = service.getMetrics();
+            for (AIMetrics.Stage stage : AIMetrics.Stage.values()) {
+                LatencyHistogram histogram = metrics.getHistogram(stage);
+                if (histogram.getCount() > 0) {
+                    report.append(String.format(Locale.ROOT, "  %s(ms): p50 %.1f，p99 %.1f，样本 %d%n", stage.getDisplayName(),
+                        histogram.percentileMillis(50), histogram.percentileMillis(99), histogram.getCount()));
+                }
+            }
+            if (stream) {
+                report.append("收到的流式片段: ").append(streamedParts.sum()).append('\n');
+            }
+            report.append(String.format(Locale.ROOT, "调度器峰值: 在途 %d，排队 %d；单次合并的上游调用 %d%n",
+                peakInFlight.get(), peakQueued.get(), service.getSingleFlight().getCoalesced()));
+            report.append(String.format(Locale.ROOT, "模拟服务器: 请求 %d，注入 429 %d，注入 5xx %d，慢速连接 %d，客户端中断 %d%n",
+                server.getRequests(), server.getInjectedTooManyRequests(), server.getInjectedServerErrors(),
+                server.getInjectedSlowLoris(), server.getAborted()));
+            report.append(String.format(Locale.ROOT, "线程: 开始 %d，结束时 %d，峰值 %d，按名称 %s%n",
+                threadsBefore, threadsDuring, peakThreads, threadGroups));
+            report.append(String.format(Locale.ROOT, "堆内存: 开始 %.1f MB，峰值 %.1f MB，结束（GC 后）%.1f MB，增长 %.1f MB%n",
+                mb(heapBefore), mb(peakHeap.get()), mb(heapAfter), mb(heapAfter - heapBefore)));
+            boolean passed = drained && successes > 0;
+            if (!drained) {
+                report.append("失败: ").append(pending.get()).append(" 个调用在截止时间之后仍未结束\n");
+            } else if (successes == 0) {
+                report.append("失败: 没有成功的调用\n");
+            }
+
+            System.out.print(report);
+            Path reportPath = Path.of(options.get("report"));
+            if (reportPath.getParent() != null) {
+                Files.createDirectories(reportPath.getParent());
+            }
+            Files.writeString(reportPath, report, StandardCharsets.UTF_8);
+            service.shutdown();
+            return passed;
+        }
+    }
+
+    // 关掉缓存、对话记忆和玩家限流，每个请求都真正打到模拟服务器上
+    private void writeConfig(String url, int players, int timeoutSeconds) throws IOException {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("api_url", url);
+        config.put("api_key", "mock");
+        config.put("model", "mock-model");
+        config.put("show_model_name", false);
+        config.put("cache_enabled", false);
+        config.put("cache_persist", false);
+        config.put("history_enabled", false);
+        config.put("rate_limit_per_minute", 0);
+        config.put("max_concurrent_requests", integer("max-concurrent"));
+        config.put("max_queue_size", Math.max(64, players * 2));
+        config.put("request_timeout_seconds", timeoutSeconds);
+        config.put("metrics_export_interval_seconds", 0);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Path path = ConfigManager.CONFIG_PATH;
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, gson.toJson(config), StandardCharsets.UTF_8);
+    }
+
+    private void complete(long startNanos, Throwable error) {
+        latency.record(System.nanoTime() - startNanos);
+        outcomes.get(AIMetrics.outcomeOf(error)).increment();
+    }
+
+    private int integer(String option) {
+        return Integer.parseInt(options.get(option));
+    }
+
+    private double decimal(String option) {
+        return Double.parseDouble(options.get(option));
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    // 按线程名去掉编号后的前缀分组计数，例如 AI-HTTP-Worker、HttpClient-1-Worker、Mock-OpenAI
+    private static Map<String, Integer> threadGroups(ThreadMXBean threads) {
+        Map<String, Integer> groups = new TreeMap<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null) {
+                groups.merge(info.getThreadName().replaceAll("-?\\d+$", ""), 1, Integer::sum);
+            }
+        }
+        return groups;
+    }
+
+    private final class Player {
+        private final RequestContext context;
+        private final OpenAIAPIService service;
+        private final ScheduledExecutorService timers;
+        private final long end;
+        private final boolean stream;
+        private final CountDownLatch finished;
+        private int asked;
+
+        Player(int index, OpenAIAPIService service, ScheduledExecutorService timers, long end, boolean stream,
+               CountDownLatch finished) {
+            this.context = new RequestContext(UUID.randomUUID(), "Player" + index, false);
+            this.service = service;
+            this.timers = timers;
+            this.end = end;
+            this.stream = stream;
+            this.finished = finished;
+        }
+
+        void ask() {
+            if (System.nanoTime() - end >= 0) {
+                finished.countDown();
+                return;
+            }
+            // 每个问题都不同，不会被缓存或合并
+            String message = context.getPlayerName() + " 的第 " + (++asked) + " 个问题：怎么合成钻石镐？";
+            long start = System.nanoTime();
+            pending.incrementAndGet();
+            CompletableFuture<String> call = stream
+                ? service.callAPIStreaming(context, message, part -> streamedParts.increment())
+                : service.callAPIAsync(context, message);
+            call.whenComplete((reply, error) -> {
+                pending.decrementAndGet();
+                complete(start, error);
+                long think = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * integer("think-ms"));
+                try {
+                    timers.schedule(this::ask, think, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // 压测已经结束
+                }
+            });
+        }
+    }
+}
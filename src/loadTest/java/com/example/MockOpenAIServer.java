@@ -0,0 +1,261 @@
+package com.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地的 /v1/chat/completions 替身，压测时代替真实的付费接口，不需要联网。
+ * <p>
+ * 每个请求先按配置的延迟分布等待（模拟首字节延迟），再返回普通或流式回复，回复带 usage 字段。
+ * 可以按比例注入 429、5xx 和慢速连接：慢速连接先发出 200 响应头，之后每隔一段时间才写一个字节，
+ * 用来检验截止时间和取消能否及时释放连接。GET /v1/models 总是成功，供健康检查探测。
+ */
+public class MockOpenAIServer implements AutoCloseable {
+    public enum Distribution { FIXED, UNIFORM, LOG_NORMAL }
+
+    private static final String WORD = "方块 ";
+
+    private final HttpServer server;
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    // 处理线程会 sleep 模拟延迟，每个连接占一个线程
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Mock-OpenAI-" + threadIndex.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Distribution distribution = Distribution.LOG_NORMAL;
+    private volatile double latencyMillis = 150;
+    private volatile double latencySpread = 0.5;
+    private volatile int replyTokens = 40;
+    private volatile long tokenIntervalMillis = 5;
+    private volatile double tooManyRequestsRate;
+    private volatile double serverErrorRate;
+    private volatile double slowLorisRate;
+    private volatile long slowLorisIntervalMillis = 1000;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder injectedTooManyRequests = new LongAdder();
+    private final LongAdder injectedServerErrors = new LongAdder();
+    private final LongAdder injectedSlowLoris = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+
+    public MockOpenAIServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.setExecutor(executor);
+        server.createContext("/v1/chat/completions", this::handleCompletion);
+        server.createContext("/v1/models", this::handleModels);
+    }
+
+    public MockOpenAIServer start() {
+        server.start();
+        return this;
+    }
+
+    public String getCompletionsUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+    }
+
+    /**
+     * 设置首字节延迟的分布。FIXED 固定为 millis；UNIFORM 在 millis ± spread 毫秒内均匀分布；
+     * LOG_NORMAL 的中位数为 millis，spread 是对数标准差，数值越大长尾越重。
+     */
+    public MockOpenAIServer latency(Distribution distribution, double millis, double spread) {
+        this.distribution = distribution;
+        this.latencyMillis = millis;
+        this.latencySpread = spread;
+        return this;
+    }
+
+    /**
+     * 每个回复的 token 数，以及流式回复中相邻两个 token 的间隔。
+     */
+    public MockOpenAIServer reply(int tokens, long tokenIntervalMillis) {
+        this.replyTokens = Math.max(1, tokens);
+        this.tokenIntervalMillis = Math.max(0, tokenIntervalMillis);
+        return this;
+    }
+
+    /**
+     * 按比例（0 到 1）注入 429 和 503 错误。
+     */
+    public MockOpenAIServer errors(double tooManyRequestsRate, double serverErrorRate) {
+        this.tooManyRequestsRate = tooManyRequestsRate;
+        this.serverErrorRate = serverErrorRate;
+        return this;
+    }
+
+    /**
+     * 按比例注入慢速连接，响应头之后每 intervalMillis 毫秒写一个字节。
+     */
+    public MockOpenAIServer slowLoris(double rate, long intervalMillis) {
+        this.slowLorisRate = rate;
+        this.slowLorisIntervalMillis = Math.max(1, intervalMillis);
+        return this;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getInjectedTooManyRequests() {
+        return injectedTooManyRequests.sum();
+    }
+
+    public long getInjectedServerErrors() {
+        return injectedServerErrors.sum();
+    }
+
+    public long getInjectedSlowLoris() {
+        return injectedSlowLoris.sum();
+    }
+
+    /**
+     * 客户端在回复写完之前断开的次数（取消、超时或对冲落败）。
+     */
+    public long getAborted() {
+        return aborted.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleModels(HttpExchange exchange) throws IOException {
+        // 关闭交换后连接才能复用，预热留在连接池里的连接随后要发真实请求
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, 200, "application/json", "{\"object\":\"list\",\"data\":[{\"id\":\"mock-model\",\"object\":\"model\"}]}");
+        }
+    }
+
+    private void handleCompletion(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            boolean stream = isStream(exchange.getRequestBody().readAllBytes());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double roll = random.nextDouble();
+            if (roll < tooManyRequestsRate) {
+                injectedTooManyRequests.increment();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, "application/json", "{\"error\":{\"message\":\"Rate limit exceeded\",\"type\":\"rate_limit_error\"}}");
+                return;
+            }
+            roll -= tooManyRequestsRate;
+            if (roll < serverErrorRate) {
+                injectedServerErrors.increment();
+                respond(exchange, 503, "application/json", "{\"error\":{\"message\":\"Service unavailable\",\"type\":\"server_error\"}}");
+                return;
+            }
+            roll -= serverErrorRate;
+            Thread.sleep(sampleLatency(random));
+            if (roll < slowLorisRate) {
+                injectedSlowLoris.increment();
+                slowLoris(exchange, stream);
+            } else if (stream) {
+                streamReply(exchange);
+            } else {
+                respond(exchange, 200, "application/json", completionJson());
+            }
+        } catch (IOException e) {
+            // 客户端取消或超时后断开了连接
+            aborted.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void streamReply(HttpExchange exchange) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int tokens = replyTokens;
+        for (int i = 0; i < tokens; i++) {
+            String content = i == tokens - 1 ? "完。\\n" : i % 10 == 9 ? "方块。" : WORD;
+            out.write(("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"}}]}\n\n")
+                .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (tokenIntervalMillis > 0) {
+                Thread.sleep(tokenIntervalMillis);
+            }
+        }
+        out.write(("data: {\"choices\":[],\"usage\":" + usageJson(tokens) + "}\n\ndata: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void slowLoris(HttpExchange exchange, boolean stream) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", stream ? "text/event-stream" : "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        byte[] body = (stream ? "data: " + completionJson() + "\n\ndata: [DONE]\n\n" : completionJson()).getBytes(StandardCharsets.UTF_8);
+        for (byte b : body) {
+            out.write(b);
+            out.flush();
+            Thread.sleep(slowLorisIntervalMillis);
+        }
+    }
+
+    private String completionJson() {
+        int tokens = replyTokens;
+        StringBuilder content = new StringBuilder(tokens * WORD.length());
+        for (int i = 0; i < tokens; i++) {
+            content.append(WORD);
+        }
+        return "{\"id\":\"mock\",\"object\":\"chat.completion\",\"model\":\"mock-model\",\"choices\":[{\"index\":0,"
+            + "\"message\":{\"role\":\"assistant\",\"content\":\"" + content.toString().trim() + "\"},\"finish_reason\":\"stop\"}],"
+            + "\"usage\":" + usageJson(tokens) + "}";
+    }
+
+    private static String usageJson(int completionTokens) {
+        return "{\"prompt_tokens\":32,\"completion_tokens\":" + completionTokens + ",\"total_tokens\":" + (32 + completionTokens) + "}";
+    }
+
+    private long sampleLatency(ThreadLocalRandom random) {
+        double millis;
+        switch (distribution) {
+            case UNIFORM:
+                millis = latencyMillis + (random.nextDouble() * 2 - 1) * latencySpread;
+                break;
+            case LOG_NORMAL:
+                millis = latencyMillis * Math.exp(latencySpread * random.nextGaussian());
+                break;
+            default:
+                millis = latencyMillis;
+        }
+        return Math.max(0, Math.round(millis));
+    }
+
+    private static boolean isStream(byte[] body) {
+        try {
+            JsonElement stream = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject().get("stream");
+            return stream != null && stream.getAsBoolean();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    static Distribution parseDistribution(String name) {
+        return Distribution.valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
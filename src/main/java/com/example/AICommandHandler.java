@@ -2,20 +2,39 @@ package com.example;
 
 import com.mojang.brigadier.CommandDispatcher;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import net.minecraft.text.Text;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.network.ServerPlayerEntity;
 import org.slf4j.Logger;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import static net.minecraft.server.command.CommandManager.literal;
 import static net.minecraft.server.command.CommandManager.argument;
 
 public class AICommandHandler {
     private final OpenAIAPIService openAIService;
+    private final ReplyOutbox outbox;
+    private final WorldContextSampler worldContext;
     private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    // 单条聊天消息的最大字符数
+    private static final int MAX_MESSAGE_LENGTH = 256;
+    private static final int AUDIT_DEFAULT_ENTRIES = 5;
+    private static final int AUDIT_MAX_ENTRIES = 50;
+    private static final DateTimeFormatter AUDIT_TIME = DateTimeFormatter.ofPattern("MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
-    public AICommandHandler(OpenAIAPIService openAIService) {
+    public AICommandHandler(OpenAIAPIService openAIService, ReplyOutbox outbox, WorldContextSampler worldContext) {
         this.openAIService = openAIService;
+        this.outbox = outbox;
+        this.worldContext = worldContext;
     }
 
 
@@ -34,18 +53,50 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
                     return 0;
                 }
                 
+                OpenAIAPIConfig config = openAIService.getConfig();
+                if (config == null) {
+                    source.sendError(Text.literal("Failed to get AI response: " + OpenAIAPIService.CONFIG_NOT_LOADED));
+                    return 0;
+                }
+                RequestContext requestContext = contextOf(source);
                 try {
-                    openAIService.callAPIAsync(message).thenAccept(response -> {
-                        // 分割长文本以避免全服广播，并确保只发送给命令执行者
-                        int maxLength = 256;
-                        for (int i = 0; i < response.length(); i += maxLength) {
-                            String part = response.substring(i, Math.min(response.length(), i + maxLength));
-                            String finalPart = part;
-                            source.getPlayer().sendMessage(Text.literal(finalPart), false);
+                    MarkdownFormatter formatter = formatterFor(source, config);
+                    boolean stream = config.isStreamEnabled();
+                    ServerPlayerEntity player = source.getPlayer();
+                    // 装了本模组的客户端经自定义通道接收，在一个面板里逐段显示；原版客户端和控制台仍然收到分段的聊天消息
+                    ReplyOutbox.ReplyStream channel = player != null && config.isClientStreamingEnabled() && ReplyChannel.canSend(player)
+                        ? outbox.openStream(player, config.shouldRemoveThinkTags()) : null;
+                    // 句子保留原文的空白和换行，由格式化器（或客户端）按行排版，和非流式的回复显示一致
+                    Consumer<String> sentences = channel != null ? channel::append : formatter::append;
+                    // 开启环境上下文时先在主线程上分几个tick采集玩家周围的情况，整理成文字后再发出请求；
+                    // 未开启时立即完成，请求仍在本tick内发出
+                    CompletableFuture<String> reply = worldContext.attach(player, requestContext).thenCompose(prepared -> {
+                        CompletableFuture<String> call = stream
+                            // 流式模式：每收到一个完整句子就交给发件箱
+                            ? openAIService.callAPIStreaming(prepared, message, sentences)
+                            : openAIService.callAPIAsync(prepared, message);
+                        int position = openAIService.getScheduler().getQueuePosition(prepared);
+                        if (position > 0) {
+                            outbox.send(source, Text.literal("请求已排队，当前第 " + position + " 位"));
+                        }
+                        return call;
+                    });
+                    CompletableFuture<?> delivered = stream ? reply : reply.thenAccept(response -> {
+                        // 按行和空白切段，只发送给命令执行者；由发件箱在主线程发送
+                        if (channel != null) {
+                            channel.append(response);
+                        } else {
+                            formatter.append(response);
+                        }
+                    });
+                    delivered.whenComplete((ignored, error) -> {
+                        if (channel != null) {
+                            channel.close();
+                        } else {
+                            formatter.flush();
                         }
                     }).exceptionally(error -> {
-                        LOGGER.error("Failed to call OpenAI API", error);
-                        source.sendError(Text.literal("Failed to get AI response: " + error.getMessage()));
+                        reportError(source, error);
                         return null;
                     });
                     return 1;
@@ -56,6 +107,161 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
                 }
             })));
             
+        // 查看排队情况
+        dispatcher.register(literal("ai")
+            .then(literal("queue")
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                RequestContext requestContext = contextOf(source);
+                RequestScheduler scheduler = openAIService.getScheduler();
+                RequestScheduler.Snapshot snapshot = scheduler.snapshot();
+                int position = scheduler.getQueuePosition(requestContext);
+                double tokens = scheduler.getAvailableTokens(requestContext);
+
+                source.sendFeedback(() -> Text.literal("AI请求队列:"), false);
+                source.sendFeedback(() -> Text.literal("进行中: " + snapshot.inFlight + "/" + snapshot.maxConcurrent), false);
+                source.sendFeedback(() -> Text.literal("排队中: " + snapshot.queued + "/" + snapshot.maxQueueSize
+                    + "（优先通道 " + snapshot.priorityQueued + "，等待玩家 " + snapshot.waitingPlayers + "）"), false);
+                source.sendFeedback(() -> Text.literal("你的位置: " + (position > 0 ? "第 " + position + " 位" : "无排队请求")), false);
+                if (snapshot.rateLimitPerMinute > 0) {
+                    String remaining = Double.isInfinite(tokens) ? "不限" : String.valueOf((int) tokens);
+                    source.sendFeedback(() -> Text.literal("限流: 每分钟 " + snapshot.rateLimitPerMinute + " 次，突发 "
+                        + snapshot.rateLimitBurst + " 次，你当前可用 " + remaining + " 次"), false);
+                }
+                source.sendFeedback(() -> Text.literal("每位玩家最多排队: " + snapshot.maxQueuedPerPlayer), false);
+                return 1;
+            })));
+
+        // 取消自己排队中和进行中的请求
+        dispatcher.register(literal("ai")
+            .then(literal("cancel")
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                ServerPlayerEntity player = source.getPlayer();
+                if (player == null) {
+                    source.sendError(Text.literal("只有玩家可以取消自己的请求"));
+                    return 0;
+                }
+                int cancelled = openAIService.cancelRequests(player.getUuid());
+                if (cancelled == 0) {
+                    source.sendFeedback(() -> Text.literal("没有进行中的AI请求"), false);
+                } else {
+                    source.sendFeedback(() -> Text.literal("已取消 " + cancelled + " 个AI请求"), false);
+                }
+                return cancelled;
+            })));
+
+        // 查看自己的token额度
+        dispatcher.register(literal("ai")
+            .then(literal("quota")
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                TokenQuota quota = openAIService.getQuota();
+                ServerPlayerEntity player = source.getPlayer();
+                if (player == null) {
+                    source.sendFeedback(() -> Text.literal("token额度: 每小时 " + limitText(quota.getHourlyLimit())
+                        + "，每天 " + limitText(quota.getDailyLimit()) + "，管理员不受限制"), false);
+                    return 1;
+                }
+                TokenQuota.Remaining remaining = quota.remaining(player.getUuid());
+                source.sendFeedback(() -> Text.literal("本小时: 已用 " + remaining.hourlyUsed + " token，剩余 "
+                    + remainingText(remaining.hourlyRemaining) + "，" + remaining.minutesUntilHourlyReset + " 分钟后重置"), false);
+                source.sendFeedback(() -> Text.literal("今天: 已用 " + remaining.dailyUsed + " token，剩余 "
+                    + remainingText(remaining.dailyRemaining) + "，" + remaining.minutesUntilDailyReset + " 分钟后重置"), false);
+                if (source.hasPermissionLevel(4)) {
+                    source.sendFeedback(() -> Text.literal("§7管理员不受额度限制"), false);
+                }
+                return 1;
+            })));
+
+        // 清空自己的对话记忆
+        dispatcher.register(literal("ai")
+            .then(literal("reset")
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                ServerPlayerEntity player = source.getPlayer();
+                if (player == null) {
+                    source.sendError(Text.literal("只有玩家可以使用对话记忆"));
+                    return 0;
+                }
+                openAIService.getConversations().reset(player.getUuid());
+                source.sendFeedback(() -> Text.literal("已清空与AI的对话记录"), false);
+                return 1;
+            })));
+
+        // 查看自己的对话记忆
+        dispatcher.register(literal("ai")
+            .then(literal("history")
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                ServerPlayerEntity player = source.getPlayer();
+                if (player == null) {
+                    source.sendError(Text.literal("只有玩家可以使用对话记忆"));
+                    return 0;
+                }
+                ConversationSession session = openAIService.getConversations().peekSession(player.getUuid());
+                if (session == null || session.isEmpty()) {
+                    source.sendFeedback(() -> Text.literal("暂无对话记录"), false);
+                    return 1;
+                }
+                String summary = session.getSummary();
+                if (summary != null) {
+                    source.sendFeedback(() -> Text.literal("§7早先对话摘要: " + summary), false);
+                }
+                for (ChatMessage message : session.getHistory()) {
+                    String speaker = message.getRole().equals(ChatMessage.USER) ? "§b你: §r" : "§aAI: §r";
+                    String content = message.getContent();
+                    String preview = content.length() > 80 ? content.substring(0, 80) + "..." : content;
+                    source.sendFeedback(() -> Text.literal(speaker + preview), false);
+                }
+                return 1;
+            })));
+
+        // 查看性能指标
+        dispatcher.register(literal("ai")
+            .then(literal("stats")
+            .requires(source -> source.hasPermissionLevel(4))
+            .executes(context -> {
+                ServerCommandSource source = context.getSource();
+                AIMetrics metrics = openAIService.getMetrics();
+                RequestScheduler.Snapshot snapshot = openAIService.getScheduler().snapshot();
+                source.sendFeedback(() -> Text.literal("AI性能指标:"), false);
+                source.sendFeedback(() -> Text.literal("请求: 成功 " + metrics.getCount(AIMetrics.Outcome.SUCCESS)
+                    + "，出错 " + metrics.getCount(AIMetrics.Outcome.ERROR) + "，超时 " + metrics.getCount(AIMetrics.Outcome.TIMEOUT)
+                    + "，取消 " + metrics.getCount(AIMetrics.Outcome.CANCELLED) + "，被拒绝 " + metrics.getCount(AIMetrics.Outcome.REJECTED)), false);
+                source.sendFeedback(() -> Text.literal("进行中: " + snapshot.inFlight + "/" + snapshot.maxConcurrent + "，排队中: " + snapshot.queued
+                    + "，发件箱待发送: " + outbox.getPending()), false);
+                ResponseCache cache = openAIService.getResponseCache();
+                source.sendFeedback(() -> Text.literal(String.format("缓存命中率: %.1f%%，合并的重复请求: %d",
+                    cache.getHitRate() * 100, openAIService.getSingleFlight().getCoalesced())), false);
+                source.sendFeedback(() -> Text.literal("本地资料直接回答: " + openAIService.getKnowledge().getAnswered() + " 次"), false);
+                source.sendFeedback(() -> Text.literal(String.format("Token: 提示 %d，生成 %d，生成速度 %.1f token/秒",
+                    metrics.getPromptTokens(), metrics.getCompletionTokens(), metrics.getTokensPerSecond())), false);
+                source.sendFeedback(() -> Text.literal("延迟（毫秒） p50 / p90 / p99 / 样本数:"), false);
+                for (AIMetrics.Stage stage : AIMetrics.Stage.values()) {
+                    LatencyHistogram histogram = metrics.getHistogram(stage);
+                    source.sendFeedback(() -> Text.literal(histogram.getCount() == 0
+                        ? "  " + stage.getDisplayName() + ": 暂无数据"
+                        : String.format("  %s: %.1f / %.1f / %.1f / %d", stage.getDisplayName(), histogram.percentileMillis(50),
+                            histogram.percentileMillis(90), histogram.percentileMillis(99), histogram.getCount())), false);
+                }
+                OpenAIAPIConfig config = openAIService.getConfig();
+                if (config != null && config.getMetricsExportIntervalSeconds() > 0) {
+                    source.sendFeedback(() -> Text.literal("每 " + config.getMetricsExportIntervalSeconds() + " 秒导出到 " + AIMetrics.EXPORT_PATH), false);
+                }
+                return 1;
+            })));
+
+        // 查看审计日志中某位玩家最近的调用，读文件在后台线程进行
+        dispatcher.register(literal("ai")
+            .then(literal("audit")
+            .requires(source -> source.hasPermissionLevel(4))
+            .then(argument("player", StringArgumentType.word())
+            .executes(context -> showAudit(context.getSource(), StringArgumentType.getString(context, "player"), AUDIT_DEFAULT_ENTRIES))
+            .then(argument("count", IntegerArgumentType.integer(1, AUDIT_MAX_ENTRIES))
+            .executes(context -> showAudit(context.getSource(), StringArgumentType.getString(context, "player"),
+                IntegerArgumentType.getInteger(context, "count")))))));
+
         // 新增reload命令
         dispatcher.register(literal("ai")
             .then(literal("reload")
@@ -63,7 +269,6 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
             .executes(context -> {
                 try {
                     openAIService.reloadConfig();
-                    AiForMinecraft.getInstance().reloadConfig();
                     context.getSource().sendFeedback(() -> Text.literal("AI配置已重新加载"), false);
                     return 1;
                 } catch (Exception e) {
@@ -80,6 +285,10 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
             .executes(context -> {
                 ServerCommandSource source = context.getSource();
                 OpenAIAPIConfig config = openAIService.getConfig();
+                if (config == null) {
+                    source.sendError(Text.literal(OpenAIAPIService.CONFIG_NOT_LOADED));
+                    return 0;
+                }
                 
                 source.sendFeedback(() -> Text.literal("当前AI配置:"), false);
                 source.sendFeedback(() -> Text.literal("API地址: " + config.getApiUrl()), false);
@@ -89,7 +298,48 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
                 source.sendFeedback(() -> Text.literal("系统提示: " + config.getSystemPrompt()), false);
                 source.sendFeedback(() -> Text.literal("显示模型名称: " + config.shouldShowModelName()), false);
                 source.sendFeedback(() -> Text.literal("处理思考标签: " + config.shouldRemoveThinkTags()), false);
-                source.sendFeedback(() -> Text.literal("可配置选项: api_url, api_key, model, max_tokens, temperature, system_prompt, show_model_name, process_think_tags"), false);
+                source.sendFeedback(() -> Text.literal("流式输出: " + config.isStreamEnabled()), false);
+                source.sendFeedback(() -> Text.literal("并发上限: " + config.getMaxConcurrentRequests() + "，队列上限: " + config.getMaxQueueSize()
+                    + "，每人排队上限: " + config.getMaxQueuedPerPlayer()), false);
+                source.sendFeedback(() -> Text.literal("限流: 每分钟 " + config.getRateLimitPerMinute() + " 次，突发 " + config.getRateLimitBurst() + " 次"), false);
+                source.sendFeedback(() -> Text.literal("请求超时: " + config.getRequestTimeoutSeconds() + " 秒"), false);
+                source.sendFeedback(() -> Text.literal("提示token上限: " + limitText(config.getMaxPromptTokens()) + "，超出时"
+                    + (config.shouldTruncateLongPrompts() ? "截断" : "拒绝") + "，计数方式: " + (TokenCounter.isExact() ? "BPE词表" : "估算")), false);
+                source.sendFeedback(() -> Text.literal("玩家token额度: 每小时 " + limitText(config.getQuotaTokensPerHour())
+                    + "，每天 " + limitText(config.getQuotaTokensPerDay())), false);
+                if (config.isHedgeEnabled()) {
+                    long delay = openAIService.getFirstByteLatency().percentile(config.getHedgePercentile(), 1);
+                    source.sendFeedback(() -> Text.literal("对冲请求: 首字节延迟 p" + config.getHedgePercentile() + " = "
+                        + (delay < 0 ? "未知" : delay + "ms") + "（至少 " + config.getHedgeMinDelayMs() + "ms），已对冲 "
+                        + openAIService.getHedgedRequests() + " 次，对冲胜出 " + openAIService.getHedgeWins() + " 次"), false);
+                } else {
+                    source.sendFeedback(() -> Text.literal("对冲请求: 关闭"), false);
+                }
+                ResponseCache cache = openAIService.getResponseCache();
+                source.sendFeedback(() -> Text.literal(String.format("回复缓存: %s，条目 %d/%d，命中率 %.1f%%（命中 %d，未命中 %d）",
+                    cache.isEnabled() ? "开启" : "关闭", cache.size(), cache.getMaxEntries(), cache.getHitRate() * 100,
+                    cache.getHits(), cache.getMisses())), false);
+                SingleFlight<?> singleFlight = openAIService.getSingleFlight();
+                source.sendFeedback(() -> Text.literal("合并的重复请求: " + singleFlight.getCoalesced() + "，进行中的上游调用: " + singleFlight.getInFlight()), false);
+                KnowledgeIndex knowledge = openAIService.getKnowledge();
+                source.sendFeedback(() -> Text.literal("本地游戏资料: " + config.isKnowledgeEnabled() + "，资料 " + knowledge.size()
+                    + " 条，直接回答: " + config.shouldAnswerFromKnowledge() + "（已回答 " + knowledge.getAnswered() + " 次），附加资料 "
+                    + config.getKnowledgeContextHits() + " 条"), false);
+                source.sendFeedback(() -> Text.literal("对话记忆: " + config.isHistoryEnabled() + "，最多 " + config.getHistoryMaxMessages()
+                    + " 条，token预算 " + config.getHistoryTokenBudget() + "，摘要: " + config.shouldSummarizeHistory()
+                    + "，当前会话数 " + openAIService.getConversations().getSessionCount()), false);
+                source.sendFeedback(() -> Text.literal("发件箱: 每tick最多 " + config.getOutboxMessagesPerTick() + " 条/" + config.getOutboxCharsPerTick()
+                    + " 字符，待发送 " + outbox.getPending()), false);
+                source.sendFeedback(() -> Text.literal("上游端点（熔断阈值 " + config.getCircuitFailureThreshold() + " 次，冷却 "
+                    + config.getCircuitOpenSeconds() + " 秒，最多尝试 " + config.getMaxFailoverAttempts() + " 个端点）:"), false);
+                for (Endpoint.Stats endpoint : openAIService.getRouter().snapshot()) {
+                    source.sendFeedback(() -> Text.literal(String.format("  %s [%s] %s，在途 %d%s，权重 %.1f，延迟 %s，错误率 %.0f%%，请求 %d，失败 %d",
+                        endpoint.name, endpoint.model, stateName(endpoint.state), endpoint.inFlight,
+                        endpoint.maxConcurrent > 0 ? "/" + endpoint.maxConcurrent : "", endpoint.weight,
+                        endpoint.latencyMillis < 0 ? "未知" : String.format("%.0fms", endpoint.latencyMillis),
+                        endpoint.errorRate * 100, endpoint.requests, endpoint.failures)), false);
+                }
+                source.sendFeedback(() -> Text.literal("可配置选项: " + String.join(", ", ConfigManager.getOptionNames())), false);
                 source.sendFeedback(() -> Text.literal("使用/ai config set <选项> <值> 修改配置"), false);
                 return 1;
             })
@@ -102,8 +352,10 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
                     String value = StringArgumentType.getString(context, "value");
                     
                     try {
-                        AiForMinecraft.getInstance().updateConfig(option, value);
-                        source.sendFeedback(() -> Text.literal("配置项 " + option + " 已更新为: " + value), false);
+                        // 立即生效，配置文件在后台写回
+                        openAIService.getConfigManager().set(option, value);
+                        String shown = option.equalsIgnoreCase("api_key") ? "******" : value;
+                        source.sendFeedback(() -> Text.literal("配置项 " + option + " 已更新为: " + shown), false);
                         return 1;
                     } catch (Exception e) {
                         source.sendError(Text.literal("更新配置失败: " + e.getMessage()));
@@ -111,4 +363,95 @@ public void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher,
                     }
                 }))))));
     }
-}
\ No newline at end of file
+
+    private int showAudit(ServerCommandSource source, String player, int limit) {
+        AuditLog auditLog = openAIService.getAuditLog();
+        if (!auditLog.isEnabled()) {
+            source.sendError(Text.literal("审计日志未开启，使用 /ai config set audit_enabled true 开启"));
+            return 0;
+        }
+        auditLog.recentAsync(player, limit).thenAccept(entries -> {
+            if (entries.isEmpty()) {
+                outbox.send(source, Text.literal("审计日志中没有 " + player + " 的记录"));
+                return;
+            }
+            outbox.send(source, Text.literal(player + " 最近的 " + entries.size() + " 次AI调用:"));
+            for (AuditLog.Entry entry : entries) {
+                String usage = entry.promptTokens + entry.completionTokens > 0
+                    ? "，" + entry.promptTokens + "+" + entry.completionTokens + " token" : "";
+                outbox.send(source, Text.literal("§7" + AUDIT_TIME.format(Instant.ofEpochMilli(entry.time)) + " " + entry.outcome + "，"
+                    + entry.origin + (entry.model != null ? "，" + entry.model : "") + "，" + entry.latencyMs + " ms" + usage));
+                outbox.send(source, Text.literal("  §b问: §r" + preview(entry.prompt)));
+                outbox.send(source, Text.literal(entry.error != null ? "  §c错误: §r" + preview(entry.error) : "  §a答: §r" + preview(entry.response)));
+            }
+        }).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            LOGGER.error("Failed to read AI audit log", cause);
+            outbox.sendError(source, "读取审计日志失败: " + cause.getMessage());
+            return null;
+        });
+        return 1;
+    }
+
+    private static String preview(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.length() > 80 ? text.substring(0, 80) + "..." : text;
+    }
+
+    private static RequestContext contextOf(ServerCommandSource source) {
+        ServerPlayerEntity player = source.getPlayer();
+        if (player == null) {
+            return RequestContext.SYSTEM;
+        }
+        return new RequestContext(player.getUuid(), player.getName().getString(), source.hasPermissionLevel(4));
+    }
+
+    private static String limitText(long limit) {
+        return limit > 0 ? limit + " token" : "不限";
+    }
+
+    private static String remainingText(long remaining) {
+        return remaining < 0 ? "不限" : remaining + " token";
+    }
+
+    private static String stateName(Endpoint.State state) {
+        switch (state) {
+            case OPEN:
+                return "§c熔断中§r";
+            case HALF_OPEN:
+                return "§e试探中§r";
+            default:
+                return "§a正常§r";
+        }
+    }
+
+    // 每个请求一个格式化器，样式状态不会串到别的玩家
+    private MarkdownFormatter formatterFor(ServerCommandSource source, OpenAIAPIConfig config) {
+        return new MarkdownFormatter(spans -> outbox.send(source, MarkdownText.toText(spans)),
+            MAX_MESSAGE_LENGTH, config.shouldRemoveThinkTags());
+    }
+
+    // 在工作线程上调用，错误消息同样经发件箱回到主线程发送
+    private void reportError(ServerCommandSource source, Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RequestRejectedException) {
+            outbox.sendError(source, cause.getMessage());
+            return;
+        }
+        if (cause instanceof CancellationException) {
+            // 玩家自己取消或已经下线，不用再提示
+            return;
+        }
+        if (cause instanceof TimeoutException) {
+            outbox.sendError(source, "AI回复超时，请稍后再试");
+            return;
+        }
+        LOGGER.error("Failed to call OpenAI API", cause);
+        outbox.sendError(source, "Failed to get AI response: " + cause.getMessage());
+    }
+}
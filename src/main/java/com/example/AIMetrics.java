@@ -0,0 +1,267 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import org.slf4j.Logger;
+
+/**
+ * 请求管线的性能指标。
+ * <p>
+ * 计数器用 LongAdder，延迟用 {@link LatencyHistogram}，记录时都不加锁。
+ * 一次 /ai 调用分为排队等待、建立连接、首字节、总耗时和聊天投递几个阶段分别统计，
+ * 另外记录各种结果的次数和 token 用量。队列长度等瞬时值以回调方式登记，导出时才读取。
+ * 指标可以用 /ai stats 查看，也会按 metrics_export_interval_seconds 定期写成
+ * Prometheus 文本格式，供本地的采集器读取。
+ */
+public class AIMetrics {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    public static final Path EXPORT_PATH = Path.of("logs", "ai-for-minecraft.prom");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    public enum Stage {
+        QUEUE_WAIT("queue_wait", "排队等待", "Time spent waiting for a scheduler permit"),
+        CONNECT("connect", "建立连接", "Time from building the HTTP request until its body starts sending"),
+        FIRST_BYTE("first_byte", "首字节", "Time from sending the HTTP request until successful response headers"),
+        TOTAL("total", "总耗时", "Time from the /ai call until the complete reply"),
+        DELIVERY("delivery", "聊天投递", "Time a reply part waits in the outbox before reaching the player");
+
+        final String metricName;
+        final String displayName;
+        final String help;
+
+        Stage(String metricName, String displayName, String help) {
+            this.metricName = metricName;
+            this.displayName = displayName;
+            this.help = help;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    public enum Outcome { SUCCESS, ERROR, TIMEOUT, CANCELLED, REJECTED }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder completionTokens = new LongAdder();
+    private final LongAdder generationNanos = new LongAdder();
+    // 按名称排序，导出的文件顺序稳定
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Metrics-Export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> export;
+    private long exportSeconds = -1;
+
+    public AIMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    public synchronized void configure(OpenAIAPIConfig config) {
+        int seconds = config.getMetricsExportIntervalSeconds();
+        if (seconds == exportSeconds) {
+            return;
+        }
+        exportSeconds = seconds;
+        if (export != null) {
+            export.cancel(false);
+            export = null;
+        }
+        if (seconds > 0) {
+            export = exporter.scheduleWithFixedDelay(this::export, seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * 记录一次调用的结果；error 为 null 表示成功。
+     */
+    public void onComplete(Throwable error) {
+        outcomes[outcomeOf(error).ordinal()].increment();
+    }
+
+    /**
+     * 记录一次上游回复的 token 用量，generationNanos 是从收到响应头到收完回复的时间，用来算生成速度。
+     */
+    public void onUsage(long prompt, long completion, long generationNanos) {
+        promptTokens.add(prompt);
+        completionTokens.add(completion);
+        this.generationNanos.add(Math.max(0, generationNanos));
+    }
+
+    /**
+     * 登记一个导出时才读取的瞬时值。同名的会被替换。
+     *
+     * @param counter 值只增不减时为 true，导出为 Prometheus counter
+     */
+    public void gauge(String name, String help, boolean counter, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, counter, value));
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long getCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    public long getPromptTokens() {
+        return promptTokens.sum();
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens.sum();
+    }
+
+    /**
+     * 生成阶段的平均速度（token/秒），没有数据时返回 0。
+     */
+    public double getTokensPerSecond() {
+        long nanos = generationNanos.sum();
+        return nanos <= 0 ? 0 : completionTokens.sum() * 1e9 / nanos;
+    }
+
+    public double getGauge(String name) {
+        Gauge gauge = gauges.get(name);
+        return gauge == null ? 0 : gauge.value.getAsDouble();
+    }
+
+    /**
+     * 按 Prometheus 文本格式输出全部指标。
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# HELP ai_requests_total Completed /ai calls by outcome\n");
+        out.append("# TYPE ai_requests_total counter\n");
+        for (Outcome outcome : Outcome.values()) {
+            out.append("ai_requests_total{outcome=\"").append(outcome.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                .append(getCount(outcome)).append('\n');
+        }
+        out.append("# HELP ai_tokens_total Tokens reported by the upstream usage field, estimated when absent\n");
+        out.append("# TYPE ai_tokens_total counter\n");
+        out.append("ai_tokens_total{type=\"prompt\"} ").append(getPromptTokens()).append('\n');
+        out.append("ai_tokens_total{type=\"completion\"} ").append(getCompletionTokens()).append('\n');
+        out.append("# HELP ai_generation_seconds_total Time spent receiving reply bodies, for tokens per second\n");
+        out.append("# TYPE ai_generation_seconds_total counter\n");
+        out.append("ai_generation_seconds_total ").append(format(generationNanos.sum() / 1e9)).append('\n');
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            String name = "ai_" + stage.metricName + "_seconds";
+            out.append("# HELP ").append(name).append(' ').append(stage.help).append('\n');
+            out.append("# TYPE ").append(name).append(" summary\n");
+            if (histogram.getCount() > 0) {
+                for (double quantile : QUANTILES) {
+                    out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(format(histogram.percentileMillis(quantile * 100) / 1000)).append('\n');
+                }
+            }
+            out.append(name).append("_sum ").append(format(histogram.getSumNanos() / 1e9)).append('\n');
+            out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            Gauge gauge = entry.getValue();
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(gauge.help).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(gauge.counter ? " counter\n" : " gauge\n");
+            out.append(entry.getKey()).append(' ').append(format(gauge.value.getAsDouble())).append('\n');
+        }
+    }
+
+    /**
+     * 停止定期导出，最后写一次文件。
+     */
+    public void shutdown() {
+        exporter.shutdownNow();
+        if (exportSeconds > 0) {
+            export();
+        }
+    }
+
+    // 先写临时文件再替换，采集器不会读到写了一半的文件
+    private void export() {
+        StringBuilder out = new StringBuilder(4096);
+        try {
+            writePrometheus(out);
+            Files.createDirectories(EXPORT_PATH.getParent());
+            Path temp = EXPORT_PATH.resolveSibling(EXPORT_PATH.getFileName() + ".tmp");
+            Files.write(temp, out.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, EXPORT_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, EXPORT_PATH, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to export metrics to {}", EXPORT_PATH, e);
+        }
+    }
+
+    static Outcome outcomeOf(Throwable error) {
+        if (error == null) {
+            return Outcome.SUCCESS;
+        }
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof CancellationException) {
+            return Outcome.CANCELLED;
+        }
+        if (cause instanceof TimeoutException || cause instanceof HttpTimeoutException) {
+            return Outcome.TIMEOUT;
+        }
+        if (cause instanceof RequestRejectedException) {
+            return Outcome.REJECTED;
+        }
+        return Outcome.ERROR;
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static final class Gauge {
+        final String help;
+        final boolean counter;
+        final DoubleSupplier value;
+
+        Gauge(String help, boolean counter, DoubleSupplier value) {
+            this.help = help;
+            this.counter = counter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example;
+
+import java.io.IOException;
+
+/**
+ * 上游返回了非 2xx 状态码。路由器据此判断是否换一个端点重试。
+ */
+public class ApiHttpException extends IOException {
+    private final int statusCode;
+
+    public ApiHttpException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * 限流、服务端错误和认证失败都说明这个端点暂时用不了，换一个端点可能成功。
+     */
+    public boolean isEndpointFault() {
+        return statusCode == 429 || statusCode >= 500 || statusCode == 401 || statusCode == 403;
+    }
+}
@@ -0,0 +1,515 @@
+package com.example;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+
+/**
+ * 审计日志：记录每次AI调用的提问、回复、模型、耗时和token用量，用于管理和成本分析。
+ * <p>
+ * 工作线程调用 {@link #append} 时只把记录放进一个无锁的环形缓冲区（缓冲区满时丢弃并计数，从不阻塞）；
+ * 后台写入线程每隔一小段时间取出全部记录，批量写入 {@link #DIRECTORY} 下的分段文件，每批只 flush 一次。
+ * 每行一条 JSON 记录（JSONL），可以选择 gzip 压缩。分段文件按大小和日期轮换，按保留天数和总大小清理最旧的分段。
+ * <p>
+ * 查询时从最新的分段往前逐行读取，先按原始文本筛选再解析，不会把整个分段读进内存。
+ * 这个类不依赖 Minecraft，可以单独做基准测试。
+ */
+public class AuditLog {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    public static final Path DIRECTORY = Path.of("logs", "ai-audit");
+    private static final String PREFIX = "audit-";
+    private static final DateTimeFormatter SEGMENT_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private final Path directory;
+    private final Ring ring;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Audit-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 查询在单独的线程上读文件，不耽误写入
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Audit-Reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean enabled;
+    private volatile boolean compress;
+    private volatile long segmentBytes;
+    private volatile int retentionDays;
+    private volatile long maxTotalBytes;
+    private boolean started;
+    // 持有 this 锁时才访问，平时只有写入线程
+    private Segment segment;
+
+    public AuditLog(Path directory) {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    AuditLog(Path directory, int capacity) {
+        this.directory = directory;
+        this.ring = new Ring(capacity);
+    }
+
+    public synchronized void configure(OpenAIAPIConfig config) {
+        boolean compressionChanged = compress != config.shouldCompressAudit();
+        enabled = config.isAuditEnabled();
+        compress = config.shouldCompressAudit();
+        segmentBytes = Math.max(1, config.getAuditSegmentMb()) * 1024L * 1024L;
+        retentionDays = config.getAuditRetentionDays();
+        maxTotalBytes = Math.max(0, config.getAuditMaxTotalMb()) * 1024L * 1024L;
+        if (enabled && !started) {
+            started = true;
+            writer.scheduleWithFixedDelay(this::drain, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        if (started && compressionChanged) {
+            // 切换压缩方式后从新的分段开始写
+            submit(this::rotate);
+        }
+    }
+
+    /**
+     * 记录一次调用，可以在任意线程调用。未开启或缓冲区已满时返回 false。
+     */
+    public boolean append(Entry entry) {
+        if (!enabled) {
+            return false;
+        }
+        if (!ring.offer(entry)) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 已写入文件的记录数。
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * 因缓冲区已满而丢弃的记录数。
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 在后台线程上执行 {@link #recent}。
+     */
+    public CompletableFuture<List<Entry>> recentAsync(String player, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return recent(player, limit);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, reader);
+    }
+
+    /**
+     * 从最新的分段往前找，返回该玩家（名字或 UUID，不区分大小写）最近的至多 limit 条记录，按时间从旧到新排列。
+     * player 为 null 时返回所有人的记录。会在调用线程上读文件，不要在主线程上调用。
+     */
+    public List<Entry> recent(String player, int limit) throws IOException {
+        List<Entry> found = new ArrayList<>();
+        if (limit <= 0) {
+            return found;
+        }
+        List<Path> segments = listSegments();
+        Collections.reverse(segments);
+        String byName = player != null ? "\"player\":" + ChatCompletionCodec.GSON.toJson(player) : null;
+        String byUuid = player != null ? "\"uuid\":" + ChatCompletionCodec.GSON.toJson(player) : null;
+        for (Path path : segments) {
+            // 只保留本分段中最后 limit 条匹配的记录
+            ArrayDeque<Entry> matches = new ArrayDeque<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (player != null && !containsIgnoreCase(line, byName) && !containsIgnoreCase(line, byUuid)) {
+                        continue;
+                    }
+                    Entry entry;
+                    try {
+                        entry = ChatCompletionCodec.GSON.fromJson(line, Entry.class);
+                    } catch (JsonParseException e) {
+                        // 写到一半的最后一行
+                        continue;
+                    }
+                    // 原始文本的匹配可能落在别的字段里，解析后再确认一次
+                    if (entry == null || player != null && !player.equalsIgnoreCase(entry.player) && !player.equalsIgnoreCase(entry.uuid)) {
+                        continue;
+                    }
+                    matches.addLast(entry);
+                    if (matches.size() > limit - found.size()) {
+                        matches.removeFirst();
+                    }
+                }
+            }
+            List<Entry> newer = found;
+            found = new ArrayList<>(matches);
+            found.addAll(newer);
+            if (found.size() >= limit) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 写出缓冲区中剩余的记录并关闭当前分段。
+     */
+    public void close() {
+        reader.shutdownNow();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            drain();
+            closeSegment();
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已经关闭
+        }
+    }
+
+    // 在写入线程上运行：取出缓冲区中的全部记录，写完后 flush 一次；写入失败的批次不计入已写入的记录数
+    private synchronized void drain() {
+        Entry entry = ring.poll();
+        if (entry == null) {
+            return;
+        }
+        int count = 0;
+        try {
+            do {
+                count++;
+                Segment target = segmentFor(entry.time);
+                ChatCompletionCodec.GSON.toJson(entry, Entry.class, target.out);
+                target.out.write('\n');
+            } while ((entry = ring.poll()) != null);
+            segment.flush();
+            written.add(count);
+        } catch (IOException | RuntimeException e) {
+            // 还没取出的记录留给下一批
+            LOGGER.error("Failed to write AI audit log, up to {} record(s) may be lost", count, e);
+            closeSegment();
+        }
+    }
+
+    // 当前分段写满或跨天后换一个新分段
+    private Segment segmentFor(long time) throws IOException {
+        LocalDate day = LocalDate.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (segment != null && (segment.bytes >= segmentBytes || !segment.day.equals(day))) {
+            closeSegment();
+        }
+        if (segment == null) {
+            Files.createDirectories(directory);
+            enforceRetention();
+            segment = new Segment(newSegmentPath(), day, compress);
+        }
+        return segment;
+    }
+
+    private Path newSegmentPath() {
+        String extension = compress ? ".jsonl.gz" : ".jsonl";
+        LocalDateTime now = LocalDateTime.now();
+        Path path = directory.resolve(PREFIX + SEGMENT_NAME.format(now) + extension);
+        while (Files.exists(path)) {
+            now = now.plusNanos(1_000_000);
+            path = directory.resolve(PREFIX + SEGMENT_NAME.format(now) + extension);
+        }
+        return path;
+    }
+
+    private synchronized void rotate() {
+        closeSegment();
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close AI audit segment {}", segment.path, e);
+        }
+        segment = null;
+    }
+
+    // 先删除超过保留天数的分段，再从最旧的开始删除，直到总大小不超过上限
+    private void enforceRetention() {
+        try {
+            List<Path> segments = listSegments();
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+            long total = 0;
+            List<Path> kept = new ArrayList<>();
+            for (Path path : segments) {
+                if (retentionDays > 0 && Files.getLastModifiedTime(path).toMillis() < cutoff) {
+                    Files.deleteIfExists(path);
+                } else {
+                    kept.add(path);
+                    total += Files.size(path);
+                }
+            }
+            for (int i = 0; maxTotalBytes > 0 && total > maxTotalBytes && i < kept.size(); i++) {
+                total -= Files.size(kept.get(i));
+                Files.deleteIfExists(kept.get(i));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clean up old AI audit segments", e);
+        }
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        for (int i = 0, last = text.length() - part.length(); i <= last; i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 分段名以创建时间开头，按文件名排序就是时间顺序
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*.{jsonl,jsonl.gz}")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        return segments;
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (!path.getFileName().toString().endsWith(".gz")) {
+            return in;
+        }
+        GZIPInputStream gzip;
+        try {
+            gzip = new GZIPInputStream(in, 8192);
+        } catch (EOFException e) {
+            // 刚创建还没写入内容的压缩分段
+            in.close();
+            return InputStream.nullInputStream();
+        }
+        // 还在写入的分段没有 gzip 结尾，读到已刷新内容的末尾时当作文件结束，前面的记录照常使用
+        return new FilterInputStream(gzip) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (EOFException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (EOFException e) {
+                    return -1;
+                }
+            }
+        };
+    }
+
+    /**
+     * 一次调用的审计记录。origin 是回复的来源：api（调用了上游）、coalesced（合并到别人的调用上）、
+     * cache（回复缓存）或 local（本地游戏资料）；outcome 与性能指标中的结果分类相同。
+     */
+    public static final class Entry {
+        @SerializedName("time")
+        public long time;
+        @SerializedName("player")
+        public String player;
+        @SerializedName("uuid")
+        public String uuid;
+        @SerializedName("origin")
+        public String origin;
+        @SerializedName("outcome")
+        public String outcome;
+        @SerializedName("model")
+        public String model;
+        @SerializedName("endpoint")
+        public String endpoint;
+        @SerializedName("latency_ms")
+        public long latencyMs;
+        @SerializedName("prompt_tokens")
+        public long promptTokens;
+        @SerializedName("completion_tokens")
+        public long completionTokens;
+        @SerializedName("prompt")
+        public String prompt;
+        @SerializedName("response")
+        public String response;
+        @SerializedName("error")
+        public String error;
+
+        public Entry() {
+        }
+
+        public Entry(long time, UUID playerId, String player, String origin, String outcome, String prompt) {
+            this.time = time;
+            this.uuid = playerId != null ? playerId.toString() : null;
+            this.player = player;
+            this.origin = origin;
+            this.outcome = outcome;
+            this.prompt = prompt;
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        final LocalDate day;
+        final OutputStream file;
+        final Writer out;
+        long bytes;
+
+        Segment(Path path, LocalDate day, boolean compress) throws IOException {
+            this.path = path;
+            this.day = day;
+            OutputStream counted = new FilterOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    bytes += len;
+                }
+            };
+            // 压缩时每批 flush 一次同步刷新，已写入的记录随时可以读出
+            this.file = compress ? new GZIPOutputStream(counted, 8192, true) : counted;
+            this.out = new OutputStreamWriter(file, StandardCharsets.UTF_8);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 多生产者、单消费者的有界环形缓冲区。生产者用 CAS 占位，每个槽位的序号表示它能否写入或读取，不需要锁。
+     */
+    static final class Ring {
+        private final Entry[] slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final int mask;
+        // 只由消费者访问
+        private long head;
+
+        Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            slots = new Entry[size];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            mask = size - 1;
+        }
+
+        boolean offer(Entry entry) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[index] = entry;
+                        sequences.lazySet(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    // 消费者还没取走一圈前的记录，缓冲区已满
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        Entry poll() {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Entry entry = slots[index];
+            slots[index] = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * tiktoken 格式的 BPE 词表（每行是 base64 编码的 token 字节和它的 rank，例如 cl100k_base.tiktoken），
+ * 用于在本地按与上游相同的规则计算 token 数。
+ * <p>
+ * 十万级的词表全部放在基本类型数组里：所有 token 的字节首尾相接存成一个 byte[]，
+ * 用开放寻址的 int[] 哈希表按字节串查 rank，不创建装箱对象或字符串，整体占用约 2 MB。
+ */
+final class BpeVocabulary {
+    // cl100k_base 的预分词规则：先切成单词、数字、标点和空白片段，再在每个片段内做 BPE 合并
+    private static final Pattern PIECES = Pattern.compile(
+        "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final byte[] bytes;
+    // 第 i 个 token 的字节是 bytes[offsets[i], offsets[i + 1])
+    private final int[] offsets;
+    private final int[] ranks;
+    // 槽位中存 token 下标 + 1，0 表示空
+    private final int[] table;
+    private final int mask;
+
+    private BpeVocabulary(byte[] bytes, int[] offsets, int[] ranks, int size) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.ranks = ranks;
+        int capacity = Integer.highestOneBit(Math.max(16, size * 2 - 1)) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(bytes, offsets[i], offsets[i + 1]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    static BpeVocabulary load(Path path) throws IOException {
+        byte[] bytes = new byte[1 << 20];
+        int[] offsets = new int[1 << 16];
+        int[] ranks = new int[1 << 16];
+        int size = 0;
+        int length = 0;
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token;
+                try {
+                    token = decoder.decode(line.substring(0, space));
+                    ranks[size] = Integer.parseInt(line.substring(space + 1).trim());
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed vocabulary line " + (size + 1) + " in " + path, e);
+                }
+                if (length + token.length > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + token.length));
+                }
+                System.arraycopy(token, 0, bytes, length, token.length);
+                offsets[size] = length;
+                length += token.length;
+                size++;
+                if (size + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    ranks = Arrays.copyOf(ranks, ranks.length * 2);
+                }
+            }
+        }
+        if (size == 0) {
+            throw new IOException("Empty vocabulary: " + path);
+        }
+        offsets[size] = length;
+        return new BpeVocabulary(Arrays.copyOf(bytes, length), Arrays.copyOf(offsets, size + 1), Arrays.copyOf(ranks, size), size);
+    }
+
+    int size() {
+        return ranks.length;
+    }
+
+    int count(String text) {
+        int tokens = 0;
+        Matcher matcher = PIECES.matcher(text);
+        while (matcher.find()) {
+            tokens += countPiece(matcher.group().getBytes(StandardCharsets.UTF_8));
+        }
+        return tokens;
+    }
+
+    /**
+     * 不超过 maxTokens 个 token 的最长前缀的长度（按预分词的片段截断，不会切断单词）。
+     */
+    int prefixLength(String text, int maxTokens) {
+        int tokens = 0;
+        Matcher matcher = PIECES.matcher(text);
+        while (matcher.find()) {
+            tokens += countPiece(matcher.group().getBytes(StandardCharsets.UTF_8));
+            if (tokens > maxTokens) {
+                return matcher.start();
+            }
+        }
+        return text.length();
+    }
+
+    // 标准的 BPE 合并：反复合并 rank 最小的相邻两段，直到没有可合并的，段数即 token 数
+    private int countPiece(byte[] piece) {
+        int n = piece.length;
+        if (n <= 1 || rank(piece, 0, n) != NONE) {
+            return n == 0 ? 0 : 1;
+        }
+        int[] starts = new int[n + 1];
+        int[] pairRanks = new int[n + 1];
+        for (int i = 0; i <= n; i++) {
+            starts[i] = i;
+        }
+        int size = n + 1;
+        for (int i = 0; i < size; i++) {
+            pairRanks[i] = i + 2 < size ? rank(piece, i, i + 2) : NONE;
+        }
+        while (size > 2) {
+            int best = NONE;
+            int index = -1;
+            for (int i = 0; i < size - 2; i++) {
+                if (pairRanks[i] < best) {
+                    best = pairRanks[i];
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                break;
+            }
+            // 去掉 index + 1 处的分界，更新受影响的两对
+            System.arraycopy(starts, index + 2, starts, index + 1, size - index - 2);
+            System.arraycopy(pairRanks, index + 2, pairRanks, index + 1, size - index - 2);
+            size--;
+            pairRanks[index] = index + 2 < size ? rank(piece, starts[index], starts[index + 2]) : NONE;
+            if (index > 0) {
+                pairRanks[index - 1] = rank(piece, starts[index - 1], starts[index + 1]);
+            }
+        }
+        return size - 1;
+    }
+
+    private int rank(byte[] piece, int from, int to) {
+        int slot = hash(piece, from, to) & mask;
+        int length = to - from;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return NONE;
+            }
+            int token = entry - 1;
+            int start = offsets[token];
+            if (offsets[token + 1] - start == length && Arrays.equals(bytes, start, start + length, piece, from, to)) {
+                return ranks[token];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(byte[] data, int from, int to) {
+        int hash = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            hash ^= data[i];
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,348 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * chat/completions 请求的写出和响应的解析。
+ * <p>
+ * 请求体用 {@link JsonWriter} 直接写进输出流，字符串由 Gson 负责转义；
+ * 响应用 {@link JsonReader} 边读边找 choices[0].message.content（流式为 delta.content）和 usage，
+ * 其余字段直接跳过，不生成中间字符串也不构建 JSON 树。
+ * Gson 实例是线程安全的，整个模组共用这里的两个。
+ */
+public final class ChatCompletionCodec {
+    public static final Gson GSON = new Gson();
+    public static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private ChatCompletionCodec() {
+    }
+
+    /**
+     * 把请求体写进 out。只 flush 不关闭，由调用方负责关闭流。model 由选中的端点决定，其余参数取自 config。
+     */
+    public static void writeRequest(OutputStream out, String model, OpenAIAPIConfig config, List<ChatMessage> messages,
+                                    boolean stream) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.beginObject();
+        writer.name("model").value(model);
+        writer.name("messages").beginArray();
+        for (ChatMessage message : messages) {
+            writer.beginObject()
+                .name("role").value(message.getRole())
+                .name("content").value(message.getContent())
+                .endObject();
+        }
+        writer.endArray();
+        writer.name("max_tokens").value(config.getMaxTokens());
+        writer.name("temperature").value(config.getTemperature());
+        writer.name("stream").value(stream);
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * 给 HttpClient 用的请求体：写进一块按消息长度预估大小的缓冲区，发送时不再复制。
+     */
+    public static BodyPublisher bodyPublisher(String model, OpenAIAPIConfig config, List<ChatMessage> messages, boolean stream) {
+        int estimate = 128;
+        for (ChatMessage message : messages) {
+            estimate += 32 + message.getContent().length() * 3;
+        }
+        RequestBuffer buffer = new RequestBuffer(estimate);
+        try {
+            writeRequest(buffer, model, config, messages, stream);
+        } catch (IOException e) {
+            // 写内存缓冲区不会出现IO错误
+            throw new UncheckedIOException(e);
+        }
+        return BodyPublishers.ofByteArray(buffer.array(), 0, buffer.size());
+    }
+
+    /**
+     * 给 HttpClient 用的非流式响应订阅者：保留 HttpClient 交来的缓冲区，收完后直接从这些缓冲区边解码边解析，
+     * 不再拼成完整的字节数组或字符串。响应体格式不对时以 {@link IOException} 失败。
+     */
+    public static BodySubscriber<Reply> replySubscriber() {
+        return new ReplySubscriber();
+    }
+
+    /**
+     * 读取一个 SSE 事件的增量内容和 token 用量（有的服务在最后一个事件里附带 usage）。
+     */
+    public static Reply readDelta(String data) throws IOException {
+        return read(new StringReader(data), "delta", false);
+    }
+
+    private static Reply readReply(Reader source) throws IOException {
+        Reply reply = read(source, "message", true);
+        if (reply.getContent() == null) {
+            throw new IOException("Response has no choices[0].message.content");
+        }
+        return reply;
+    }
+
+    private static Reply read(Reader source, String field, boolean failOnError) throws IOException {
+        JsonReader reader = new JsonReader(source);
+        Reply reply = new Reply();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("choices") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reply.content = readFirstChoice(reader, field);
+            } else if (name.equals("usage") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readUsage(reader, reply);
+            } else if (name.equals("error") && failOnError) {
+                throw new IOException("API error: " + readErrorMessage(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        return reply;
+    }
+
+    private static String readFirstChoice(JsonReader reader, String field) throws IOException {
+        String content = null;
+        reader.beginArray();
+        if (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(field) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("content") && reader.peek() == JsonToken.STRING) {
+                            content = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return content;
+    }
+
+    private static void readUsage(JsonReader reader, Reply reply) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("prompt_tokens") && reader.peek() == JsonToken.NUMBER) {
+                reply.promptTokens = reader.nextInt();
+            } else if (name.equals("completion_tokens") && reader.peek() == JsonToken.NUMBER) {
+                reply.completionTokens = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String readErrorMessage(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return "unknown";
+        }
+        String message = "unknown";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("message") && reader.peek() == JsonToken.STRING) {
+                message = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 解析出的回复内容和上游报告的 token 用量，没有报告时用量为 -1。
+     */
+    public static final class Reply {
+        private String content;
+        private int promptTokens = -1;
+        private int completionTokens = -1;
+
+        public String getContent() {
+            return content;
+        }
+
+        public int getPromptTokens() {
+            return promptTokens;
+        }
+
+        public int getCompletionTokens() {
+            return completionTokens;
+        }
+    }
+
+    // 收下 HttpClient 交来的缓冲区，不复制；收完后解析
+    private static final class ReplySubscriber implements BodySubscriber<Reply> {
+        private final CompletableFuture<Reply> result = new CompletableFuture<>();
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            buffers.addAll(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            buffers.clear();
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                result.complete(readReply(new Utf8Reader(buffers)));
+            } catch (IOException | IllegalStateException e) {
+                result.completeExceptionally(e);
+            } finally {
+                buffers.clear();
+            }
+        }
+
+        @Override
+        public CompletionStage<Reply> getBody() {
+            return result;
+        }
+    }
+
+    // 从一串缓冲区按 UTF-8 逐字符解码，跨缓冲区的多字节字符照常拼接，非法序列替换为 U+FFFD
+    private static final class Utf8Reader extends Reader {
+        private final ByteBuffer[] chunks;
+        private int chunk;
+        // 正在读的缓冲区的字节，[pos, limit) 是还没读的部分
+        private byte[] bytes;
+        private int pos;
+        private int limit;
+        private byte[] scratch;
+        // 四字节字符解出的低代理项，留到下一次读取
+        private char pendingLow;
+
+        Utf8Reader(List<ByteBuffer> buffers) {
+            this.chunks = buffers.toArray(new ByteBuffer[0]);
+        }
+
+        // 当前缓冲区读完时换到下一个，全部读完时返回 false。
+        // 能拿到底层数组时直接读；只读或堆外的缓冲区只把这一块复制到复用的临时数组
+        private boolean hasByte() {
+            while (pos == limit) {
+                if (chunk == chunks.length) {
+                    return false;
+                }
+                ByteBuffer next = chunks[chunk++];
+                int remaining = next.remaining();
+                if (next.hasArray()) {
+                    bytes = next.array();
+                    pos = next.arrayOffset() + next.position();
+                } else {
+                    if (scratch == null || scratch.length < remaining) {
+                        scratch = new byte[Math.max(remaining, 8192)];
+                    }
+                    next.get(scratch, 0, remaining);
+                    bytes = scratch;
+                    pos = 0;
+                }
+                limit = pos + remaining;
+            }
+            return true;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int n = 0;
+            if (pendingLow != 0 && len > 0) {
+                cbuf[off + n++] = pendingLow;
+                pendingLow = 0;
+            }
+            while (n < len && (pos < limit || hasByte())) {
+                int b = bytes[pos++];
+                if (b >= 0) {
+                    cbuf[off + n++] = (char) b;
+                    continue;
+                }
+                int extra = (b & 0xE0) == 0xC0 ? 1 : (b & 0xF0) == 0xE0 ? 2 : (b & 0xF8) == 0xF0 ? 3 : -1;
+                int codePoint = extra < 0 ? -1 : b & (0x3F >> extra);
+                for (int i = 0; i < extra; i++) {
+                    // 只在是续字节时才消费，否则留给下一个字符
+                    if (pos == limit && !hasByte()) {
+                        codePoint = -1;
+                        break;
+                    }
+                    int next = bytes[pos];
+                    if ((next & 0xC0) != 0x80) {
+                        codePoint = -1;
+                        break;
+                    }
+                    codePoint = (codePoint << 6) | (next & 0x3F);
+                    pos++;
+                }
+                if (codePoint < 0) {
+                    cbuf[off + n++] = '\uFFFD';
+                } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    cbuf[off + n++] = Character.highSurrogate(codePoint);
+                    if (n < len) {
+                        cbuf[off + n++] = Character.lowSurrogate(codePoint);
+                    } else {
+                        pendingLow = Character.lowSurrogate(codePoint);
+                    }
+                } else {
+                    cbuf[off + n++] = (char) codePoint;
+                }
+            }
+            return n == 0 && len > 0 ? -1 : n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // 暴露内部数组，交给 BodyPublishers 时省掉一次 toByteArray 复制
+    private static final class RequestBuffer extends ByteArrayOutputStream {
+        RequestBuffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example;
+
+/**
+ * 发给 chat/completions 的一条消息。
+ */
+public final class ChatMessage {
+    public static final String SYSTEM = "system";
+    public static final String USER = "user";
+    public static final String ASSISTANT = "assistant";
+
+    private final String role;
+    private final String content;
+
+    public ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,373 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+
+/**
+ * 配置文件的唯一入口。
+ * <p>
+ * 每次加载或修改都生成一个新的 {@link OpenAIAPIConfig} 快照，用 AtomicReference 整体替换，
+ * 进行中的请求继续使用开始时拿到的那一份，不会看到改了一半的配置。
+ * 配置文件被外部修改后由 WatchService 发现，防抖后自动重载；
+ * /ai config set 的修改立即在内存中生效，写回文件交给后台线程，不占用服务器主线程。
+ */
+public class ConfigManager {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    public static final Path CONFIG_PATH = Path.of("config", "ai-for-minecraft.json");
+    // 编辑器保存时常常连续触发好几次修改事件，等文件稳定后再读
+    private static final long RELOAD_DEBOUNCE_MILLIS = 500;
+    private static final Map<String, Object> DEFAULTS = createDefaults();
+
+    private final Path path;
+    private final AtomicReference<OpenAIAPIConfig> current = new AtomicReference<>();
+    private final List<Consumer<OpenAIAPIConfig>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Config-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean persistPending = new AtomicBoolean();
+
+    // 当前生效的原始键值，只在持有锁时修改
+    private Map<String, Object> values = new LinkedHashMap<>(DEFAULTS);
+    // 最近一次由本类写出的文件内容，用来忽略自己触发的文件变化
+    private volatile byte[] lastWritten;
+    private ScheduledFuture<?> pendingReload;
+    private WatchService watchService;
+
+    public ConfigManager(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 所有可以通过 /ai config set 修改的配置项，按配置文件中的顺序排列。列表类的配置只能编辑文件。
+     */
+    public static Set<String> getOptionNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Map.Entry<String, Object> entry : DEFAULTS.entrySet()) {
+            if (!(entry.getValue() instanceof List)) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    public OpenAIAPIConfig get() {
+        return current.get();
+    }
+
+    /**
+     * 注册快照更新时的回调。回调在触发更新的线程上执行，可能是服务器线程也可能是后台线程。
+     */
+    public void addListener(Consumer<OpenAIAPIConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 从文件加载配置并发布新快照；文件不存在时先写入默认配置。解析失败时保留原来的快照并抛出异常。
+     */
+    public synchronized OpenAIAPIConfig load() throws IOException {
+        if (!Files.exists(path)) {
+            Files.createDirectories(path.getParent());
+            byte[] content = ChatCompletionCodec.PRETTY_GSON.toJson(DEFAULTS).getBytes(StandardCharsets.UTF_8);
+            Files.write(path, content);
+            lastWritten = content;
+            LOGGER.info("已创建默认配置文件: {}", path);
+        }
+        return apply(Files.readAllBytes(path));
+    }
+
+    /**
+     * 修改一个配置项：立即发布新快照，文件在后台写回。
+     *
+     * @throws IllegalArgumentException 配置项不存在或值的格式不对
+     */
+    public OpenAIAPIConfig set(String option, String value) {
+        String key = option.toLowerCase(Locale.ROOT);
+        Object defaultValue = DEFAULTS.get(key);
+        if (defaultValue == null) {
+            throw new IllegalArgumentException("不支持的配置项: " + option);
+        }
+        Object parsed = parse(key, defaultValue, value);
+        OpenAIAPIConfig snapshot;
+        synchronized (this) {
+            Map<String, Object> updated = new LinkedHashMap<>(values);
+            updated.put(key, parsed);
+            snapshot = publish(updated);
+        }
+        schedulePersist();
+        return snapshot;
+    }
+
+    /**
+     * 开始监视配置文件所在目录，文件被外部修改后自动重载。
+     */
+    public synchronized void startWatching() {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            path.toAbsolutePath().getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to watch config file, hot reload disabled: {}", e.getMessage());
+            watchService = null;
+            return;
+        }
+        Thread watcher = new Thread(() -> watch(watchService), "AI-Config-Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * 停止监视，并把还没写回的修改同步写入文件。
+     */
+    public void close() {
+        synchronized (this) {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException ignored) {
+                }
+                watchService = null;
+            }
+        }
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (persistPending.get()) {
+            persist();
+        }
+    }
+
+    private void watch(WatchService service) {
+        Path fileName = path.getFileName();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        scheduleReload();
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // 关闭时正常退出
+        }
+    }
+
+    private synchronized void scheduleReload() {
+        if (pendingReload != null) {
+            pendingReload.cancel(false);
+        }
+        pendingReload = ioExecutor.schedule(this::reloadFromWatcher, RELOAD_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void reloadFromWatcher() {
+        try {
+            byte[] content = Files.readAllBytes(path);
+            if (Arrays.equals(content, lastWritten)) {
+                // 自己刚写出的内容，快照已经是最新的
+                return;
+            }
+            synchronized (this) {
+                apply(content);
+            }
+            LOGGER.info("Config file changed on disk, reloaded");
+        } catch (IOException | RuntimeException e) {
+            // 文件可能还没写完，保留当前配置，等下一次修改事件
+            LOGGER.warn("Failed to reload changed config file: {}", e.getMessage());
+        }
+    }
+
+    private OpenAIAPIConfig apply(byte[] content) {
+        Map<?, ?> fileValues = ChatCompletionCodec.GSON.fromJson(new String(content, StandardCharsets.UTF_8), Map.class);
+        if (fileValues == null) {
+            throw new IllegalStateException("Config file is empty");
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(DEFAULTS);
+        for (Map.Entry<?, ?> entry : fileValues.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            merged.put(key, coerce(DEFAULTS.get(key), entry.getValue()));
+        }
+        OpenAIAPIConfig snapshot = publish(merged);
+        LOGGER.info("成功加载OpenAI配置，API端点: {}，模型: {}", snapshot.getApiUrl(), snapshot.getModel());
+        return snapshot;
+    }
+
+    private OpenAIAPIConfig publish(Map<String, Object> newValues) {
+        OpenAIAPIConfig snapshot = ChatCompletionCodec.GSON.fromJson(ChatCompletionCodec.GSON.toJsonTree(newValues), OpenAIAPIConfig.class);
+        if (snapshot.getApiUrl() == null || snapshot.getApiKey() == null) {
+            throw new IllegalStateException("Missing required API configuration: api_url or api_key");
+        }
+        values = newValues;
+        current.set(snapshot);
+        for (Consumer<OpenAIAPIConfig> listener : listeners) {
+            listener.accept(snapshot);
+        }
+        return snapshot;
+    }
+
+    // 连续多次修改只写一次文件
+    private void schedulePersist() {
+        if (persistPending.compareAndSet(false, true)) {
+            try {
+                ioExecutor.execute(this::persist);
+            } catch (RuntimeException e) {
+                // 已经关闭，close() 会同步写回
+                LOGGER.debug("Config executor is shut down, persisting on close");
+            }
+        }
+    }
+
+    private void persist() {
+        persistPending.set(false);
+        Map<String, Object> snapshot;
+        synchronized (this) {
+            snapshot = values;
+        }
+        byte[] content = ChatCompletionCodec.PRETTY_GSON.toJson(snapshot).getBytes(StandardCharsets.UTF_8);
+        try {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temp, content);
+            lastWritten = content;
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to save config file", e);
+        }
+    }
+
+    private static Object parse(String key, Object defaultValue, String value) {
+        String trimmed = value.strip();
+        if (defaultValue instanceof List) {
+            throw new IllegalArgumentException(key + " 是列表，请直接编辑配置文件");
+        }
+        try {
+            if (defaultValue instanceof Boolean) {
+                if (!trimmed.equalsIgnoreCase("true") && !trimmed.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException(key + " 只能是 true 或 false");
+                }
+                return Boolean.parseBoolean(trimmed);
+            }
+            if (defaultValue instanceof Integer) {
+                int parsed = Integer.parseInt(trimmed);
+                if (parsed < 0) {
+                    throw new IllegalArgumentException(key + " 不能是负数");
+                }
+                return parsed;
+            }
+            if (defaultValue instanceof Double) {
+                double parsed = Double.parseDouble(trimmed);
+                if (!Double.isFinite(parsed) || parsed < 0) {
+                    throw new IllegalArgumentException(key + " 必须是非负数");
+                }
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " 需要数字，收到: " + value);
+        }
+        return value;
+    }
+
+    // Gson 把所有数字读成 Double，按默认值的类型还原，写回文件时整数不会变成 1000.0
+    private static Object coerce(Object defaultValue, Object value) {
+        if (defaultValue instanceof Integer && value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return value;
+    }
+
+    private static Map<String, Object> createDefaults() {
+        Map<String, Object> defaults = new LinkedHashMap<>();
+        defaults.put("api_url", "https://api.openai.com/v1/chat/completions");
+        defaults.put("api_key", "");
+        defaults.put("model", "gpt-3.5-turbo");
+        defaults.put("max_tokens", 1000);
+        defaults.put("temperature", 0.7);
+        defaults.put("system_prompt", OpenAIAPIConfig.DEFAULT_SYSTEM_PROMPT);
+        defaults.put("show_model_name", true);
+        defaults.put("process_think_tags", true);
+        defaults.put("stream", false);
+        defaults.put("max_concurrent_requests", 16);
+        defaults.put("max_queue_size", 64);
+        defaults.put("max_queued_per_player", 3);
+        defaults.put("rate_limit_per_minute", 6);
+        defaults.put("rate_limit_burst", 3);
+        defaults.put("cache_enabled", true);
+        defaults.put("cache_max_entries", 512);
+        defaults.put("cache_ttl_minutes", 1440);
+        defaults.put("cache_persist", true);
+        defaults.put("history_enabled", true);
+        defaults.put("history_max_messages", 12);
+        defaults.put("history_token_budget", 1500);
+        defaults.put("summarize_history", false);
+        defaults.put("outbox_messages_per_tick", 8);
+        defaults.put("outbox_chars_per_tick", 4096);
+        defaults.put("endpoints", List.of());
+        defaults.put("circuit_failure_threshold", 5);
+        defaults.put("circuit_open_seconds", 30);
+        defaults.put("health_check_interval_seconds", 30);
+        defaults.put("max_failover_attempts", 2);
+        defaults.put("request_timeout_seconds", 30);
+        defaults.put("hedge_enabled", false);
+        defaults.put("hedge_percentile", 95.0);
+        defaults.put("hedge_min_delay_ms", 500);
+        defaults.put("metrics_export_interval_seconds", 15);
+        defaults.put("max_prompt_tokens", 4000);
+        defaults.put("truncate_long_prompts", true);
+        defaults.put("quota_tokens_per_hour", 0);
+        defaults.put("quota_tokens_per_day", 0);
+        defaults.put("shutdown_drain_seconds", 5);
+        defaults.put("knowledge_enabled", true);
+        defaults.put("knowledge_direct_answers", true);
+        defaults.put("knowledge_context_hits", 3);
+        defaults.put("world_context_enabled", false);
+        defaults.put("world_context_radius", 8);
+        defaults.put("world_context_blocks_per_tick", 2048);
+        defaults.put("world_context_cache_seconds", 5);
+        defaults.put("client_streaming_enabled", true);
+        defaults.put("client_compression_threshold", 256);
+        defaults.put("audit_enabled", false);
+        defaults.put("audit_compress", false);
+        defaults.put("audit_segment_mb", 16);
+        defaults.put("audit_retention_days", 30);
+        defaults.put("audit_max_total_mb", 1024);
+        return Collections.unmodifiableMap(defaults);
+    }
+}
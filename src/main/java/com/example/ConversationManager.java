@@ -0,0 +1,106 @@
+package com.example;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.slf4j.Logger;
+
+/**
+ * 按玩家UUID管理对话会话。玩家下线时调用 {@link #evict(UUID)} 释放其历史。
+ * <p>
+ * 开启 summarize_history 时，被挤出环形缓冲区的旧消息攒够一批后交给模型压缩成摘要，
+ * 摘要作为系统消息随后续请求发送；未开启时旧消息直接丢弃。
+ */
+public class ConversationManager {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    // 攒够这么多条被挤出的消息才触发一次摘要
+    private static final int SUMMARY_BATCH = 4;
+
+    private final ConcurrentHashMap<UUID, ConversationSession> sessions = new ConcurrentHashMap<>();
+    private final Function<List<ChatMessage>, CompletableFuture<String>> summarizer;
+
+    private volatile boolean enabled = true;
+    private volatile int maxMessages = 12;
+    private volatile int tokenBudget = 1500;
+    private volatile boolean summarize;
+
+    public ConversationManager(Function<List<ChatMessage>, CompletableFuture<String>> summarizer) {
+        this.summarizer = summarizer;
+    }
+
+    public void configure(OpenAIAPIConfig config) {
+        enabled = config.isHistoryEnabled();
+        maxMessages = config.getHistoryMaxMessages();
+        tokenBudget = config.getHistoryTokenBudget();
+        summarize = config.shouldSummarizeHistory();
+        if (!enabled) {
+            sessions.clear();
+        }
+    }
+
+    /**
+     * 返回玩家的会话；未开启对话记忆或不是玩家发起的请求时返回 null。
+     */
+    public ConversationSession getSession(RequestContext context) {
+        if (!enabled || context.getPlayerId() == null) {
+            return null;
+        }
+        return sessions.computeIfAbsent(context.getPlayerId(), id -> new ConversationSession(maxMessages));
+    }
+
+    public ConversationSession peekSession(UUID playerId) {
+        return sessions.get(playerId);
+    }
+
+    public List<ChatMessage> buildMessages(ConversationSession session, String systemPrompt, String question) {
+        return session.buildMessages(systemPrompt, question, tokenBudget);
+    }
+
+    public void record(ConversationSession session, String question, String answer) {
+        session.record(question, answer, summarize);
+        if (summarize && session.getEvictedCount() >= SUMMARY_BATCH) {
+            summarizeEvicted(session);
+        }
+    }
+
+    public void reset(UUID playerId) {
+        ConversationSession session = sessions.remove(playerId);
+        if (session != null) {
+            session.clear();
+        }
+    }
+
+    public void evict(UUID playerId) {
+        sessions.remove(playerId);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void summarizeEvicted(ConversationSession session) {
+        List<ChatMessage> evicted = session.drainEvicted();
+        String previous = session.getSummary();
+        StringBuilder transcript = new StringBuilder();
+        if (previous != null) {
+            transcript.append("已有摘要：").append(previous).append('\n');
+        }
+        for (ChatMessage message : evicted) {
+            transcript.append(message.getRole().equals(ChatMessage.USER) ? "玩家：" : "助手：")
+                .append(message.getContent()).append('\n');
+        }
+        List<ChatMessage> request = List.of(
+            new ChatMessage(ChatMessage.SYSTEM, "把下面的对话内容和已有摘要合并成一段不超过100字的摘要，只保留后续对话可能用到的事实。"),
+            new ChatMessage(ChatMessage.USER, transcript.toString()));
+        summarizer.apply(request).whenComplete((summary, error) -> {
+            if (error != null) {
+                // 摘要失败只会丢失较早的上下文，不影响正常对话
+                LOGGER.warn("Failed to summarize conversation history: {}", error.getMessage());
+            } else if (summary != null && !summary.isBlank()) {
+                session.setSummary(summary.strip());
+            }
+        });
+    }
+}
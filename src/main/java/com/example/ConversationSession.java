@@ -0,0 +1,193 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 单个玩家的对话历史，固定容量的环形缓冲区。
+ * <p>
+ * 较短的消息直接保存字符串（JDK的紧凑字符串已经足够省内存），
+ * 超过 {@link #COMPRESS_THRESHOLD} 个字符的回复用 Deflate 压缩后保存，
+ * 让几百名玩家的历史占用的内存保持平稳。
+ */
+public class ConversationSession {
+    static final int COMPRESS_THRESHOLD = 256;
+
+    private final Turn[] turns;
+    private int head;
+    private int size;
+    private String summary;
+    // 被挤出环形缓冲区、等待合并进摘要的消息
+    private final List<ChatMessage> evicted = new ArrayList<>();
+
+    public ConversationSession(int capacity) {
+        // 一问一答成对存放，容量取偶数
+        this.turns = new Turn[Math.max(2, capacity + (capacity & 1))];
+    }
+
+    /**
+     * 记录一问一答。缓冲区满时最早的消息被挤出，
+     * keepEvicted 为 true 时保留它们供 {@link #drainEvicted()} 生成摘要。
+     */
+    public synchronized void record(String question, String answer, boolean keepEvicted) {
+        push(new Turn(ChatMessage.USER, question), keepEvicted);
+        push(new Turn(ChatMessage.ASSISTANT, answer), keepEvicted);
+    }
+
+    /**
+     * 组装发给模型的消息：系统提示、历史摘要、尽量多的最近几轮对话，最后是本次问题。
+     * 总量不超过 tokenBudget；历史按一问一答成对丢弃，保证不会出现没有问题的回答。
+     */
+    public synchronized List<ChatMessage> buildMessages(String systemPrompt, String question, int tokenBudget) {
+        List<ChatMessage> messages = new ArrayList<>();
+        int used = TokenCounter.estimate(question);
+        if (systemPrompt != null && !systemPrompt.isEmpty()) {
+            messages.add(new ChatMessage(ChatMessage.SYSTEM, systemPrompt));
+            used += TokenCounter.estimate(systemPrompt);
+        }
+        if (summary != null && used + TokenCounter.estimate(summary) <= tokenBudget) {
+            messages.add(new ChatMessage(ChatMessage.SYSTEM, "之前对话的摘要：" + summary));
+            used += TokenCounter.estimate(summary);
+        }
+
+        int keep = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            Turn turn = get(i);
+            used += TokenCounter.estimate(turn.text());
+            if (used > tokenBudget) {
+                break;
+            }
+            if (turn.role.equals(ChatMessage.USER)) {
+                keep = size - i;
+            }
+        }
+        for (int i = size - keep; i < size; i++) {
+            Turn turn = get(i);
+            messages.add(new ChatMessage(turn.role, turn.text()));
+        }
+        messages.add(new ChatMessage(ChatMessage.USER, question));
+        return messages;
+    }
+
+    public synchronized List<ChatMessage> getHistory() {
+        List<ChatMessage> history = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Turn turn = get(i);
+            history.add(new ChatMessage(turn.role, turn.text()));
+        }
+        return history;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0 && summary == null;
+    }
+
+    public synchronized String getSummary() {
+        return summary;
+    }
+
+    public synchronized void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public synchronized List<ChatMessage> drainEvicted() {
+        List<ChatMessage> drained = new ArrayList<>(evicted);
+        evicted.clear();
+        return drained;
+    }
+
+    public synchronized int getEvictedCount() {
+        return evicted.size();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < turns.length; i++) {
+            turns[i] = null;
+        }
+        head = 0;
+        size = 0;
+        summary = null;
+        evicted.clear();
+    }
+
+    private void push(Turn turn, boolean keepEvicted) {
+        int index = (head + size) % turns.length;
+        if (size == turns.length) {
+            if (keepEvicted) {
+                Turn old = turns[head];
+                evicted.add(new ChatMessage(old.role, old.text()));
+            }
+            head = (head + 1) % turns.length;
+        } else {
+            size++;
+        }
+        turns[index] = turn;
+    }
+
+    private Turn get(int i) {
+        return turns[(head + i) % turns.length];
+    }
+
+    private static final class Turn {
+        final String role;
+        private final String text;
+        private final byte[] deflated;
+        private final int length;
+
+        Turn(String role, String text) {
+            // role 只有三种取值，intern 后所有会话共用同一个实例
+            this.role = role.intern();
+            if (text.length() > COMPRESS_THRESHOLD) {
+                byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                this.deflated = deflate(utf8);
+                this.length = utf8.length;
+                this.text = null;
+            } else {
+                this.text = text;
+                this.deflated = null;
+                this.length = 0;
+            }
+        }
+
+        String text() {
+            if (text != null) {
+                return text;
+            }
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(deflated);
+                byte[] utf8 = new byte[length];
+                int offset = 0;
+                while (offset < length && !inflater.finished()) {
+                    offset += inflater.inflate(utf8, offset, length - offset);
+                }
+                return new String(utf8, 0, offset, StandardCharsets.UTF_8);
+            } catch (DataFormatException e) {
+                return "";
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private static byte[] deflate(byte[] input) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(input);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2);
+                byte[] buffer = new byte[512];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
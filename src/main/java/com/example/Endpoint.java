@@ -0,0 +1,205 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个上游端点的运行状态：在途请求数、延迟和错误率的指数滑动平均，以及熔断器。
+ * <p>
+ * 熔断器连续失败 circuit_failure_threshold 次后打开，期间不再分配请求；
+ * 冷却 circuit_open_seconds 秒（或主动健康检查通过）后进入半开状态，只放行一个试探请求，
+ * 成功则关闭，失败则重新打开。所有状态由对象锁保护。
+ */
+public class Endpoint {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // 延迟平均值对新样本的权重
+    private static final double LATENCY_ALPHA = 0.3;
+    // 错误率平均值对新样本的权重，变化慢一些，避免一次失败就把端点打入冷宫
+    private static final double ERROR_ALPHA = 0.1;
+
+    private final String id;
+    private volatile EndpointConfig config;
+    private volatile String model;
+
+    private int inFlight;
+    private double latencyMillis;
+    private boolean hasLatency;
+    private double errorRate;
+    private long requests;
+    private long failures;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    Endpoint(String id, EndpointConfig config, String model) {
+        this.id = id;
+        update(config, model);
+    }
+
+    // 配置重载后保留统计数据，只替换地址、密钥等设置
+    void update(EndpointConfig config, String model) {
+        this.config = config;
+        this.model = model;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return config.getName() != null ? config.getName() : config.getApiUrl();
+    }
+
+    public String getApiUrl() {
+        return config.getApiUrl();
+    }
+
+    public String getApiKey() {
+        return config.getApiKey();
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public double getWeight() {
+        return config.getWeight() > 0 ? config.getWeight() : 1.0;
+    }
+
+    public int getMaxConcurrent() {
+        return config.getMaxConcurrent();
+    }
+
+    /**
+     * 当前能否接受请求（不改变状态），供路由器挑选候选端点。
+     */
+    synchronized boolean isAvailable(long now, long openMillis) {
+        if (getMaxConcurrent() > 0 && inFlight >= getMaxConcurrent()) {
+            return false;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - openedAt >= openMillis;
+            default:
+                return !trialInFlight;
+        }
+    }
+
+    /**
+     * 占用一个名额。熔断器冷却结束时在这里转入半开状态并认领试探请求。
+     */
+    synchronized boolean tryAcquire(long now, long openMillis) {
+        if (!isAvailable(now, openMillis)) {
+            return false;
+        }
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+        inFlight++;
+        requests++;
+        return true;
+    }
+
+    /**
+     * 路由打分，越小越好：延迟越高、在途请求越多、错误率越高分数越高，再按权重缩放。
+     */
+    synchronized double score() {
+        double latency = hasLatency ? latencyMillis : 0;
+        return (latency + 1) * (inFlight + 1) * (1 + 4 * errorRate) / getWeight();
+    }
+
+    synchronized void onSuccess(long latencyNanos) {
+        inFlight--;
+        double millis = TimeUnit.NANOSECONDS.toMicros(latencyNanos) / 1000.0;
+        latencyMillis = hasLatency ? latencyMillis + LATENCY_ALPHA * (millis - latencyMillis) : millis;
+        hasLatency = true;
+        errorRate -= ERROR_ALPHA * errorRate;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * 记录一次端点故障（超时、连接失败、429/5xx 等）。返回熔断器是否因此打开。
+     */
+    synchronized boolean onFailure(long now, int failureThreshold) {
+        inFlight--;
+        failures++;
+        errorRate += ERROR_ALPHA * (1 - errorRate);
+        consecutiveFailures++;
+        boolean wasOpen = state == State.OPEN;
+        if (state == State.HALF_OPEN || consecutiveFailures >= Math.max(1, failureThreshold)) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+        trialInFlight = false;
+        return !wasOpen && state == State.OPEN;
+    }
+
+    /**
+     * 请求结束但不能说明端点好坏（例如请求本身有误或被取消），只归还名额。
+     */
+    synchronized void onNeutral() {
+        inFlight--;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN) {
+            // 试探没有结论，回到打开状态等下一次机会
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * 主动健康检查通过：让打开的熔断器立即进入可试探状态。
+     */
+    synchronized void onProbeSuccess() {
+        if (state == State.OPEN) {
+            openedAt = 0;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    synchronized Stats stats() {
+        return new Stats(getName(), getModel(), state, inFlight, getMaxConcurrent(), getWeight(),
+            hasLatency ? latencyMillis : -1, errorRate, requests, failures);
+    }
+
+    /**
+     * 某一时刻的端点统计，供 /ai config 展示。
+     */
+    public static final class Stats {
+        public final String name;
+        public final String model;
+        public final State state;
+        public final int inFlight;
+        public final int maxConcurrent;
+        public final double weight;
+        public final double latencyMillis;
+        public final double errorRate;
+        public final long requests;
+        public final long failures;
+
+        Stats(String name, String model, State state, int inFlight, int maxConcurrent, double weight,
+              double latencyMillis, double errorRate, long requests, long failures) {
+            this.name = name;
+            this.model = model;
+            this.state = state;
+            this.inFlight = inFlight;
+            this.maxConcurrent = maxConcurrent;
+            this.weight = weight;
+            this.latencyMillis = latencyMillis;
+            this.errorRate = errorRate;
+            this.requests = requests;
+            this.failures = failures;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * 配置文件 endpoints 列表中的一项。没有填写的 model 使用顶层的 model。
+ */
+public class EndpointConfig {
+    @SerializedName("name")
+    private String name;
+
+    @SerializedName("api_url")
+    private String apiUrl;
+
+    @SerializedName("api_key")
+    private String apiKey;
+
+    @SerializedName("model")
+    private String model;
+
+    // 相对权重，越大分到的请求越多
+    @SerializedName("weight")
+    private double weight = 1.0;
+
+    // 该端点同时在途的请求上限，0 表示不单独限制
+    @SerializedName("max_concurrent")
+    private int maxConcurrent = 0;
+
+    public EndpointConfig() {
+    }
+
+    EndpointConfig(String name, String apiUrl, String apiKey, String model) {
+        this.name = name;
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+}
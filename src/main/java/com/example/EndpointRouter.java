@@ -0,0 +1,321 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.slf4j.Logger;
+
+/**
+ * 在多个上游端点之间分配请求。
+ * <p>
+ * 每个请求选择当前打分最低的可用端点（延迟、在途请求数和错误率的滑动平均，按权重缩放）。
+ * 遇到超时、连接失败或 401/403/429/5xx 时记入该端点的熔断器，并换下一个端点重试，
+ * 最多尝试 max_failover_attempts 个端点。除了真实请求的被动检测，
+ * 后台还定期探测熔断中的端点，恢复后立即放行试探请求。
+ * 配置里没有 endpoints 时，用顶层的 api_url / api_key / model 组成唯一的端点。
+ */
+public class EndpointRouter {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Health-Check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile List<Endpoint> endpoints = List.of();
+    private volatile int failureThreshold = 5;
+    private volatile long openMillis = 30_000;
+    private volatile int maxAttempts = 2;
+    // 尝试用了这么久仍然超时才算端点故障，见 isEndpointFault
+    private volatile long timeoutFaultNanos = TimeUnit.SECONDS.toNanos(15);
+    private ScheduledFuture<?> healthCheck;
+    private long healthCheckSeconds = -1;
+
+    public EndpointRouter(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public synchronized void configure(OpenAIAPIConfig config) {
+        List<EndpointConfig> configured = config.getEndpoints();
+        if (configured.isEmpty()) {
+            configured = List.of(new EndpointConfig("default", config.getApiUrl(), config.getApiKey(), null));
+        }
+        // 地址、模型和名称都没变的端点沿用原来的统计和熔断状态
+        Map<String, Endpoint> previous = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            previous.put(endpoint.getId(), endpoint);
+        }
+        List<Endpoint> updated = new ArrayList<>(configured.size());
+        for (EndpointConfig endpointConfig : configured) {
+            if (endpointConfig.getApiUrl() == null || endpointConfig.getApiUrl().isBlank()) {
+                LOGGER.warn("Ignoring endpoint without api_url: {}", endpointConfig.getName());
+                continue;
+            }
+            String model = endpointConfig.getModel() != null ? endpointConfig.getModel() : config.getModel();
+            String id = endpointConfig.getName() + "|" + endpointConfig.getApiUrl() + "|" + model;
+            Endpoint endpoint = previous.get(id);
+            if (endpoint != null) {
+                endpoint.update(endpointConfig, model);
+            } else {
+                endpoint = new Endpoint(id, endpointConfig, model);
+            }
+            updated.add(endpoint);
+        }
+        endpoints = List.copyOf(updated);
+        failureThreshold = Math.max(1, config.getCircuitFailureThreshold());
+        openMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getCircuitOpenSeconds()));
+        maxAttempts = Math.max(1, config.getMaxFailoverAttempts());
+        timeoutFaultNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getRequestTimeoutSeconds())) / 2;
+        scheduleHealthCheck(config.getHealthCheckIntervalSeconds());
+    }
+
+    /**
+     * 所有端点并发上限之和；有端点不限并发时返回 Integer.MAX_VALUE。调度器的并发上限不会超过它。
+     */
+    public int getTotalCapacity() {
+        long total = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getMaxConcurrent() <= 0) {
+                return Integer.MAX_VALUE;
+            }
+            total += endpoint.getMaxConcurrent();
+        }
+        return total == 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * 选一个端点执行 call，端点故障时换下一个重试。
+     *
+     * @param canRetry 每次准备重试前询问，例如流式回复已经开始输出时就不能再换端点
+     */
+    public CompletableFuture<String> execute(Function<Endpoint, CompletableFuture<String>> call, BooleanSupplier canRetry) {
+        return execute(call, canRetry, Set.of());
+    }
+
+    /**
+     * 同 {@link #execute(Function, BooleanSupplier)}，但尽量不选 avoid 中的端点（对冲请求避开主请求所在的端点）；
+     * 除此之外没有可用端点时仍会选用它们。
+     */
+    public CompletableFuture<String> execute(Function<Endpoint, CompletableFuture<String>> call, BooleanSupplier canRetry,
+                                             Set<Endpoint> avoid) {
+        return attempt(call, canRetry, new HashSet<>(), avoid, null);
+    }
+
+    private CompletableFuture<String> attempt(Function<Endpoint, CompletableFuture<String>> call, BooleanSupplier canRetry,
+                                              Set<Endpoint> tried, Set<Endpoint> avoid, Throwable lastError) {
+        Endpoint endpoint = select(tried, avoid);
+        if (endpoint == null) {
+            if (lastError != null) {
+                return CompletableFuture.failedFuture(lastError);
+            }
+            return CompletableFuture.failedFuture(new RequestRejectedException(
+                endpoints.isEmpty() ? "没有配置可用的AI服务端点" : "所有AI服务端点暂时不可用，请稍后再试"));
+        }
+        tried.add(endpoint);
+        long start = System.nanoTime();
+        CompletableFuture<String> inFlight;
+        try {
+            inFlight = call.apply(endpoint);
+        } catch (RuntimeException e) {
+            endpoint.onNeutral();
+            return CompletableFuture.failedFuture(e);
+        }
+        return inFlight.handle((result, error) -> {
+            if (error == null) {
+                endpoint.onSuccess(System.nanoTime() - start);
+                return CompletableFuture.completedFuture(result);
+            }
+            Throwable cause = unwrap(error);
+            if (!isEndpointFault(cause, System.nanoTime() - start)) {
+                endpoint.onNeutral();
+                return CompletableFuture.<String>failedFuture(error);
+            }
+            if (endpoint.onFailure(System.currentTimeMillis(), failureThreshold)) {
+                LOGGER.warn("Circuit opened for endpoint {} after: {}", endpoint.getName(), cause.toString());
+            }
+            if (tried.size() < maxAttempts && canRetry.getAsBoolean()) {
+                LOGGER.info("Endpoint {} failed ({}), failing over", endpoint.getName(), cause.toString());
+                return attempt(call, canRetry, tried, avoid, error);
+            }
+            return CompletableFuture.<String>failedFuture(error);
+        }).thenCompose(future -> future);
+    }
+
+    private Endpoint select(Set<Endpoint> tried, Set<Endpoint> avoid) {
+        if (!avoid.isEmpty()) {
+            Set<Endpoint> excluded = new HashSet<>(tried);
+            excluded.addAll(avoid);
+            Endpoint endpoint = acquire(excluded);
+            if (endpoint != null) {
+                return endpoint;
+            }
+        }
+        return acquire(tried);
+    }
+
+    // 在没试过的可用端点中选分数最低的；被别的请求抢先占满时重选
+    private Endpoint acquire(Set<Endpoint> tried) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>(endpoints);
+        candidates.removeAll(tried);
+        while (!candidates.isEmpty()) {
+            Endpoint best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (Endpoint endpoint : candidates) {
+                if (!endpoint.isAvailable(now, openMillis)) {
+                    continue;
+                }
+                double score = endpoint.score();
+                if (score < bestScore) {
+                    best = endpoint;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            if (best.tryAcquire(now, openMillis)) {
+                return best;
+            }
+            candidates.remove(best);
+        }
+        return null;
+    }
+
+    public List<Endpoint.Stats> snapshot() {
+        List<Endpoint.Stats> stats = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            stats.add(endpoint.stats());
+        }
+        return stats;
+    }
+
+    public void shutdown() {
+        healthChecker.shutdownNow();
+    }
+
+    private void scheduleHealthCheck(int intervalSeconds) {
+        if (intervalSeconds == healthCheckSeconds) {
+            return;
+        }
+        healthCheckSeconds = intervalSeconds;
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+            healthCheck = null;
+        }
+        if (intervalSeconds > 0) {
+            healthCheck = healthChecker.scheduleWithFixedDelay(this::probeOpenEndpoints, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 向每个端点请求一次模型列表（不消耗token），提前完成 DNS 解析和 TCP/TLS 握手，连接留在连接池里。
+     * 返回成功连上的端点数；连不上的端点不计入熔断，等真实请求再判断。
+     */
+    public CompletableFuture<Integer> warmUp() {
+        List<CompletableFuture<Boolean>> probes = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            HttpRequest request = probeRequest(endpoint);
+            if (request != null) {
+                probes.add(httpClient.sendAsync(request, BodyHandlers.discarding())
+                    .handle((response, error) -> error == null));
+            }
+        }
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            int connected = 0;
+            for (CompletableFuture<Boolean> probe : probes) {
+                if (probe.join()) {
+                    connected++;
+                }
+            }
+            return connected;
+        });
+    }
+
+    // 只探测熔断中的端点：请求模型列表，不消耗token
+    private void probeOpenEndpoints() {
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isOpen()) {
+                continue;
+            }
+            HttpRequest request = probeRequest(endpoint);
+            if (request == null) {
+                continue;
+            }
+            httpClient.sendAsync(request, BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error == null && response.statusCode() / 100 == 2) {
+                    LOGGER.info("Health check passed for endpoint {}, allowing a trial request", endpoint.getName());
+                    endpoint.onProbeSuccess();
+                }
+            });
+        }
+    }
+
+    // 地址无效时返回 null
+    private static HttpRequest probeRequest(Endpoint endpoint) {
+        try {
+            return HttpRequest.newBuilder(probeUri(endpoint.getApiUrl()))
+                .timeout(PROBE_TIMEOUT)
+                .header("Authorization", "Bearer " + endpoint.getApiKey())
+                .header("User-Agent", "Minecraft-AI-Mod/1.0")
+                .GET()
+                .build();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // .../v1/chat/completions -> .../v1/models
+    static URI probeUri(String apiUrl) {
+        String base = apiUrl;
+        int index = base.lastIndexOf("/chat/completions");
+        if (index >= 0) {
+            base = base.substring(0, index);
+        }
+        return URI.create(base + "/models");
+    }
+
+    /**
+     * HTTP 超时取调用剩余的时间，排队等得久的请求发出时可能只剩很短的时限。
+     * 所以超时只有在这次尝试至少用了请求时限的一半时才记入熔断器，否则只说明调用本身的时间不够了。
+     */
+    boolean isEndpointFault(Throwable cause, long elapsedNanos) {
+        if (cause instanceof ApiHttpException) {
+            return ((ApiHttpException) cause).isEndpointFault();
+        }
+        if (cause instanceof HttpTimeoutException) {
+            return elapsedNanos >= timeoutFaultNanos;
+        }
+        // 连接失败、超时、连接中断、响应无法解析都算端点故障；请求被拒绝等其他异常不算
+        return cause instanceof IOException;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
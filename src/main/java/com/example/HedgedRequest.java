@@ -0,0 +1,152 @@
+package com.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲请求：主尝试在给定延迟内还没有收到响应头，就再发一个备用尝试，
+ * 先收到成功响应头的一方胜出，另一方立即取消（中断它的 HTTP 交换）。
+ * <p>
+ * 胜负在收到响应头时就定下，流式回复只会输出胜者的片段。
+ * 主尝试在对冲发出前失败时不再对冲，直接返回它的错误；路由器内部已经做过故障转移。
+ */
+final class HedgedRequest {
+    /**
+     * 发起第 index 个尝试（0 为主尝试，1 为对冲尝试）。尝试收到成功的响应头时应调用 {@link #onFirstByte(int)}，
+     * 可取消的环节登记到传入的 control 上。
+     */
+    interface Attempt {
+        CompletableFuture<String> start(int index, RequestControl control);
+    }
+
+    private final RequestControl control;
+    private final RequestControl[] attempts = new RequestControl[2];
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private int launched;
+    private int failed;
+    private int winner = -1;
+    private boolean hedgeClosed;
+    private Throwable primaryError;
+
+    HedgedRequest(RequestControl control) {
+        this.control = control;
+    }
+
+    /**
+     * 发起主尝试；hedgeDelayMillis 不小于 0 时，在这么久之后视情况发出对冲尝试。
+     */
+    CompletableFuture<String> start(Attempt attempt, long hedgeDelayMillis, Executor executor) {
+        synchronized (this) {
+            launched = 1;
+            attempts[0] = control.child();
+            hedgeClosed = hedgeDelayMillis < 0;
+        }
+        launch(attempt, 0);
+        if (hedgeDelayMillis >= 0) {
+            CompletableFuture.delayedExecutor(hedgeDelayMillis, TimeUnit.MILLISECONDS, executor)
+                .execute(() -> hedge(attempt));
+        }
+        return result;
+    }
+
+    /**
+     * 某个尝试收到了成功的响应头。返回它是否是胜者；第一个到达的成为胜者，其余尝试被取消。
+     */
+    boolean onFirstByte(int index) {
+        RequestControl loser;
+        synchronized (this) {
+            if (winner >= 0) {
+                return winner == index;
+            }
+            winner = index;
+            hedgeClosed = true;
+            loser = attempts[1 - index];
+        }
+        if (loser != null) {
+            loser.cancel();
+        }
+        return true;
+    }
+
+    synchronized boolean isWinner(int index) {
+        return winner == index;
+    }
+
+    synchronized boolean isHedged() {
+        return launched > 1;
+    }
+
+    /**
+     * 对冲尝试是否胜出。
+     */
+    synchronized boolean isHedgeWon() {
+        return winner == 1;
+    }
+
+    private void hedge(Attempt attempt) {
+        synchronized (this) {
+            if (hedgeClosed || result.isDone() || !control.isActive()) {
+                return;
+            }
+            hedgeClosed = true;
+            launched = 2;
+            attempts[1] = control.child();
+        }
+        launch(attempt, 1);
+    }
+
+    private void launch(Attempt attempt, int index) {
+        RequestControl attemptControl;
+        synchronized (this) {
+            attemptControl = attempts[index];
+        }
+        CompletableFuture<String> future;
+        try {
+            future = attempt.start(index, attemptControl);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, error) -> onComplete(index, value, error));
+    }
+
+    private void onComplete(int index, String value, Throwable error) {
+        RequestControl other;
+        Throwable failure = null;
+        boolean succeeded = false;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null && (winner < 0 || winner == index)) {
+                winner = index;
+                succeeded = true;
+            } else if (winner == index) {
+                failure = error;
+            } else if (winner < 0) {
+                if (index == 0) {
+                    primaryError = error;
+                }
+                failed++;
+                if (failed < launched) {
+                    // 另一个尝试还在进行，等它的结果
+                    return;
+                }
+                hedgeClosed = true;
+                failure = primaryError != null ? primaryError : error;
+            } else {
+                // 输掉的尝试被取消后结束，不影响结果
+                return;
+            }
+            other = attempts[1 - index];
+        }
+        if (other != null) {
+            other.cancel();
+        }
+        if (succeeded) {
+            result.complete(value);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+}
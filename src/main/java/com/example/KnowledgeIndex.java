@@ -0,0 +1,589 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 本服务器游戏资料（物品、方块、配方和标签）的内存倒排索引，按 BM25 打分。
+ * <p>
+ * 文档由 {@link KnowledgeIndexer} 从注册表和配方管理器生成。{@link #update} 按文档的键比较新旧两批文档，
+ * 只改动增加、变化和删除的那部分倒排表，/reload 后不用整个重建。
+ * 查询在读锁下进行，几千条资料时通常在几十微秒内完成。
+ * <p>
+ * 中文按单字和相邻两字切分，其他文字按字母和数字切成小写单词；名称中的词按 {@link #TITLE_WEIGHT} 倍计入词频。
+ */
+public class KnowledgeIndex {
+    public enum Kind { ITEM, BLOCK, RECIPE, TAG }
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TITLE_WEIGHT = 2;
+    // 直接回答时最多列出的配方数
+    private static final int MAX_ANSWER_RECIPES = 3;
+    // 命中的分数至少要达到问题中各词 IDF 之和的这个比例才作为上下文，避免只碰巧命中一个常见字的结果
+    private static final double MIN_CONTEXT_COVERAGE = 0.3;
+    // 太长的问题很少是单纯的查询，不直接回答
+    private static final int MAX_LOOKUP_QUESTION_LENGTH = 40;
+
+    private static final Pattern RECIPE_QUESTION = Pattern.compile(
+        "合成|配方|怎么做|怎样做|如何做|做法|烧制|冶炼|烧炼|\\b(?:craft|crafting|recipe|smelt)\\b|\\bhow (?:do|can|to) (?:i |you )?make\\b",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern QUESTION_NOISE = Pattern.compile(
+        "请问|我的世界|怎么|怎样|如何|可以|什么|合成表|合成|配方|制作|做出|做法|做|烧制|冶炼|烧炼|获得|需要|的|呢|吗|啊|呀|一个|一块|一把"
+            + "|\\b(?:how|do|does|can|could|i|you|to|make|craft|crafting|recipe|recipes|for|the|a|an|of|smelt|what|is|in|minecraft|mc)\\b"
+            + "|[\\p{Punct}\\p{IsPunctuation}\\s]+",
+        Pattern.CASE_INSENSITIVE);
+    private static final Set<String> STOP_WORDS = Set.of("minecraft", "the", "a", "an", "of", "and", "or", "to", "in", "is");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    // 规范化后的名称 -> 物品或方块的 id，用于直接回答
+    private final Map<String, String> names = new HashMap<>();
+    // 物品 id -> 产出它的配方
+    private final Map<String, List<Entry>> recipesBySubject = new HashMap<>();
+    private final Map<String, Entry> subjects = new HashMap<>();
+    private long totalLength;
+    // 各文档内容摘要之和，与文档顺序无关
+    private long contentHash;
+    private final LongAdder answered = new LongAdder();
+
+    /**
+     * 索引中的一条资料。subject 是资料涉及的物品或方块 id，配方的 subject 是产物；
+     * names 是可以直接查到它的名称（各语言的名称和 id），只对物品和方块有意义；
+     * text 是名称以外参与检索的文本；summary 是作为上下文发给模型或直接回答玩家的一行文字。
+     */
+    public static final class Document {
+        private final String key;
+        private final Kind kind;
+        private final String subject;
+        private final String title;
+        private final List<String> names;
+        private final String text;
+        private final String summary;
+
+        public Document(String key, Kind kind, String subject, String title, List<String> names, String text, String summary) {
+            this.key = key;
+            this.kind = kind;
+            this.subject = subject;
+            this.title = title;
+            this.names = List.copyOf(names);
+            this.text = text;
+            this.summary = summary;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Document)) {
+                return false;
+            }
+            Document other = (Document) o;
+            return key.equals(other.key) && kind == other.kind && Objects.equals(subject, other.subject) && title.equals(other.title)
+                && names.equals(other.names) && text.equals(other.text) && summary.equals(other.summary);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, summary);
+        }
+    }
+
+    public static final class Hit {
+        public final Document document;
+        public final double score;
+
+        Hit(Document document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 一次更新中增加、修改和删除的文档数。
+     */
+    public static final class UpdateResult {
+        public final int added;
+        public final int changed;
+        public final int removed;
+
+        UpdateResult(int added, int changed, int removed) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+        }
+    }
+
+    private static final class Entry {
+        final Document document;
+        final int id;
+        final String[] terms;
+        final int[] freqs;
+        final int length;
+
+        Entry(Document document, int id, String[] terms, int[] freqs, int length) {
+            this.document = document;
+            this.id = id;
+            this.terms = terms;
+            this.freqs = freqs;
+            this.length = length;
+        }
+    }
+
+    // 一个词出现在哪些文档中，删除时用最后一个元素填补空位，顺序无关
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+
+        void remove(int doc) {
+            for (int i = 0; i < size; i++) {
+                if (docs[i] == doc) {
+                    size--;
+                    docs[i] = docs[size];
+                    freqs[i] = freqs[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 用新的一批文档替换索引内容：键相同且内容相同的文档保持不动，其余的增加、替换或删除。
+     */
+    public UpdateResult update(Collection<Document> documents) {
+        Map<String, Document> incoming = new LinkedHashMap<>();
+        for (Document document : documents) {
+            incoming.put(document.getKey(), document);
+        }
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (String key : new ArrayList<>(byKey.keySet())) {
+                if (!incoming.containsKey(key)) {
+                    remove(byKey.get(key));
+                    removed++;
+                }
+            }
+            for (Document document : incoming.values()) {
+                Entry existing = byKey.get(document.getKey());
+                if (existing != null) {
+                    if (existing.document.equals(document)) {
+                        continue;
+                    }
+                    remove(existing);
+                    changed++;
+                } else {
+                    added++;
+                }
+                add(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new UpdateResult(added, changed, removed);
+    }
+
+    public void clear() {
+        update(List.of());
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 索引内容的摘要：文档相同时相同，与加入的顺序无关，重启后也不变。回复缓存用它判断游戏资料是否变化。
+     */
+    public long getContentHash() {
+        lock.readLock().lock();
+        try {
+            return contentHash;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引直接回答过的问题数。
+     */
+    public long getAnswered() {
+        return answered.sum();
+    }
+
+    /**
+     * 物品或方块在索引中的显示名称（有语言文件时为中文名），索引中没有时返回 null。
+     */
+    public String displayName(String subject) {
+        lock.readLock().lock();
+        try {
+            Entry entry = subjects.get(subject);
+            return entry != null ? entry.document.getTitle() : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按 BM25 分数返回最相关的至多 limit 条资料。
+     */
+    public List<Hit> search(String query, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        Set<String> terms = new HashSet<>(tokenize(stripQuestion(query)));
+        if (terms.isEmpty() || limit <= 0) {
+            return hits;
+        }
+        lock.readLock().lock();
+        try {
+            score(terms, limit, 0, hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * 对“怎么合成活塞”“how do I craft a piston”这类问题，在问题去掉疑问词后正好是某个物品的名称且该物品有配方时，
+     * 直接用配方回答；其他问题返回 null。
+     */
+    public String answer(String question) {
+        if (question == null || question.length() > MAX_LOOKUP_QUESTION_LENGTH || !RECIPE_QUESTION.matcher(question).find()) {
+            return null;
+        }
+        String name = nameKey(question);
+        if (name.isEmpty()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            String subject = names.get(name);
+            List<Entry> recipes = subject != null ? recipesBySubject.get(subject) : null;
+            if (recipes == null || recipes.isEmpty()) {
+                return null;
+            }
+            Entry item = subjects.get(subject);
+            StringBuilder answer = new StringBuilder();
+            answer.append(item != null ? item.document.getTitle() : subject).append(" 的配方");
+            if (recipes.size() > MAX_ANSWER_RECIPES) {
+                answer.append("（共 ").append(recipes.size()).append(" 种，列出前 ").append(MAX_ANSWER_RECIPES).append(" 种）");
+            }
+            answer.append("：");
+            for (int i = 0; i < Math.min(MAX_ANSWER_RECIPES, recipes.size()); i++) {
+                answer.append('\n').append("- ").append(recipes.get(i).document.getSummary());
+            }
+            answer.append("\n（来自本服务器的游戏资料，未调用AI）");
+            answered.increment();
+            return answer.toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 与问题相关的资料，整理成一条附加在问题前的系统消息；没有足够相关的资料时返回 null。
+     */
+    public String context(String question, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        Set<String> terms = new HashSet<>(tokenize(stripQuestion(question)));
+        if (terms.isEmpty() || limit <= 0) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            // 索引中没有的词也计入，问题里大部分词都没命中时不附加资料
+            double idfSum = 0;
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                idfSum += idf(list != null ? list.size : 0);
+            }
+            score(terms, limit, idfSum * MIN_CONTEXT_COVERAGE, hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (hits.isEmpty()) {
+            return null;
+        }
+        StringBuilder context = new StringBuilder("以下是本服务器的游戏资料，可能与问题有关，涉及配方和数值时以它为准：");
+        for (Hit hit : hits) {
+            context.append('\n').append("- ").append(hit.document.getSummary());
+        }
+        return context.toString();
+    }
+
+    // 调用方持有读锁
+    private void score(Set<String> terms, int limit, double minScore, List<Hit> hits) {
+        int live = byKey.size();
+        if (live == 0) {
+            return;
+        }
+        double averageLength = (double) totalLength / live;
+        double[] scores = new double[entries.size()];
+        int[] touched = new int[entries.size()];
+        int touchedCount = 0;
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            double idf = idf(list.size);
+            for (int i = 0; i < list.size; i++) {
+                int doc = list.docs[i];
+                int tf = list.freqs[i];
+                double norm = K1 * (1 - B + B * entries.get(doc).length / averageLength);
+                if (scores[doc] == 0) {
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        // 命中的文档通常只有几十到几百个，选出前 limit 个
+        for (int n = 0; n < limit && touchedCount > 0; n++) {
+            int best = 0;
+            for (int i = 1; i < touchedCount; i++) {
+                if (scores[touched[i]] > scores[touched[best]]) {
+                    best = i;
+                }
+            }
+            int doc = touched[best];
+            if (scores[doc] < minScore) {
+                break;
+            }
+            hits.add(new Hit(entries.get(doc).document, scores[doc]));
+            touched[best] = touched[--touchedCount];
+        }
+    }
+
+    private double idf(int documentFrequency) {
+        int live = byKey.size();
+        return Math.log(1 + (live - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    // 调用方持有写锁
+    private void add(Document document) {
+        Map<String, Integer> counts = new HashMap<>();
+        int length = 0;
+        for (String name : document.names.isEmpty() ? List.of(document.title) : document.names) {
+            for (String token : tokenize(name)) {
+                counts.merge(token, TITLE_WEIGHT, Integer::sum);
+                length += TITLE_WEIGHT;
+            }
+        }
+        for (String token : tokenize(document.text)) {
+            counts.merge(token, 1, Integer::sum);
+            length++;
+        }
+        String[] terms = new String[counts.size()];
+        int[] freqs = new int[counts.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            terms[i] = count.getKey();
+            freqs[i] = count.getValue();
+            i++;
+        }
+        Integer free = freeIds.poll();
+        int id = free != null ? free : entries.size();
+        Entry entry = new Entry(document, id, terms, freqs, length);
+        if (free != null) {
+            entries.set(id, entry);
+        } else {
+            entries.add(entry);
+        }
+        for (int t = 0; t < terms.length; t++) {
+            postings.computeIfAbsent(terms[t], key -> new Postings()).add(id, freqs[t]);
+        }
+        totalLength += length;
+        contentHash += contentHashOf(document);
+        byKey.put(document.key, entry);
+
+        if (document.kind == Kind.RECIPE && document.subject != null) {
+            List<Entry> recipes = recipesBySubject.computeIfAbsent(document.subject, key -> new ArrayList<>());
+            recipes.add(entry);
+            // 按键排序，索引器生成的键让工作台配方排在熔炉等前面
+            recipes.sort((a, b) -> a.document.key.compareTo(b.document.key));
+        } else if ((document.kind == Kind.ITEM || document.kind == Kind.BLOCK) && document.subject != null) {
+            subjects.putIfAbsent(document.subject, entry);
+            for (String name : document.names) {
+                names.putIfAbsent(nameKey(name), document.subject);
+            }
+        }
+    }
+
+    // 调用方持有写锁
+    private void remove(Entry entry) {
+        Document document = entry.document;
+        for (String term : entry.terms) {
+            Postings list = postings.get(term);
+            list.remove(entry.id);
+            if (list.size == 0) {
+                postings.remove(term);
+            }
+        }
+        totalLength -= entry.length;
+        contentHash -= contentHashOf(document);
+        byKey.remove(document.key);
+        entries.set(entry.id, null);
+        freeIds.add(entry.id);
+
+        if (document.kind == Kind.RECIPE && document.subject != null) {
+            List<Entry> recipes = recipesBySubject.get(document.subject);
+            if (recipes != null) {
+                recipes.remove(entry);
+                if (recipes.isEmpty()) {
+                    recipesBySubject.remove(document.subject);
+                }
+            }
+        } else if (subjects.get(document.subject) == entry) {
+            subjects.remove(document.subject);
+            names.values().removeIf(document.subject::equals);
+        }
+    }
+
+    // 64 位 FNV-1a，只用字符串内容，不依赖对象的哈希值
+    private static long contentHashOf(Document document) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, document.key);
+        hash = fnv(hash, document.subject);
+        hash = fnv(hash, document.title);
+        for (String name : document.names) {
+            hash = fnv(hash, name);
+        }
+        hash = fnv(hash, document.text);
+        hash = fnv(hash, document.summary);
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+
+    static String stripQuestion(String question) {
+        String stripped = QUESTION_NOISE.matcher(question).replaceAll(" ").trim();
+        return stripped.isEmpty() ? question : stripped;
+    }
+
+    // 问题和物品名称按同样的规则去掉疑问词和虚词，"block of iron" 才能和 "how do I craft a block of iron" 对上
+    static String nameKey(String text) {
+        return normalizeName(stripQuestion(text));
+    }
+
+    // 名称比较时忽略大小写、空白、下划线和标点
+    static String normalizeName(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); ) {
+            int codePoint = name.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                normalized.appendCodePoint(Character.toLowerCase(codePoint));
+            }
+        }
+        return normalized.toString();
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                addWord(word, tokens);
+                String single = new String(Character.toChars(codePoint));
+                tokens.add(single);
+                if (previousCjk >= 0) {
+                    tokens.add(new String(Character.toChars(previousCjk)) + single);
+                }
+                previousCjk = codePoint;
+            } else {
+                previousCjk = -1;
+                if (Character.isLetterOrDigit(codePoint)) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                } else {
+                    addWord(word, tokens);
+                }
+            }
+        }
+        addWord(word, tokens);
+        return tokens;
+    }
+
+    private static void addWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            String token = word.toString();
+            if (!STOP_WORDS.contains(token)) {
+                tokens.add(token);
+            }
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,353 @@
+package com.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.minecraft.block.Block;
+import net.minecraft.item.BlockItem;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.recipe.AbstractCookingRecipe;
+import net.minecraft.recipe.Ingredient;
+import net.minecraft.recipe.Recipe;
+import net.minecraft.recipe.RecipeType;
+import net.minecraft.recipe.ShapedRecipe;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
+import org.slf4j.Logger;
+
+/**
+ * 从服务器的物品和方块注册表、配方管理器和物品标签生成 {@link KnowledgeIndex} 的文档。
+ * <p>
+ * 开服后和每次 /reload 完成后在后台线程重新生成全部文档，再交给索引增量更新。注册表开服后不再变化，
+ * 配方和标签在数据包重载完成后也不再变化，所以可以在后台线程读取。
+ * <p>
+ * 物品名称使用服务器当前的语言（专用服务器只有英文）。把游戏的语言文件（例如从客户端资源中取出的 zh_cn.json）
+ * 放到 {@link #LANGUAGE_DIR} 下，就可以用这些语言的名称提问，回答也优先使用其中的名称。
+ */
+public class KnowledgeIndexer {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    public static final Path LANGUAGE_DIR = Path.of("config", "ai-for-minecraft-lang");
+    // 标签资料中最多列出的成员数
+    private static final int MAX_TAG_MEMBERS = 8;
+    // 物品资料中最多列出的标签数
+    private static final int MAX_ITEM_TAGS = 5;
+
+    private final OpenAIAPIService service;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Knowledge-Indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public KnowledgeIndexer(OpenAIAPIService service) {
+        this.service = service;
+    }
+
+    /**
+     * 在后台重新生成资料并更新索引。多次触发时按顺序执行，以最后一次为准。
+     */
+    public void rebuild(MinecraftServer server) {
+        try {
+            executor.execute(() -> {
+                KnowledgeIndex index = service.getKnowledge();
+                OpenAIAPIConfig config = service.getConfig();
+                if (config == null || !config.isKnowledgeEnabled()) {
+                    index.clear();
+                } else {
+                    long start = System.nanoTime();
+                    try {
+                        KnowledgeIndex.UpdateResult result = index.update(collect(server));
+                        LOGGER.info("Knowledge index updated in {} ms: {} documents ({} added, {} changed, {} removed)",
+                            (System.nanoTime() - start) / 1_000_000, index.size(), result.added, result.changed, result.removed);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to build the knowledge index", e);
+                    }
+                }
+                // 缓存的回复可能引用了旧的资料，资料变化时回复缓存随之失效
+                service.getResponseCache().setKnowledgeHash(index.getContentHash());
+            });
+        } catch (RejectedExecutionException e) {
+            // 已经关闭
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private List<KnowledgeIndex.Document> collect(MinecraftServer server) {
+        Names names = new Names(loadLanguages());
+        List<KnowledgeIndex.Document> documents = new ArrayList<>();
+
+        Map<Item, List<String>> itemTags = new HashMap<>();
+        Registries.ITEM.streamTagsAndEntries().forEach(pair -> {
+            String tag = "#" + pair.getFirst().id();
+            List<String> members = new ArrayList<>();
+            for (RegistryEntry<Item> entry : pair.getSecond()) {
+                itemTags.computeIfAbsent(entry.value(), key -> new ArrayList<>()).add(tag);
+                members.add(names.display(entry.value()));
+            }
+            if (!members.isEmpty()) {
+                documents.add(tagDocument(tag, members));
+            }
+        });
+        // 标签的遍历顺序不固定，排序后物品资料在两次重建之间才不会无故变化
+        itemTags.values().forEach(Collections::sort);
+
+        Map<Item, Integer> recipeCounts = new HashMap<>();
+        DynamicRegistryManager registries = server.getRegistryManager();
+        for (Recipe<?> recipe : server.getRecipeManager().values()) {
+            ItemStack output = recipe.getOutput(registries);
+            // 烟花、地图复制等特殊配方没有固定的产物和材料
+            if (output.isEmpty() || recipe.getIngredients().isEmpty()) {
+                continue;
+            }
+            documents.add(recipeDocument(recipe, output, names));
+            recipeCounts.merge(output.getItem(), 1, Integer::sum);
+        }
+
+        for (Item item : Registries.ITEM) {
+            if (item != Items.AIR) {
+                documents.add(itemDocument(item, names, itemTags.getOrDefault(item, List.of()), recipeCounts.getOrDefault(item, 0)));
+            }
+        }
+        // 水、火、传送门等没有对应物品的方块
+        for (Block block : Registries.BLOCK) {
+            if (block.asItem() == Items.AIR) {
+                Identifier id = Registries.BLOCK.getId(block);
+                String title = names.display(block.getTranslationKey(), block.getName());
+                documents.add(new KnowledgeIndex.Document("block:" + id, KnowledgeIndex.Kind.BLOCK, id.toString(), title,
+                    names.all(block.getTranslationKey(), block.getName(), id), "",
+                    title + "（" + id + "）：没有对应物品的方块，" + blockFacts(block)));
+            }
+        }
+        return documents;
+    }
+
+    private static KnowledgeIndex.Document itemDocument(Item item, Names names, List<String> tags, int recipes) {
+        Identifier id = Registries.ITEM.getId(item);
+        String title = names.display(item);
+        List<String> facts = new ArrayList<>();
+        if (item instanceof BlockItem) {
+            facts.add("方块，" + blockFacts(((BlockItem) item).getBlock()));
+        }
+        facts.add(item.getMaxCount() == 1 ? "不可堆叠" : "最多堆叠 " + item.getMaxCount() + " 个");
+        facts.add(recipes > 0 ? "有 " + recipes + " 种配方" : "没有配方");
+        if (!tags.isEmpty()) {
+            facts.add("标签 " + String.join("、", tags.subList(0, Math.min(MAX_ITEM_TAGS, tags.size()))));
+        }
+        return new KnowledgeIndex.Document("item:" + id, KnowledgeIndex.Kind.ITEM, id.toString(), title,
+            names.all(item.getTranslationKey(), item.getName(), id), String.join(" ", tags),
+            title + "（" + id + "）：" + String.join("；", facts));
+    }
+
+    private static KnowledgeIndex.Document recipeDocument(Recipe<?> recipe, ItemStack output, Names names) {
+        Station station = Station.of(recipe.getType());
+        Identifier productId = Registries.ITEM.getId(output.getItem());
+        String product = names.display(output.getItem());
+        List<Ingredient> ingredients = recipe.getIngredients();
+
+        StringBuilder summary = new StringBuilder(product);
+        if (output.getCount() > 1) {
+            summary.append(" ×").append(output.getCount());
+        }
+        summary.append("（").append(station != null ? station.displayName : String.valueOf(recipe.getType()));
+        String inputs;
+        if (recipe instanceof ShapedRecipe) {
+            ShapedRecipe shaped = (ShapedRecipe) recipe;
+            summary.append("，有序合成");
+            List<String> rows = new ArrayList<>();
+            for (int y = 0; y < shaped.getHeight(); y++) {
+                List<String> row = new ArrayList<>();
+                for (int x = 0; x < shaped.getWidth(); x++) {
+                    String name = ingredientName(ingredients.get(y * shaped.getWidth() + x), names);
+                    row.add(name != null ? name : "空");
+                }
+                rows.add(String.join(" ", row));
+            }
+            inputs = String.join(" / ", rows);
+        } else {
+            if (recipe instanceof AbstractCookingRecipe) {
+                int ticks = ((AbstractCookingRecipe) recipe).getCookTime();
+                summary.append("，").append(ticks % 20 == 0 ? String.valueOf(ticks / 20) : String.format("%.1f", ticks / 20.0)).append(" 秒");
+            } else if (station == Station.CRAFTING) {
+                summary.append("，无序合成");
+            }
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (Ingredient ingredient : ingredients) {
+                String name = ingredientName(ingredient, names);
+                if (name != null) {
+                    counts.merge(name, 1, Integer::sum);
+                }
+            }
+            inputs = counts.entrySet().stream()
+                .map(entry -> entry.getValue() > 1 ? entry.getKey() + " ×" + entry.getValue() : entry.getKey())
+                .collect(Collectors.joining("、"));
+        }
+        summary.append("）：").append(inputs);
+
+        Set<String> text = new LinkedHashSet<>();
+        for (Ingredient ingredient : ingredients) {
+            for (ItemStack stack : ingredient.getMatchingStacks()) {
+                text.add(names.display(stack.getItem()));
+            }
+        }
+        if (station != null) {
+            text.add(station.displayName);
+        }
+        // 键中带上工作站的序号，同一产物的配方按键排序时工作台配方在前
+        String key = "recipe:" + (station != null ? station.ordinal() : Station.values().length) + ":" + recipe.getId();
+        return new KnowledgeIndex.Document(key, KnowledgeIndex.Kind.RECIPE, productId.toString(), product, List.of(),
+            String.join(" ", text), summary.toString());
+    }
+
+    private static KnowledgeIndex.Document tagDocument(String tag, List<String> members) {
+        String summary = tag + "：" + String.join("、", members.subList(0, Math.min(MAX_TAG_MEMBERS, members.size())))
+            + (members.size() > MAX_TAG_MEMBERS ? " 等 " + members.size() + " 种" : "");
+        return new KnowledgeIndex.Document("tag:" + tag, KnowledgeIndex.Kind.TAG, null, tag, List.of(),
+            String.join(" ", members), summary);
+    }
+
+    // 可以用多种物品的材料显示为“橡木木板等”，两种时显示为“煤炭或木炭”
+    private static String ingredientName(Ingredient ingredient, Names names) {
+        ItemStack[] stacks = ingredient.getMatchingStacks();
+        if (ingredient.isEmpty() || stacks.length == 0) {
+            return null;
+        }
+        String first = names.display(stacks[0].getItem());
+        if (stacks.length == 2) {
+            return first + "或" + names.display(stacks[1].getItem());
+        }
+        return stacks.length > 2 ? first + "等" : first;
+    }
+
+    private static String blockFacts(Block block) {
+        String hardness = block.getHardness() < 0 ? "无法破坏" : "硬度 " + number(block.getHardness());
+        return hardness + "，爆炸抗性 " + number(block.getBlastResistance());
+    }
+
+    private static String number(float value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // 按文件名顺序读取 LANGUAGE_DIR 下的语言文件，读不了的跳过
+    private static List<Map<String, String>> loadLanguages() {
+        List<Map<String, String>> languages = new ArrayList<>();
+        if (!Files.isDirectory(LANGUAGE_DIR)) {
+            return languages;
+        }
+        List<Path> files;
+        try (Stream<Path> list = Files.list(LANGUAGE_DIR)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(".json")).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to list language files in {}", LANGUAGE_DIR, e);
+            return languages;
+        }
+        for (Path file : files) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
+                Map<String, String> language = new HashMap<>();
+                for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+                    if (entry.getValue().isJsonPrimitive()) {
+                        language.put(entry.getKey(), entry.getValue().getAsString());
+                    }
+                }
+                languages.add(language);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Ignoring unreadable language file {}", file, e);
+            }
+        }
+        return languages;
+    }
+
+    private enum Station {
+        CRAFTING("工作台"), SMELTING("熔炉"), BLASTING("高炉"), SMOKING("烟熏炉"), CAMPFIRE_COOKING("营火"),
+        STONECUTTING("切石机"), SMITHING("锻造台");
+
+        final String displayName;
+
+        Station(String displayName) {
+            this.displayName = displayName;
+        }
+
+        static Station of(RecipeType<?> type) {
+            if (type == RecipeType.CRAFTING) {
+                return CRAFTING;
+            } else if (type == RecipeType.SMELTING) {
+                return SMELTING;
+            } else if (type == RecipeType.BLASTING) {
+                return BLASTING;
+            } else if (type == RecipeType.SMOKING) {
+                return SMOKING;
+            } else if (type == RecipeType.CAMPFIRE_COOKING) {
+                return CAMPFIRE_COOKING;
+            } else if (type == RecipeType.STONECUTTING) {
+                return STONECUTTING;
+            } else if (type == RecipeType.SMITHING) {
+                return SMITHING;
+            }
+            return null;
+        }
+    }
+
+    // 显示名称优先取语言文件中的翻译，其次是服务器语言
+    private static final class Names {
+        private final List<Map<String, String>> languages;
+
+        Names(List<Map<String, String>> languages) {
+            this.languages = languages;
+        }
+
+        String display(Item item) {
+            return display(item.getTranslationKey(), item.getName());
+        }
+
+        String display(String translationKey, Text fallback) {
+            for (Map<String, String> language : languages) {
+                String name = language.get(translationKey);
+                if (name != null) {
+                    return name;
+                }
+            }
+            return fallback.getString();
+        }
+
+        List<String> all(String translationKey, Text serverName, Identifier id) {
+            Set<String> all = new LinkedHashSet<>();
+            for (Map<String, String> language : languages) {
+                String name = language.get(translationKey);
+                if (name != null) {
+                    all.add(name);
+                }
+            }
+            all.add(serverName.getString());
+            all.add(id.getPath().replace('_', ' '));
+            all.add(id.toString());
+            return new ArrayList<>(all);
+        }
+    }
+}
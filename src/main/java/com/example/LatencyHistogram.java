@@ -0,0 +1,132 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR 风格的延迟直方图：以微秒为单位，每个二进制量级分成 16 个子桶，估算的相对误差不超过 1/16。
+ * <p>
+ * 记录只做原子自增，不加锁，可以放在请求路径上。累计模式用于统计导出；
+ * 衰减模式在样本数达到上限后把所有计数减半，旧样本的影响逐渐衰减，分位数能跟上上游延迟的变化。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最高记录到 2^37 微秒（约38小时），更大的值计入最后一个桶
+    private static final int MAX_MAGNITUDE = 36;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long DECAY_THRESHOLD = 2048;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final LongAdder sumMicros = new LongAdder();
+    private final boolean decaying;
+
+    public LatencyHistogram() {
+        this(false);
+    }
+
+    private LatencyHistogram(boolean decaying) {
+        this.decaying = decaying;
+    }
+
+    /**
+     * 只反映最近约两千个样本的直方图，用于自适应的阈值。
+     */
+    public static LatencyHistogram decaying() {
+        return new LatencyHistogram(true);
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        sumMicros.add(micros);
+        if (count.incrementAndGet() >= DECAY_THRESHOLD && decaying) {
+            decay();
+        }
+    }
+
+    /**
+     * 估算第 percentile 百分位的延迟（毫秒）；样本少于 minSamples 时返回 -1。
+     */
+    public long percentile(double percentile, int minSamples) {
+        long total = count.get();
+        if (total == 0 || total < minSamples) {
+            return -1;
+        }
+        return (valueAt(percentile, total) + 999) / 1000;
+    }
+
+    /**
+     * 估算第 percentile 百分位的延迟（毫秒，保留小数）；没有样本时返回 -1。
+     */
+    public double percentileMillis(double percentile) {
+        long total = count.get();
+        return total == 0 ? -1 : valueAt(percentile, total) / 1000.0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 所有样本之和（纳秒）。衰减模式下没有意义。
+     */
+    public long getSumNanos() {
+        return sumMicros.sum() * 1000;
+    }
+
+    // 取所在桶的上界（微秒）
+    private long valueAt(double percentile, long total) {
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        // 并发记录时计数可能还没对齐，取最后一个非空桶
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    // 只有衰减时加锁，期间并发记录的少量样本可能没被减半，对估算没有影响
+    private synchronized void decay() {
+        if (count.get() < DECAY_THRESHOLD) {
+            return;
+        }
+        long removed = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long before = counts.getAndUpdate(i, c -> c >> 1);
+            removed += before - (before >> 1);
+        }
+        count.addAndGet(-removed);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = Math.min(MAX_MAGNITUDE, 63 - Long.numberOfLeadingZeros(micros));
+        if (magnitude == MAX_MAGNITUDE && micros >= (1L << (MAX_MAGNITUDE + 1))) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift);
+    }
+}
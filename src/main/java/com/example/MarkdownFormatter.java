@@ -0,0 +1,362 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 把模型回复里的 Markdown 转成带样式的片段，逐字符扫描一遍完成，不使用正则。
+ * <p>
+ * 支持粗体、斜体、删除线、行内代码、标题、列表、引用、链接和代码块，并可过滤 &lt;think&gt; 标签。
+ * 流式碎片可以直接喂进来：每凑满一行就格式化输出，超过 maxLength 的行在空白处断开（不拆代理对和 § 代码），
+ * 没有闭合的行内样式延续到下一段，直到遇到空行。每段输出对应一条聊天消息，由 {@link MarkdownText} 转成 Text。
+ * <p>
+ * 这个类不依赖 Minecraft，可以单独做基准测试。
+ */
+public class MarkdownFormatter {
+    public static final int BOLD = 1;
+    public static final int ITALIC = 1 << 1;
+    public static final int STRIKETHROUGH = 1 << 2;
+    public static final int CODE = 1 << 3;
+    public static final int LINK = 1 << 4;
+    public static final int HEADING1 = 1 << 5;
+    public static final int HEADING2 = 1 << 6;
+    public static final int HEADING3 = 1 << 7;
+    public static final int QUOTE = 1 << 8;
+
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+
+    private final Consumer<List<Span>> sink;
+    private final int maxLength;
+    private final boolean stripThink;
+
+    // 还没扫描的输入（可能以半个 think 标签结尾）
+    private final StringBuilder pending = new StringBuilder();
+    // 当前行的原始文本
+    private final StringBuilder line = new StringBuilder();
+    // 当前行格式化后的纯文本，以及每一段样式的起点
+    private final StringBuilder plain = new StringBuilder();
+    private int[] runStarts = new int[8];
+    private int[] runStyles = new int[8];
+    private String[] runLinks = new String[8];
+    private int runCount;
+
+    private boolean inThink;
+    private boolean inCodeBlock;
+    // 跨行延续的行内样式
+    private int inline;
+
+    public MarkdownFormatter(Consumer<List<Span>> sink, int maxLength, boolean stripThink) {
+        this.sink = sink;
+        this.maxLength = Math.max(16, maxLength);
+        this.stripThink = stripThink;
+    }
+
+    /**
+     * 一次性格式化完整文本，返回每条聊天消息的片段列表。
+     */
+    public static List<List<Span>> format(String text, int maxLength, boolean stripThink) {
+        List<List<Span>> chunks = new ArrayList<>();
+        MarkdownFormatter formatter = new MarkdownFormatter(chunks::add, maxLength, stripThink);
+        formatter.append(text);
+        formatter.flush();
+        return chunks;
+    }
+
+    public synchronized void append(CharSequence fragment) {
+        if (fragment == null || fragment.length() == 0) {
+            return;
+        }
+        pending.append(fragment);
+        consume(false);
+    }
+
+    /**
+     * 输出剩余内容并重置所有状态，之后可以继续用于下一条回复。
+     */
+    public synchronized void flush() {
+        consume(true);
+        if (line.length() > 0) {
+            formatLine();
+        }
+        inline = 0;
+        inCodeBlock = false;
+        inThink = false;
+    }
+
+    private void consume(boolean end) {
+        int n = pending.length();
+        int i = 0;
+        while (i < n) {
+            char c = pending.charAt(i);
+            if (stripThink) {
+                if (c == '<') {
+                    String tag = inThink ? THINK_CLOSE : THINK_OPEN;
+                    int matched = matchLength(pending, i, n, tag);
+                    if (matched == tag.length()) {
+                        inThink = !inThink;
+                        i += matched;
+                        continue;
+                    }
+                    if (i + matched == n && !end) {
+                        // 可能是被拆开的标签，等下一段再判断
+                        break;
+                    }
+                }
+                if (inThink) {
+                    i++;
+                    continue;
+                }
+            }
+            if (c == '\n') {
+                formatLine();
+            } else if (c != '\r') {
+                line.append(c);
+            }
+            i++;
+        }
+        pending.delete(0, i);
+    }
+
+    private void formatLine() {
+        int n = line.length();
+        int indent = 0;
+        while (indent < n && line.charAt(indent) == ' ') {
+            indent++;
+        }
+        if (matchLength(line, indent, n, "```") == 3) {
+            inCodeBlock = !inCodeBlock;
+            line.setLength(0);
+            return;
+        }
+        if (inCodeBlock) {
+            addRun(line, 0, n, CODE, null);
+            emitLine();
+            return;
+        }
+        if (indent == n) {
+            // 空行结束段落，未闭合的行内样式不再延续
+            inline = 0;
+            line.setLength(0);
+            return;
+        }
+
+        int i = indent;
+        int block = 0;
+        char c = line.charAt(i);
+        int hashes = 0;
+        while (i + hashes < n && line.charAt(i + hashes) == '#') {
+            hashes++;
+        }
+        if (hashes > 0 && hashes <= 6 && i + hashes < n && line.charAt(i + hashes) == ' ') {
+            block = hashes == 1 ? HEADING1 : hashes == 2 ? HEADING2 : HEADING3;
+            i += hashes + 1;
+        } else if ((c == '-' || c == '*' || c == '+') && i + 1 < n && line.charAt(i + 1) == ' ') {
+            addRun(line, 0, indent, 0, null);
+            addRun("• ", 0, 2, 0, null);
+            i += 2;
+        } else if (c == '>') {
+            block = QUOTE;
+            i++;
+            if (i < n && line.charAt(i) == ' ') {
+                i++;
+            }
+        }
+
+        int runStart = i;
+        while (i < n) {
+            c = line.charAt(i);
+            if ((inline & CODE) != 0) {
+                // 行内代码里不解析其他标记
+                if (c == '`') {
+                    addRun(line, runStart, i, block | inline, null);
+                    inline &= ~CODE;
+                    runStart = i + 1;
+                }
+                i++;
+                continue;
+            }
+            if (c == '\\' && i + 1 < n && isMarker(line.charAt(i + 1))) {
+                addRun(line, runStart, i, block | inline, null);
+                runStart = i + 1;
+                i += 2;
+                continue;
+            }
+            if (c == '`') {
+                addRun(line, runStart, i, block | inline, null);
+                inline |= CODE;
+                runStart = ++i;
+                continue;
+            }
+            if (c == '*' || c == '~') {
+                boolean doubled = i + 1 < n && line.charAt(i + 1) == c;
+                int flag = c == '~' ? (doubled ? STRIKETHROUGH : 0) : doubled ? BOLD : ITALIC;
+                int width = doubled ? 2 : 1;
+                boolean open = (inline & flag) != 0;
+                // 开标记后面、闭标记前面不能是空白，避免把 "2 * 3" 当成斜体
+                boolean toggles = flag != 0 && (open
+                    ? i > 0 && !Character.isWhitespace(line.charAt(i - 1))
+                    : i + width < n && !Character.isWhitespace(line.charAt(i + width)));
+                if (toggles) {
+                    addRun(line, runStart, i, block | inline, null);
+                    inline ^= flag;
+                    i += width;
+                    runStart = i;
+                    continue;
+                }
+                i += width;
+                continue;
+            }
+            if (c == '[') {
+                int close = indexOf(line, ']', i + 1, n);
+                if (close > 0 && close + 1 < n && line.charAt(close + 1) == '(') {
+                    int end = indexOf(line, ')', close + 2, n);
+                    if (end > 0) {
+                        addRun(line, runStart, i, block | inline, null);
+                        addRun(line, i + 1, close, block | inline | LINK, line.substring(close + 2, end));
+                        i = end + 1;
+                        runStart = i;
+                        continue;
+                    }
+                }
+            }
+            i++;
+        }
+        addRun(line, runStart, n, block | inline, null);
+        emitLine();
+    }
+
+    private void addRun(CharSequence source, int from, int to, int style, String link) {
+        if (from >= to) {
+            return;
+        }
+        int last = runCount - 1;
+        if (last < 0 || runStyles[last] != style || !Objects.equals(runLinks[last], link)) {
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runStyles = Arrays.copyOf(runStyles, runCount * 2);
+                runLinks = Arrays.copyOf(runLinks, runCount * 2);
+            }
+            runStarts[runCount] = plain.length();
+            runStyles[runCount] = style;
+            runLinks[runCount] = link;
+            runCount++;
+        }
+        plain.append(source, from, to);
+    }
+
+    // 把当前行按 maxLength 切成若干条消息交给 sink
+    private void emitLine() {
+        int length = plain.length();
+        int pos = 0;
+        while (pos < length) {
+            int cut = length;
+            if (length - pos > maxLength) {
+                cut = breakBefore(pos, pos + maxLength);
+            }
+            List<Span> chunk = slice(pos, cut);
+            if (!chunk.isEmpty()) {
+                sink.accept(chunk);
+            }
+            pos = cut;
+            while (pos < length && Character.isWhitespace(plain.charAt(pos))) {
+                pos++;
+            }
+        }
+        line.setLength(0);
+        plain.setLength(0);
+        Arrays.fill(runLinks, 0, runCount, null);
+        runCount = 0;
+    }
+
+    // 在上限内找最后一个空白作为断点；找不到就硬切，但不拆开代理对和 § 格式代码
+    private int breakBefore(int start, int end) {
+        for (int i = end - 1; i > start; i--) {
+            if (Character.isWhitespace(plain.charAt(i))) {
+                return i + 1;
+            }
+        }
+        int cut = end;
+        if (Character.isHighSurrogate(plain.charAt(cut - 1)) && cut - 1 > start) {
+            cut--;
+        }
+        if (plain.charAt(cut - 1) == '§' && cut - 1 > start) {
+            cut--;
+        }
+        return cut;
+    }
+
+    private List<Span> slice(int from, int to) {
+        // 去掉段尾的空白
+        while (to > from && Character.isWhitespace(plain.charAt(to - 1))) {
+            to--;
+        }
+        if (from >= to) {
+            return List.of();
+        }
+        List<Span> spans = new ArrayList<>(runCount);
+        for (int r = 0; r < runCount; r++) {
+            int start = Math.max(from, runStarts[r]);
+            int end = Math.min(to, r + 1 < runCount ? runStarts[r + 1] : plain.length());
+            if (start < end) {
+                spans.add(new Span(plain.substring(start, end), runStyles[r], runLinks[r]));
+            }
+        }
+        return spans;
+    }
+
+    private static boolean isMarker(char c) {
+        return c == '*' || c == '~' || c == '`' || c == '[' || c == ']' || c == '#' || c == '\\';
+    }
+
+    private static int matchLength(CharSequence text, int start, int end, String token) {
+        int matched = 0;
+        while (matched < token.length() && start + matched < end && text.charAt(start + matched) == token.charAt(matched)) {
+            matched++;
+        }
+        return matched;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一段样式相同的文本。style 是上面各个标志位的组合，link 只在 {@link #LINK} 时有值。
+     */
+    public static final class Span {
+        private final String text;
+        private final int style;
+        private final String link;
+
+        Span(String text, int style, String link) {
+            this.text = text;
+            this.style = style;
+            this.link = link;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getStyle() {
+            return style;
+        }
+
+        public boolean has(int flag) {
+            return (style & flag) != 0;
+        }
+
+        public String getLink() {
+            return link;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example;
+
+import java.util.List;
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+/**
+ * 把 {@link MarkdownFormatter} 输出的片段转成带样式的聊天组件。
+ * 样式放在组件上而不是拼 § 代码，切段时不会出现半截格式代码。
+ */
+public final class MarkdownText {
+    private MarkdownText() {
+    }
+
+    public static Text toText(List<MarkdownFormatter.Span> spans) {
+        if (spans.size() == 1 && spans.get(0).getStyle() == 0) {
+            return Text.literal(spans.get(0).getText());
+        }
+        MutableText text = Text.empty();
+        for (MarkdownFormatter.Span span : spans) {
+            MutableText part = Text.literal(span.getText());
+            if (span.getStyle() != 0) {
+                part.setStyle(styleOf(span));
+            }
+            text.append(part);
+        }
+        return text;
+    }
+
+    private static Style styleOf(MarkdownFormatter.Span span) {
+        Style style = Style.EMPTY;
+        if (span.has(MarkdownFormatter.HEADING1)) {
+            style = style.withColor(Formatting.GOLD).withBold(true);
+        } else if (span.has(MarkdownFormatter.HEADING2)) {
+            style = style.withColor(Formatting.YELLOW).withBold(true);
+        } else if (span.has(MarkdownFormatter.HEADING3)) {
+            style = style.withColor(Formatting.GREEN).withBold(true);
+        } else if (span.has(MarkdownFormatter.QUOTE)) {
+            style = style.withColor(Formatting.GRAY).withItalic(true);
+        }
+        if (span.has(MarkdownFormatter.BOLD)) {
+            style = style.withBold(true);
+        }
+        if (span.has(MarkdownFormatter.ITALIC)) {
+            style = style.withItalic(true);
+        }
+        if (span.has(MarkdownFormatter.STRIKETHROUGH)) {
+            style = style.withStrikethrough(true);
+        }
+        if (span.has(MarkdownFormatter.CODE)) {
+            style = style.withColor(Formatting.GRAY);
+        }
+        if (span.has(MarkdownFormatter.LINK)) {
+            style = style.withColor(Formatting.BLUE).withUnderline(true);
+            String url = span.getLink();
+            // 只让 http(s) 链接可以点击，其他的只显示地址
+            if (url.startsWith("http://") || url.startsWith("https://")) {
+                style = style.withClickEvent(new ClickEvent(ClickEvent.Action.OPEN_URL, url));
+            }
+            style = style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal(url)));
+        }
+        return style;
+    }
+}
@@ -1,8 +1,14 @@
 package com.example;
 
 import com.google.gson.annotations.SerializedName;
+import java.util.List;
 
+/**
+ * 配置快照。由 {@link ConfigManager} 从配置文件生成，只有 getter，发布后不再修改。
+ */
 public class OpenAIAPIConfig {
+    public static final String DEFAULT_SYSTEM_PROMPT = "注意！所有mc皆指的是minecraft游戏。你需要作为一个讲解员用最简单最朴素的方式为玩家提供关于minecraft游戏的帮助。你的所有回答需要使用中文。";
+
     @SerializedName("api_url")
     private String apiUrl;
     
@@ -24,8 +30,143 @@ public class OpenAIAPIConfig {
     @SerializedName("process_think_tags")
     private boolean processThinkTags = true;
     
+    @SerializedName("stream")
+    private boolean stream = false;
+    
+    @SerializedName("max_concurrent_requests")
+    private int maxConcurrentRequests = 16;
+    
+    @SerializedName("max_queue_size")
+    private int maxQueueSize = 64;
+    
+    @SerializedName("max_queued_per_player")
+    private int maxQueuedPerPlayer = 3;
+    
+    @SerializedName("rate_limit_per_minute")
+    private int rateLimitPerMinute = 6;
+    
+    @SerializedName("rate_limit_burst")
+    private int rateLimitBurst = 3;
+    
+    @SerializedName("cache_enabled")
+    private boolean cacheEnabled = true;
+    
+    @SerializedName("cache_max_entries")
+    private int cacheMaxEntries = 512;
+    
+    @SerializedName("cache_ttl_minutes")
+    private int cacheTtlMinutes = 1440;
+    
+    @SerializedName("cache_persist")
+    private boolean cachePersist = true;
+    
+    @SerializedName("history_enabled")
+    private boolean historyEnabled = true;
+    
+    @SerializedName("history_max_messages")
+    private int historyMaxMessages = 12;
+    
+    @SerializedName("history_token_budget")
+    private int historyTokenBudget = 1500;
+    
+    @SerializedName("summarize_history")
+    private boolean summarizeHistory = false;
+    
+    @SerializedName("outbox_messages_per_tick")
+    private int outboxMessagesPerTick = 8;
+    
+    @SerializedName("outbox_chars_per_tick")
+    private int outboxCharsPerTick = 4096;
+    
+    @SerializedName("endpoints")
+    private List<EndpointConfig> endpoints;
+    
+    @SerializedName("circuit_failure_threshold")
+    private int circuitFailureThreshold = 5;
+    
+    @SerializedName("circuit_open_seconds")
+    private int circuitOpenSeconds = 30;
+    
+    @SerializedName("health_check_interval_seconds")
+    private int healthCheckIntervalSeconds = 30;
+    
+    @SerializedName("max_failover_attempts")
+    private int maxFailoverAttempts = 2;
+    
+    @SerializedName("request_timeout_seconds")
+    private int requestTimeoutSeconds = 30;
+    
+    @SerializedName("hedge_enabled")
+    private boolean hedgeEnabled = false;
+    
+    @SerializedName("hedge_percentile")
+    private double hedgePercentile = 95;
+    
+    @SerializedName("hedge_min_delay_ms")
+    private int hedgeMinDelayMs = 500;
+    
+    @SerializedName("metrics_export_interval_seconds")
+    private int metricsExportIntervalSeconds = 15;
+
+    @SerializedName("max_prompt_tokens")
+    private int maxPromptTokens = 4000;
+
+    @SerializedName("truncate_long_prompts")
+    private boolean truncateLongPrompts = true;
+
+    @SerializedName("quota_tokens_per_hour")
+    private int quotaTokensPerHour = 0;
+
+    @SerializedName("quota_tokens_per_day")
+    private int quotaTokensPerDay = 0;
+
+    @SerializedName("shutdown_drain_seconds")
+    private int shutdownDrainSeconds = 5;
+
+    @SerializedName("knowledge_enabled")
+    private boolean knowledgeEnabled = true;
+
+    @SerializedName("knowledge_direct_answers")
+    private boolean knowledgeDirectAnswers = true;
+
+    @SerializedName("knowledge_context_hits")
+    private int knowledgeContextHits = 3;
+
+    @SerializedName("world_context_enabled")
+    private boolean worldContextEnabled = false;
+
+    @SerializedName("world_context_radius")
+    private int worldContextRadius = 8;
+
+    @SerializedName("world_context_blocks_per_tick")
+    private int worldContextBlocksPerTick = 2048;
+
+    @SerializedName("world_context_cache_seconds")
+    private int worldContextCacheSeconds = 5;
+
+    @SerializedName("client_streaming_enabled")
+    private boolean clientStreamingEnabled = true;
+
+    @SerializedName("client_compression_threshold")
+    private int clientCompressionThreshold = 256;
+
+    @SerializedName("audit_enabled")
+    private boolean auditEnabled = false;
+
+    @SerializedName("audit_compress")
+    private boolean auditCompress = false;
+
+    @SerializedName("audit_segment_mb")
+    private int auditSegmentMb = 16;
+
+    @SerializedName("audit_retention_days")
+    private int auditRetentionDays = 30;
+
+    @SerializedName("audit_max_total_mb")
+    private int auditMaxTotalMb = 1024;
+    
     @SerializedName("system_prompt")
-    private String systemPrompt = "You are a helpful AI assistant in Minecraft.";
+    private String systemPrompt = DEFAULT_SYSTEM_PROMPT;
 
     public String getApiUrl() {
         return apiUrl;
@@ -55,6 +196,186 @@ public class OpenAIAPIConfig {
         return processThinkTags;
     }
     
+    public boolean isStreamEnabled() {
+        return stream;
+    }
+    
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+    
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+    
+    public int getMaxQueuedPerPlayer() {
+        return maxQueuedPerPlayer;
+    }
+    
+    public int getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+    
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+    
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+    
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+    
+    public int getCacheTtlMinutes() {
+        return cacheTtlMinutes;
+    }
+    
+    public boolean isCachePersistent() {
+        return cachePersist;
+    }
+    
+    public boolean isHistoryEnabled() {
+        return historyEnabled;
+    }
+    
+    public int getHistoryMaxMessages() {
+        return historyMaxMessages;
+    }
+    
+    public int getHistoryTokenBudget() {
+        return historyTokenBudget;
+    }
+    
+    public boolean shouldSummarizeHistory() {
+        return summarizeHistory;
+    }
+    
+    public int getOutboxMessagesPerTick() {
+        return outboxMessagesPerTick;
+    }
+    
+    public int getOutboxCharsPerTick() {
+        return outboxCharsPerTick;
+    }
+    
+    public List<EndpointConfig> getEndpoints() {
+        return endpoints != null ? endpoints : List.of();
+    }
+    
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+    
+    public int getCircuitOpenSeconds() {
+        return circuitOpenSeconds;
+    }
+    
+    public int getHealthCheckIntervalSeconds() {
+        return healthCheckIntervalSeconds;
+    }
+    
+    public int getMaxFailoverAttempts() {
+        return maxFailoverAttempts;
+    }
+    
+    public int getRequestTimeoutSeconds() {
+        return requestTimeoutSeconds;
+    }
+    
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+    
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+    
+    public int getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+    
+    public int getMetricsExportIntervalSeconds() {
+        return metricsExportIntervalSeconds;
+    }
+
+    public int getMaxPromptTokens() {
+        return maxPromptTokens;
+    }
+
+    public boolean shouldTruncateLongPrompts() {
+        return truncateLongPrompts;
+    }
+
+    public int getQuotaTokensPerHour() {
+        return quotaTokensPerHour;
+    }
+
+    public int getQuotaTokensPerDay() {
+        return quotaTokensPerDay;
+    }
+
+    public int getShutdownDrainSeconds() {
+        return shutdownDrainSeconds;
+    }
+
+    public boolean isKnowledgeEnabled() {
+        return knowledgeEnabled;
+    }
+
+    public boolean shouldAnswerFromKnowledge() {
+        return knowledgeDirectAnswers;
+    }
+
+    public int getKnowledgeContextHits() {
+        return knowledgeContextHits;
+    }
+
+    public boolean isWorldContextEnabled() {
+        return worldContextEnabled;
+    }
+
+    public int getWorldContextRadius() {
+        return worldContextRadius;
+    }
+
+    public int getWorldContextBlocksPerTick() {
+        return worldContextBlocksPerTick;
+    }
+
+    public int getWorldContextCacheSeconds() {
+        return worldContextCacheSeconds;
+    }
+
+    public boolean isClientStreamingEnabled() {
+        return clientStreamingEnabled;
+    }
+
+    public int getClientCompressionThreshold() {
+        return clientCompressionThreshold;
+    }
+
+    public boolean isAuditEnabled() {
+        return auditEnabled;
+    }
+
+    public boolean shouldCompressAudit() {
+        return auditCompress;
+    }
+
+    public int getAuditSegmentMb() {
+        return auditSegmentMb;
+    }
+
+    public int getAuditRetentionDays() {
+        return auditRetentionDays;
+    }
+
+    public int getAuditMaxTotalMb() {
+        return auditMaxTotalMb;
+    }
+    
     public String getSystemPrompt() {
         return systemPrompt;
     }
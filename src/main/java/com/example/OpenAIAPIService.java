@@ -1,109 +1,622 @@
 package com.example;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.GsonBuilder;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 
 import java.util.concurrent.*;
 
 public class OpenAIAPIService {
-    private OpenAIAPIConfig config;
+    // 配置文件读取失败时没有可用的配置快照，修好文件后 /ai reload 即可恢复
+    static final String CONFIG_NOT_LOADED = "OpenAI API configuration is not properly loaded";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final int WORKER_THREADS = 2;
+    // 首字节延迟样本少于这个数时分位数不可靠，不做对冲
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    // 截断问题后至少要留下这么多token，否则直接拒绝
+    private static final int MIN_QUESTION_TOKENS = 16;
+    private static final String ELLIPSIS = "…";
+    // 后台摘要请求与玩家请求一起排队，共用一个限流桶
+    private static final RequestContext SUMMARY_CONTEXT = new RequestContext(null, "Summary", false);
+
+    private final ConfigManager configManager = new ConfigManager(ConfigManager.CONFIG_PATH);
     private static final Logger LOGGER = AiForMinecraft.LOGGER;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
-    private final BlockingQueue<CompletableFuture<String>> requestQueue = new LinkedBlockingQueue<>();
+    // 只用于HttpClient内部回调和响应解析，在途请求不占用线程
+    private final ExecutorService executorService = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "AI-HTTP-Worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .executor(executorService)
+        .build();
+    private final RequestScheduler scheduler = new RequestScheduler();
+    private final EndpointRouter router = new EndpointRouter(httpClient);
+    private final SingleFlight<SharedReply> singleFlight = new SingleFlight<>();
+    private final ResponseCache responseCache = new ResponseCache(Paths.get("config/ai-for-minecraft-cache.bin"));
+    private final KnowledgeIndex knowledge = new KnowledgeIndex();
+    private final TokenQuota quota = new TokenQuota(Paths.get("config/ai-for-minecraft-quota.bin"));
+    private final AuditLog auditLog = new AuditLog(AuditLog.DIRECTORY);
+    private final ConversationManager conversations = new ConversationManager(this::summarize);
+    // 每个玩家进行中的调用，用于 /ai cancel 和玩家下线时取消
+    private final ConcurrentHashMap<UUID, Set<CompletableFuture<String>>> activeRequests = new ConcurrentHashMap<>();
+    // 从发出请求到收到成功响应头的耗时，对冲延迟取它的分位数
+    private final LatencyHistogram firstByteLatency = LatencyHistogram.decaying();
+    private final LongAdder hedgedRequests = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final AIMetrics metrics = new AIMetrics();
+    // 所有未结束的调用，关服时等它们结束或取消
+    private final Set<CompletableFuture<String>> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile boolean initialized;
+    private volatile boolean draining;
 
+    /**
+     * 构造时不读写磁盘，配置、回复缓存和额度文件在第一次用到服务或 {@link #warmUp()} 时才加载。
+     */
     public OpenAIAPIService() {
+        registerGauges();
+        configManager.addListener(this::applyConfig);
+    }
+
+    /**
+     * 在后台加载配置和token词表，并向每个端点发一个不消耗token的请求，提前完成 DNS 解析和 TCP/TLS 握手；
+     * 建立的连接留在 HttpClient 的连接池里，开服后的第一个 /ai 不用再等这些。
+     */
+    public CompletableFuture<Void> warmUp() {
+        // 单人游戏退出世界后服务继续使用，重新开始接受请求
+        draining = false;
+        long start = System.nanoTime();
+        return CompletableFuture.runAsync(() -> {
+                initialize();
+                TokenCounter.isExact();
+            }, executorService)
+            .thenCompose(ignored -> router.warmUp())
+            .whenComplete((connected, error) -> {
+                if (error != null) {
+                    LOGGER.warn("AI service warm-up failed", error);
+                } else {
+                    LOGGER.info("AI service warmed up in {} ms, {} endpoint(s) connected", (System.nanoTime() - start) / 1_000_000, connected);
+                }
+            })
+            .thenApply(connected -> null);
+    }
+
+    /**
+     * 关服时调用：不再接受新请求，等进行中的调用最多 timeout 时间，到时仍未结束的取消。返回取消的个数。
+     * 返回时已完成调用的回调（把回复交给发件箱）都已执行完，调用方随后 flush 发件箱即可。
+     */
+    public int drain(Duration timeout) {
+        draining = true;
+        List<CompletableFuture<String>> pending = new ArrayList<>(outstanding);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        LOGGER.info("Waiting up to {} ms for {} AI request(s) to finish", timeout.toMillis(), pending.size());
         try {
-            reloadConfig();
-        } catch (IOException e) {
-            LOGGER.error("Failed to initialize OpenAI API service", e);
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // 失败的调用已经各自通知了玩家，超时的在下面取消
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int cancelled = 0;
+        for (CompletableFuture<String> request : outstanding) {
+            if (request.cancel(true)) {
+                cancelled++;
+            }
+        }
+        if (cancelled > 0) {
+            LOGGER.info("Cancelled {} AI request(s) still running at shutdown", cancelled);
         }
+        awaitWorkersIdle();
+        return cancelled;
     }
 
     public CompletableFuture<String> callAPIAsync(String message) {
-        CompletableFuture<String> future = new CompletableFuture<>();
-        executorService.submit(() -> {
+        return callAPIAsync(RequestContext.SYSTEM, message);
+    }
+
+    public CompletableFuture<String> callAPIAsync(RequestContext context, String message) {
+        if (draining) {
+            return CompletableFuture.failedFuture(new RequestRejectedException("服务器正在关闭，不再接受AI请求"));
+        }
+        OpenAIAPIConfig config = getConfig();
+        if (config == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException(CONFIG_NOT_LOADED));
+        }
+        ConversationSession session = conversations.getSession(context);
+        String local = answerLocally(config, message);
+        if (local != null) {
+            if (session != null) {
+                conversations.record(session, message, local);
+            }
+            CompletableFuture<String> answer = CompletableFuture.completedFuture(local);
+            return audit(context, message, "local", null, System.nanoTime(), answer, answer);
+        }
+        // 带历史或周围环境的请求上下文各不相同，只有两者都没有的请求才走缓存和请求合并
+        boolean stateless = (session == null || session.isEmpty()) && context.getWorldContext() == null;
+        RequestControl control = new RequestControl(timeoutOf(config));
+        long start = System.nanoTime();
+
+        CompletableFuture<String> content;
+        String origin = "api";
+        if (stateless) {
+            String cached = responseCache.get(message);
+            if (cached != null) {
+                content = CompletableFuture.completedFuture(cached);
+                origin = "cache";
+            } else {
+                List<ChatMessage> messages = buildMessages(config, context, session, message);
+                AtomicBoolean leader = new AtomicBoolean();
+                // 合并的上游调用有自己的控制，只有所有等待者都取消时才会被取消
+                content = control.track(singleFlight.join(flightKey(config, message, false), null, parts -> {
+                    leader.set(true);
+                    RequestControl flight = new RequestControl(timeoutOf(config));
+                    return bind(flight, sendCompletion(context, flight, config, messages).thenApply(result -> {
+                        responseCache.put(message, result);
+                        control.addUsage(flight);
+                        return new SharedReply(result, flight);
+                    }));
+                })).thenApply(shared -> shared.reply(control));
+                origin = leader.get() ? "api" : "coalesced";
+            }
+        } else {
+            content = sendCompletion(context, control, config, buildMessages(config, context, session, message));
+        }
+        return register(context, observe(start, audit(context, message, origin, control, start, content, bind(control, content.thenApply(result -> {
+            if (session != null) {
+                conversations.record(session, message, result);
+            }
+            return modelPrefix(config, control.getModel()) + result;
+        })))));
+    }
+
+    /**
+     * 以流式模式调用API，每拼出一个完整的句子或一行就交给 consumer，
+     * 返回的 future 在流结束时以完整回复完成。
+     */
+    public CompletableFuture<String> callAPIStreaming(String message, Consumer<String> consumer) {
+        return callAPIStreaming(RequestContext.SYSTEM, message, consumer);
+    }
+
+    public CompletableFuture<String> callAPIStreaming(RequestContext context, String message, Consumer<String> consumer) {
+        if (draining) {
+            return CompletableFuture.failedFuture(new RequestRejectedException("服务器正在关闭，不再接受AI请求"));
+        }
+        OpenAIAPIConfig config = getConfig();
+        if (config == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException(CONFIG_NOT_LOADED));
+        }
+        ConversationSession session = conversations.getSession(context);
+        String local = answerLocally(config, message);
+        if (local != null) {
+            if (session != null) {
+                conversations.record(session, message, local);
+            }
+            StreamingSentenceBuffer sentences = new StreamingSentenceBuffer(consumer, 256);
+            sentences.append(local);
+            sentences.flush();
+            CompletableFuture<String> answer = CompletableFuture.completedFuture(local);
+            return audit(context, message, "local", null, System.nanoTime(), answer, answer);
+        }
+        boolean stateless = (session == null || session.isEmpty()) && context.getWorldContext() == null;
+        RequestControl control = new RequestControl(timeoutOf(config));
+        long start = System.nanoTime();
+
+        CompletableFuture<String> content;
+        String origin = "api";
+        String cached = stateless ? responseCache.get(message) : null;
+        if (cached != null) {
+            StreamingSentenceBuffer sentences = new StreamingSentenceBuffer(prefixFirst(modelPrefix(config, null), consumer), 256);
+            sentences.append(cached);
+            sentences.flush();
+            content = CompletableFuture.completedFuture(cached);
+            origin = "cache";
+        } else if (stateless) {
+            // 相同问题的流式请求共享一次上游调用，句子广播给所有等待的玩家
+            List<ChatMessage> messages = buildMessages(config, context, session, message);
+            AtomicBoolean leader = new AtomicBoolean();
+            content = control.track(singleFlight.join(flightKey(config, message, true), consumer, parts -> {
+                leader.set(true);
+                RequestControl flight = new RequestControl(timeoutOf(config));
+                return bind(flight, sendStreaming(context, flight, config, messages, parts).thenApply(result -> {
+                    responseCache.put(message, result);
+                    control.addUsage(flight);
+                    return new SharedReply(result, flight);
+                }));
+            })).thenApply(shared -> shared.reply(control));
+            origin = leader.get() ? "api" : "coalesced";
+        } else {
+            content = sendStreaming(context, control, config, buildMessages(config, context, session, message), consumer);
+        }
+        return register(context, observe(start, audit(context, message, origin, control, start, content, bind(control, content.thenApply(result -> {
+            if (session != null) {
+                conversations.record(session, message, result);
+            }
+            return modelPrefix(config, control.getModel()) + result;
+        })))));
+    }
+
+    /**
+     * 取消该玩家所有进行中的调用（排队中的直接出队，已发出的中断 HTTP 交换），返回取消的个数。
+     */
+    public int cancelRequests(UUID playerId) {
+        Set<CompletableFuture<String>> requests = activeRequests.remove(playerId);
+        if (requests == null) {
+            return 0;
+        }
+        int cancelled = 0;
+        for (CompletableFuture<String> request : requests) {
+            if (request.cancel(true)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    private CompletableFuture<String> sendCompletion(RequestContext context, RequestControl control, OpenAIAPIConfig config,
+                                                     List<ChatMessage> prompt) {
+        List<ChatMessage> messages;
+        try {
+            messages = preflight(context, config, prompt);
+        } catch (RequestRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return withPermit(context, control, () -> dispatch(control, config, null, (endpoint, attempt) -> {
+            long sent = System.nanoTime();
+            return attempt.control.track(httpClient.sendAsync(buildRequest(endpoint, attempt.control, config, messages, false), responseInfo -> {
+                    if (responseInfo.statusCode() / 100 != 2) {
+                        return BodySubscribers.mapping(BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                            throw new CompletionException(httpError(responseInfo.statusCode(), body));
+                        });
+                    }
+                    attempt.onFirstByte(sent);
+                    return ChatCompletionCodec.replySubscriber();
+                }))
+                .thenApply(response -> {
+                    ChatCompletionCodec.Reply reply = response.body();
+                    recordUsage(context, control, endpoint, messages, reply.getContent(), reply.getPromptTokens(), reply.getCompletionTokens(), attempt);
+                    return reply.getContent();
+                });
+        }));
+    }
+
+    private CompletableFuture<String> sendStreaming(RequestContext context, RequestControl control, OpenAIAPIConfig config,
+                                                    List<ChatMessage> prompt, Consumer<String> parts) {
+        List<ChatMessage> messages;
+        try {
+            messages = preflight(context, config, prompt);
+        } catch (RequestRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return withPermit(context, control, () -> dispatch(control, config, parts, (endpoint, attempt) -> {
+            // 模型名前缀按这次发往的端点加：换端点重来或对冲时，第一段来自哪个端点就显示哪个模型
+            Consumer<String> sink = prefixFirst(modelPrefix(config, endpoint.getModel()), attempt.parts);
+            SseStreamSubscriber subscriber = new SseStreamSubscriber(new StreamingSentenceBuffer(sink, 256));
+            long sent = System.nanoTime();
+            return attempt.control.track(httpClient.sendAsync(buildRequest(endpoint, attempt.control, config, messages, true), responseInfo -> {
+                    if (responseInfo.statusCode() / 100 != 2) {
+                        return BodySubscribers.mapping(BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                            throw new CompletionException(httpError(responseInfo.statusCode(), body));
+                        });
+                    }
+                    attempt.onFirstByte(sent);
+                    return BodySubscribers.fromLineSubscriber(subscriber, SseStreamSubscriber::getFullText, StandardCharsets.UTF_8, null);
+                }))
+                .thenApply(response -> {
+                    recordUsage(context, control, endpoint, messages, response.body(), subscriber.getPromptTokens(), subscriber.getCompletionTokens(), attempt);
+                    return response.body();
+                });
+        }));
+    }
+
+    /**
+     * 经路由器把请求发往上游。开启对冲时，主尝试超过首字节延迟的分位数还没收到响应头，
+     * 就再向另一个端点发一个尝试，先收到响应头的一方胜出。
+     *
+     * @param parts 流式片段的出口，非流式调用为 null
+     */
+    private CompletableFuture<String> dispatch(RequestControl control, OpenAIAPIConfig config, Consumer<String> parts,
+                                               Transport transport) {
+        // 已经有片段发给玩家后就不能再换端点重来
+        AtomicBoolean started = new AtomicBoolean();
+        HedgedRequest hedge = new HedgedRequest(control);
+        Endpoint[] primary = new Endpoint[1];
+        CompletableFuture<String> result = hedge.start((index, attemptControl) -> {
+            Attempt attempt = new Attempt(hedge, index, attemptControl, parts == null ? null : part -> {
+                // 输掉的尝试在被取消前可能还会解析出片段，不能发给玩家
+                if (hedge.isWinner(index)) {
+                    started.set(true);
+                    parts.accept(part);
+                }
+            });
+            Set<Endpoint> avoid = index > 0 && primary[0] != null ? Set.of(primary[0]) : Set.of();
+            return router.execute(endpoint -> {
+                if (index == 0) {
+                    primary[0] = endpoint;
+                }
+                return transport.send(endpoint, attempt);
+            }, () -> !started.get() && attemptControl.isActive(), avoid);
+        }, hedgeDelay(config), executorService);
+        return result.whenComplete((value, error) -> {
+            if (hedge.isHedged()) {
+                hedgedRequests.increment();
+                if (hedge.isHedgeWon()) {
+                    hedgeWins.increment();
+                }
+            }
+        });
+    }
+
+    // 首字节延迟的分位数，不低于 hedge_min_delay_ms；未开启对冲或样本不足时返回 -1
+    private long hedgeDelay(OpenAIAPIConfig config) {
+        if (!config.isHedgeEnabled()) {
+            return -1;
+        }
+        long percentile = firstByteLatency.percentile(config.getHedgePercentile(), HEDGE_MIN_SAMPLES);
+        return percentile < 0 ? -1 : Math.max(config.getHedgeMinDelayMs(), percentile);
+    }
+
+    /**
+     * 发送前在本地计算提示的token数。超过 max_prompt_tokens 时先从最早的历史开始丢弃，仍然超出再截断问题；
+     * 不允许截断或截断后留给问题的预算太少时拒绝请求。最后检查玩家的token额度够不够提示加上回复的上限。
+     */
+    private List<ChatMessage> preflight(RequestContext context, OpenAIAPIConfig config, List<ChatMessage> messages) {
+        int budget = config.getMaxPromptTokens();
+        int original = TokenCounter.estimate(messages);
+        int tokens = original;
+        if (budget > 0 && tokens > budget) {
+            if (!config.shouldTruncateLongPrompts()) {
+                throw new RequestRejectedException("问题太长了：约 " + tokens + " 个token，超过上限 " + budget);
+            }
+            List<ChatMessage> fitted = new ArrayList<>(messages);
+            // 开头的系统提示保留，问题是最后一条
+            int first = fitted.get(0).getRole().equals(ChatMessage.SYSTEM) ? 1 : 0;
+            while (tokens > budget && first < fitted.size() - 1) {
+                tokens -= TokenCounter.estimate(fitted.remove(first).getContent());
+            }
+            if (tokens > budget) {
+                ChatMessage question = fitted.get(fitted.size() - 1);
+                int available = budget - (tokens - TokenCounter.estimate(question.getContent())) - TokenCounter.estimate(ELLIPSIS);
+                if (available < MIN_QUESTION_TOKENS) {
+                    throw new RequestRejectedException("系统提示过长，没有留给问题的token预算（上限 " + budget + "）");
+                }
+                String truncated = TokenCounter.truncate(question.getContent(), available) + ELLIPSIS;
+                fitted.set(fitted.size() - 1, new ChatMessage(question.getRole(), truncated));
+                tokens = TokenCounter.estimate(fitted);
+            }
+            LOGGER.info("Prompt from {} trimmed from {} to {} tokens", context.getPlayerName(), original, tokens);
+            messages = fitted;
+        }
+        // 回复用多少token事先不知道，按 max_tokens 的上限预留，避免额度快用完时一次调用远远超出
+        quota.check(context, (long) tokens + Math.max(0, config.getMaxTokens()));
+        return messages;
+    }
+
+    // 系统提示 + 对话历史（如有） + 游戏资料和玩家周围的情况（如有） + 本次问题
+    private List<ChatMessage> buildMessages(OpenAIAPIConfig config, RequestContext context, ConversationSession session,
+                                            String message) {
+        List<ChatMessage> messages;
+        if (session != null) {
+            messages = conversations.buildMessages(session, config.getSystemPrompt(), message);
+        } else {
+            messages = new ArrayList<>(3);
+            if (config.getSystemPrompt() != null && !config.getSystemPrompt().isEmpty()) {
+                messages.add(new ChatMessage(ChatMessage.SYSTEM, config.getSystemPrompt()));
+            }
+            messages.add(new ChatMessage(ChatMessage.USER, message));
+        }
+        // 相关的游戏资料紧挨在问题前面：提示超长时先丢弃更早的历史，其次才是资料
+        String background = config.isKnowledgeEnabled() ? knowledge.context(message, config.getKnowledgeContextHits()) : null;
+        if (background != null) {
+            messages.add(messages.size() - 1, new ChatMessage(ChatMessage.SYSTEM, background));
+        }
+        if (context.getWorldContext() != null) {
+            messages.add(messages.size() - 1, new ChatMessage(ChatMessage.SYSTEM, context.getWorldContext()));
+        }
+        return messages;
+    }
+
+    // 能从本地游戏资料直接回答的查询不调用API，不排队，也不消耗额度
+    private String answerLocally(OpenAIAPIConfig config, String message) {
+        if (!config.isKnowledgeEnabled() || !config.shouldAnswerFromKnowledge()) {
+            return null;
+        }
+        return knowledge.answer(message);
+    }
+
+    private CompletableFuture<String> summarize(List<ChatMessage> messages) {
+        OpenAIAPIConfig config = configManager.get();
+        RequestControl control = new RequestControl(timeoutOf(config));
+        return bind(control, sendCompletion(SUMMARY_CONTEXT, control, config, messages));
+    }
+
+    // 只在第一段前面加上模型名前缀
+    private static Consumer<String> prefixFirst(String prefix, Consumer<String> consumer) {
+        if (prefix.isEmpty()) {
+            return consumer;
+        }
+        boolean[] first = {true};
+        return part -> {
+            if (first[0]) {
+                first[0] = false;
+                consumer.accept(prefix + part);
+            } else {
+                consumer.accept(part);
+            }
+        };
+    }
+
+    private static String flightKey(OpenAIAPIConfig config, String message, boolean stream) {
+        long fingerprint = config == null ? 0 : ResponseCache.fingerprintOf(config);
+        return (stream ? "s:" : "n:") + Long.toHexString(fingerprint) + ":" + ResponseCache.normalize(message);
+    }
+
+    // 经调度器放行后再发请求，请求结束（无论成败）时归还名额；排队时被取消直接出队
+    private CompletableFuture<String> withPermit(RequestContext context, RequestControl control,
+                                                 Supplier<CompletableFuture<String>> call) {
+        long queued = System.nanoTime();
+        return control.track(scheduler.acquire(context)).thenCompose(ignored -> {
+            metrics.record(AIMetrics.Stage.QUEUE_WAIT, System.nanoTime() - queued);
+            CompletableFuture<String> inFlight;
             try {
-                String result = callAPISync(message);
-                future.complete(result);
-            } catch (Exception e) {
-                future.completeExceptionally(e);
+                inFlight = call.get();
+            } catch (RuntimeException e) {
+                scheduler.release();
+                return CompletableFuture.failedFuture(e);
             }
+            return inFlight.whenComplete((result, error) -> scheduler.release());
         });
+    }
+
+    /**
+     * 截止时间覆盖整个调用：超时、调用方取消时取消 control 登记的排队许可和 HTTP 请求。
+     * 返回同一个 future，调用方对它 cancel(true) 就能中断传输层。
+     */
+    private static <T> CompletableFuture<T> bind(RequestControl control, CompletableFuture<T> future) {
+        future.orTimeout(Math.max(1, control.remaining().toMillis()), TimeUnit.MILLISECONDS)
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    control.cancel();
+                }
+            });
         return future;
     }
 
-    String callAPISync(String message) throws IOException, InterruptedException {
-        if (config == null || config.getApiUrl() == null || config.getApiKey() == null) {
-            throw new IllegalStateException("OpenAI API configuration is not properly loaded");
+    private CompletableFuture<String> register(RequestContext context, CompletableFuture<String> future) {
+        if (future.isDone()) {
+            return future;
         }
-
-        if (config.shouldRemoveThinkTags()) {
-            message = message.replaceAll("<think>.*?</think>", "");
+        outstanding.add(future);
+        future.whenComplete((result, error) -> outstanding.remove(future));
+        UUID playerId = context.getPlayerId();
+        if (playerId == null) {
+            return future;
         }
-        
-        message = convertMarkdownToMinecraftFormat(message);
+        activeRequests.computeIfAbsent(playerId, key -> ConcurrentHashMap.newKeySet()).add(future);
+        future.whenComplete((result, error) -> activeRequests.computeIfPresent(playerId, (key, requests) -> {
+            requests.remove(future);
+            return requests.isEmpty() ? null : requests;
+        }));
+        return future;
+    }
 
-        HttpURLConnection connection = (HttpURLConnection) new URL(config.getApiUrl()).openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + config.getApiKey());
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(10000);
-        connection.setReadTimeout(30000);
-        connection.setRequestProperty("Accept", "application/json");
-        connection.setRequestProperty("User-Agent", "Minecraft-AI-Mod/1.0");
+    private static Duration timeoutOf(OpenAIAPIConfig config) {
+        return Duration.ofSeconds(Math.max(1, config.getRequestTimeoutSeconds()));
+    }
 
-        String requestBody = String.format(
-            "{\"model\":\"%s\",\"messages\":[{\"role\":\"user\",\"content\":\"%s\"}],\"max_tokens\":%d,\"temperature\":%f}",
-            config.getModel(), message, config.getMaxTokens(), config.getTemperature());
+    // HTTP 超时取调用剩余的时间，排队和故障转移用掉的时间都算在内
+    private HttpRequest buildRequest(Endpoint endpoint, RequestControl control, OpenAIAPIConfig config,
+                                     List<ChatMessage> messages, boolean stream) {
+        Duration remaining = control.remaining();
+        BodyPublisher body = ChatCompletionCodec.bodyPublisher(endpoint.getModel(), config, messages, stream);
+        return HttpRequest.newBuilder(URI.create(endpoint.getApiUrl()))
+            .timeout(remaining.isZero() ? Duration.ofMillis(1) : remaining)
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + endpoint.getApiKey())
+            .header("Accept", stream ? "text/event-stream" : "application/json")
+            .header("User-Agent", "Minecraft-AI-Mod/1.0")
+            .POST(new TimedBodyPublisher(body, System.nanoTime()))
+            .build();
+    }
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
+    // 回复的 token 用量以上游报告的为准，没有报告（多见于流式）时在本地计算；同时从玩家的额度中扣减，并记到调用上供审计日志使用
+    private void recordUsage(RequestContext context, RequestControl control, Endpoint endpoint, List<ChatMessage> messages,
+                             String content, int promptTokens, int completionTokens, Attempt attempt) {
+        if (promptTokens < 0) {
+            promptTokens = TokenCounter.estimate(messages);
         }
+        if (completionTokens < 0) {
+            completionTokens = TokenCounter.estimate(content);
+        }
+        metrics.onUsage(promptTokens, completionTokens, System.nanoTime() - attempt.firstByteAt);
+        quota.charge(context.getPlayerId(), (long) promptTokens + completionTokens);
+        control.addUsage(endpoint.getName(), endpoint.getModel(), promptTokens, completionTokens);
+    }
 
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
+    // 调用结束时记录结果和总耗时
+    private CompletableFuture<String> observe(long start, CompletableFuture<String> future) {
+        future.whenComplete((result, error) -> {
+            metrics.onComplete(error);
+            if (error == null) {
+                metrics.record(AIMetrics.Stage.TOTAL, System.nanoTime() - start);
             }
+        });
+        return future;
+    }
 
-            JsonObject jsonResponse = new Gson().fromJson(response.toString(), JsonObject.class);
-            String result = jsonResponse.getAsJsonArray("choices")
-                .get(0).getAsJsonObject()
-                .getAsJsonObject("message")
-                .get("content").getAsString();
-                
-            if (config.shouldShowModelName()) {
-                result = "[" + config.getModel() + "] " + result;
+    // 调用结束时把提问、回复、模型、耗时和用量交给审计日志；只是放进缓冲区，不在这里写文件
+    private CompletableFuture<String> audit(RequestContext context, String message, String origin, RequestControl control,
+                                            long start, CompletableFuture<String> content, CompletableFuture<String> call) {
+        if (!auditLog.isEnabled()) {
+            return call;
+        }
+        call.whenComplete((result, error) -> {
+            AuditLog.Entry entry = new AuditLog.Entry(System.currentTimeMillis(), context.getPlayerId(), context.getPlayerName(),
+                origin, AIMetrics.outcomeOf(error).name().toLowerCase(Locale.ROOT), message);
+            entry.latencyMs = (System.nanoTime() - start) / 1_000_000;
+            if (control != null) {
+                control.describeUsage(entry);
+            }
+            if (error == null) {
+                entry.response = content.getNow(null);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                entry.error = cause.getClass().getSimpleName() + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
             }
-            
-            return result;
+            auditLog.append(entry);
+        });
+        return call;
+    }
+
+    private void registerGauges() {
+        metrics.gauge("ai_in_flight_requests", "Requests holding a scheduler permit", false, () -> scheduler.snapshot().inFlight);
+        metrics.gauge("ai_queued_requests", "Requests waiting for a scheduler permit", false, () -> scheduler.snapshot().queued);
+        metrics.gauge("ai_active_players", "Players with unfinished /ai calls", false, activeRequests::size);
+        metrics.gauge("ai_coalesced_upstream_calls", "Upstream calls currently shared by identical requests", false, singleFlight::getInFlight);
+        metrics.gauge("ai_coalesced_requests_total", "Requests that joined an identical in-flight call", true, singleFlight::getCoalesced);
+        metrics.gauge("ai_cache_hits_total", "Response cache hits", true, responseCache::getHits);
+        metrics.gauge("ai_cache_misses_total", "Response cache misses", true, responseCache::getMisses);
+        metrics.gauge("ai_cache_entries", "Entries in the response cache", false, responseCache::size);
+        metrics.gauge("ai_conversation_sessions", "Players with conversation history", false, conversations::getSessionCount);
+        metrics.gauge("ai_hedged_requests_total", "Calls that sent a hedged attempt", true, hedgedRequests::sum);
+        metrics.gauge("ai_hedge_wins_total", "Calls won by the hedged attempt", true, hedgeWins::sum);
+        metrics.gauge("ai_knowledge_documents", "Documents in the local knowledge index", false, knowledge::size);
+        metrics.gauge("ai_knowledge_answers_total", "Questions answered from the knowledge index without an API call", true, knowledge::getAnswered);
+        metrics.gauge("ai_audit_records_total", "Calls written to the audit log", true, auditLog::getWritten);
+        metrics.gauge("ai_audit_dropped_total", "Audit records dropped because the buffer was full", true, auditLog::getDropped);
+    }
+
+    // 开启显示模型名时加在回复前面的前缀，用实际回答的端点的模型；没有上游回答（命中缓存）时用配置的模型
+    private static String modelPrefix(OpenAIAPIConfig config, String model) {
+        if (config == null || !config.shouldShowModelName()) {
+            return "";
         }
+        return "[" + (model != null ? model : config.getModel()) + "] ";
     }
 
-    private String convertMarkdownToMinecraftFormat(String text) {
-        // 转换Markdown到Minecraft格式代码
-        text = text.replaceAll("\\*\\*(.*?)\\*\\*", "§l$1§r"); // 粗体
-        text = text.replaceAll("\\*(.*?)\\*", "§o$1§r"); // 斜体
-        text = text.replaceAll("`(.*?)`", "§7$1§r"); // 代码
-        text = text.replaceAll("# (.*?)\\n", "§6$1§r\\n"); // 标题1
-        text = text.replaceAll("## (.*?)\\n", "§e$1§r\\n"); // 标题2
-        text = text.replaceAll("### (.*?)\\n", "§a$1§r\\n"); // 标题3
-        text = text.replaceAll("\\[([^\\]]+)\\]\\([^)]+\\)", "§9$1§r"); // 链接
-        return text;
+    private static ApiHttpException httpError(int statusCode, String body) {
+        String detail = body == null ? "" : body.length() > 200 ? body.substring(0, 200) + "..." : body;
+        return new ApiHttpException(statusCode, "Server returned HTTP response code: " + statusCode + " " + detail);
     }
 
     public void shutdown() {
@@ -115,57 +628,198 @@ public class OpenAIAPIService {
         } catch (InterruptedException e) {
             executorService.shutdownNow();
         }
+        router.shutdown();
+        metrics.shutdown();
+        responseCache.close();
+        quota.close();
+        auditLog.close();
+        configManager.close();
     }
 
+    // 回复在 HTTP 工作线程上完成，allOf 返回时其他回调可能还在执行：给每个工作线程各派一个互相等待的任务，
+    // 两个任务都开始执行说明工作线程手上之前的回调都已跑完
+    private void awaitWorkersIdle() {
+        CountDownLatch idle = new CountDownLatch(WORKER_THREADS);
+        try {
+            for (int i = 0; i < WORKER_THREADS; i++) {
+                executorService.execute(() -> {
+                    idle.countDown();
+                    try {
+                        idle.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            idle.await(1, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // 服务已经关闭
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 第一次用到服务时加载配置（连带加载回复缓存和额度文件），然后开始监视配置文件
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        synchronized (this) {
+            if (initialized) {
+                return;
+            }
+            try {
+                configManager.load();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to initialize OpenAI API service", e);
+            }
+            configManager.startWatching();
+            initialized = true;
+        }
+    }
+
+    /**
+     * 重新读取配置文件。配置文件被修改时也会自动重载，这里用于 /ai reload。
+     */
     public void reloadConfig() throws IOException {
-        config = loadConfig();
+        configManager.load();
         LOGGER.info("OpenAI API configuration reloaded");
     }
 
-    private OpenAIAPIConfig loadConfig() throws IOException {
-        Path externalConfigPath = Paths.get("config/ai-for-minecraft.json");
+    // 每次发布新的配置快照时调用
+    private void applyConfig(OpenAIAPIConfig config) {
+        router.configure(config);
+        scheduler.configure(config, router.getTotalCapacity());
+        responseCache.configure(config);
+        conversations.configure(config);
+        metrics.configure(config);
+        quota.configure(config);
+        auditLog.configure(config);
+    }
 
-        if (!Files.exists(externalConfigPath)) {
-            try {
-                Files.createDirectories(externalConfigPath.getParent());
-                Map<String, Object> defaultConfig = new HashMap<>();
-                defaultConfig.put("api_url", "https://api.openai.com/v1/chat/completions");
-                defaultConfig.put("api_key", "");
-                defaultConfig.put("model", "gpt-3.5-turbo");
-                defaultConfig.put("max_tokens", 1000);
-                defaultConfig.put("temperature", 0.7);
-                defaultConfig.put("system_prompt", "注意！所有mc皆指的是minecraft游戏。你需要作为一个讲解员用最简单最朴素的方式为玩家提供关于minecraft游戏的帮助。你的所有回答需要使用中文。");
-                defaultConfig.put("show_model_name", true);
-                defaultConfig.put("process_think_tags", true);
+    public AIMetrics getMetrics() {
+        return metrics;
+    }
 
-                Files.write(externalConfigPath, new GsonBuilder().setPrettyPrinting().create().toJsonTree(defaultConfig).toString().getBytes());
-                LOGGER.info("已创建默认配置文件: {}", externalConfigPath);
-            } catch (Exception e) {
-                LOGGER.error("Failed to create default config file", e);
-            }
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public LatencyHistogram getFirstByteLatency() {
+        return firstByteLatency;
+    }
+
+    public TokenQuota getQuota() {
+        return quota;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    public KnowledgeIndex getKnowledge() {
+        return knowledge;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public ConversationManager getConversations() {
+        return conversations;
+    }
+
+    public SingleFlight<?> getSingleFlight() {
+        return singleFlight;
+    }
+
+    public EndpointRouter getRouter() {
+        return router;
+    }
+
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public OpenAIAPIConfig getConfig() {
+        initialize();
+        return configManager.get();
+    }
+
+    public ConfigManager getConfigManager() {
+        initialize();
+        return configManager;
+    }
+
+    // 合并的上游调用的结果：回复和那次调用的控制，后者记着实际回答的端点和模型
+    private static final class SharedReply {
+        private final String content;
+        private final RequestControl flight;
+
+        SharedReply(String content, RequestControl flight) {
+            this.content = content;
+            this.flight = flight;
         }
 
-        try {
-            String configContent = new String(Files.readAllBytes(externalConfigPath));
-            Map<String, Object> configMap = new Gson().fromJson(configContent, Map.class);
+        // 把回答的端点和模型记到等待者自己的调用上，返回回复
+        String reply(RequestControl control) {
+            control.servedBy(flight);
+            return content;
+        }
+    }
 
-            configMap.putIfAbsent("api_url", "https://api.openai.com/v1/chat/completions");
-            configMap.putIfAbsent("api_key", "");
-            configMap.putIfAbsent("model", "gpt-3.5-turbo");
-            configMap.putIfAbsent("max_tokens", 1000);
-            configMap.putIfAbsent("temperature", 0.7);
-            configMap.putIfAbsent("system_prompt", "You are a helpful AI assistant in Minecraft.");
-            configMap.putIfAbsent("show_model_name", true);
-            configMap.putIfAbsent("process_think_tags", true);
+    private interface Transport {
+        CompletableFuture<String> send(Endpoint endpoint, Attempt attempt);
+    }
 
-            return new GsonBuilder().setPrettyPrinting().create().fromJson(new Gson().toJson(configMap), OpenAIAPIConfig.class);
-        } catch (Exception e) {
-            LOGGER.error("Failed to load config file", e);
-            throw e;
+    // 对冲中的一个尝试：自己的取消控制和片段出口，收到成功的响应头时记录首字节延迟并参与胜负判定
+    private final class Attempt {
+        final RequestControl control;
+        final Consumer<String> parts;
+        private final HedgedRequest hedge;
+        private final int index;
+
+        Attempt(HedgedRequest hedge, int index, RequestControl control, Consumer<String> parts) {
+            this.hedge = hedge;
+            this.index = index;
+            this.control = control;
+            this.parts = parts;
+        }
+
+        // 最近一次收到成功响应头的时间，用于计算生成速度
+        volatile long firstByteAt;
+
+        void onFirstByte(long sentNanos) {
+            firstByteAt = System.nanoTime();
+            firstByteLatency.record(firstByteAt - sentNanos);
+            metrics.record(AIMetrics.Stage.FIRST_BYTE, firstByteAt - sentNanos);
+            hedge.onFirstByte(index);
         }
     }
 
-    public OpenAIAPIConfig getConfig() {
-        return config;
+    // 请求体开始发送时说明连接已经就绪（包括 TLS 握手和从连接池取连接），以此记录建立连接的耗时
+    private final class TimedBodyPublisher implements BodyPublisher {
+        private final BodyPublisher delegate;
+        private final long createdAt;
+
+        TimedBodyPublisher(BodyPublisher delegate, long createdAt) {
+            this.delegate = delegate;
+            this.createdAt = createdAt;
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            metrics.record(AIMetrics.Stage.CONNECT, System.nanoTime() - createdAt);
+            delegate.subscribe(subscriber);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.example;
+
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
+
+/**
+ * 向装了本模组的客户端逐段发送AI回复的网络通道，帧格式见 {@link ReplyDeltaCodec}。
+ * 客户端注册了这个通道时，登录时会告知服务端；原版客户端没有注册，仍然收到普通聊天消息。
+ */
+public final class ReplyChannel {
+    public static final Identifier ID = new Identifier(AiForMinecraft.MOD_ID, "reply");
+
+    private ReplyChannel() {
+    }
+
+    public static boolean canSend(ServerPlayerEntity player) {
+        return ServerPlayNetworking.canSend(player, ID);
+    }
+
+    static void send(ServerPlayerEntity player, byte[] frame) {
+        PacketByteBuf buf = PacketByteBufs.create();
+        buf.writeBytes(frame);
+        ServerPlayNetworking.send(player, ID, buf);
+    }
+}
@@ -0,0 +1,193 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 自定义回复通道的帧格式，服务端编码、客户端解码共用。
+ * <p>
+ * 一帧是 [回复编号 varint][类型 1字节] 加上各类型的内容：
+ * START 带一个标志字节（是否过滤 &lt;think&gt; 标签）；DELTA 带一个标志字节、原文的 UTF-8 字节数（varint）
+ * 和原文或其 deflate 压缩结果；END 没有内容。原文不少于压缩阈值且压缩后确实变小时才压缩。
+ * <p>
+ * 每个实例复用自己的压缩器和缓冲区，不是线程安全的：服务端只在主线程上编码，客户端只在渲染线程上解码。
+ * 这个类不依赖 Minecraft，可以单独做基准测试。
+ */
+public final class ReplyDeltaCodec {
+    public static final byte START = 0;
+    public static final byte DELTA = 1;
+    public static final byte END = 2;
+
+    public static final int STRIP_THINK = 1;
+    private static final int COMPRESSED = 1;
+    // 单帧解码后的上限，防止压缩炸弹
+    public static final int MAX_TEXT_BYTES = 1 << 20;
+
+    private final int compressionThreshold;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    private byte[] buffer = new byte[1024];
+
+    /**
+     * @param compressionThreshold 原文达到多少字节才尝试压缩，0 或负数为不压缩
+     */
+    public ReplyDeltaCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public byte[] start(int replyId, int flags) {
+        out.reset();
+        writeVarInt(replyId);
+        out.write(START);
+        out.write(flags);
+        return out.toByteArray();
+    }
+
+    public byte[] delta(int replyId, String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        out.reset();
+        writeVarInt(replyId);
+        out.write(DELTA);
+        int compressed = compressionThreshold > 0 && raw.length >= compressionThreshold ? deflate(raw) : -1;
+        if (compressed >= 0 && compressed < raw.length) {
+            out.write(COMPRESSED);
+            writeVarInt(raw.length);
+            out.write(buffer, 0, compressed);
+        } else {
+            out.write(0);
+            writeVarInt(raw.length);
+            out.write(raw, 0, raw.length);
+        }
+        return out.toByteArray();
+    }
+
+    public byte[] end(int replyId) {
+        out.reset();
+        writeVarInt(replyId);
+        out.write(END);
+        return out.toByteArray();
+    }
+
+    /**
+     * 解码一帧；格式不对时抛出 {@link IllegalArgumentException}。
+     */
+    public Frame decode(byte[] frame) {
+        int[] position = {0};
+        int replyId = readVarInt(frame, position);
+        byte type = readByte(frame, position);
+        switch (type) {
+            case START:
+                return new Frame(replyId, type, readByte(frame, position), null);
+            case END:
+                return new Frame(replyId, type, 0, null);
+            case DELTA:
+                int flags = readByte(frame, position);
+                int length = readVarInt(frame, position);
+                if (length < 0 || length > MAX_TEXT_BYTES) {
+                    throw new IllegalArgumentException("Delta too large: " + length);
+                }
+                String text;
+                if ((flags & COMPRESSED) != 0) {
+                    text = new String(inflate(frame, position[0], length), 0, length, StandardCharsets.UTF_8);
+                } else {
+                    if (frame.length - position[0] != length) {
+                        throw new IllegalArgumentException("Delta length mismatch");
+                    }
+                    text = new String(frame, position[0], length, StandardCharsets.UTF_8);
+                }
+                return new Frame(replyId, type, flags, text);
+            default:
+                throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+    }
+
+    // 压缩到 buffer，返回压缩后的字节数；比原文还大时提前返回 -1
+    private int deflate(byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        if (buffer.length < raw.length) {
+            buffer = new byte[raw.length];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == raw.length) {
+                return -1;
+            }
+            length += deflater.deflate(buffer, length, raw.length - length);
+        }
+        return length;
+    }
+
+    private byte[] inflate(byte[] frame, int offset, int length) {
+        inflater.reset();
+        inflater.setInput(frame, offset, frame.length - offset);
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(buffer, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed delta length mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed delta", e);
+        }
+        return buffer;
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] frame, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte(frame, position);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt too long");
+    }
+
+    private static byte readByte(byte[] frame, int[] position) {
+        if (position[0] >= frame.length) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        return frame[position[0]++];
+    }
+
+    /**
+     * 解码后的一帧。flags 对 START 和 DELTA 有意义，text 只有 DELTA 有。
+     */
+    public static final class Frame {
+        public final int replyId;
+        public final byte type;
+        public final int flags;
+        public final String text;
+
+        Frame(int replyId, byte type, int flags, String text) {
+            this.replyId = replyId;
+            this.type = type;
+            this.flags = flags;
+            this.text = text;
+        }
+    }
+}
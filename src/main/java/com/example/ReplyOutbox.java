@@ -0,0 +1,265 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+/**
+ * AI回复的发件箱。
+ * <p>
+ * 工作线程只负责把消息放进无锁队列，真正的发送在服务器主线程的 tick 结束时进行：
+ * 每个 tick 受消息条数和字符数预算限制，同一玩家的多段消息合并成尽量少的聊天包，
+ * 已下线的玩家直接跳过。这样既保证线程安全，也避免大量回复同时到达时拉高 tick 耗时。
+ * <p>
+ * 装了本模组的客户端可以改用 {@link #openStream} 接收：回复以文本增量的形式经 {@link ReplyChannel} 发送，
+ * 同一回复在一个 tick 内的多段增量合并成一个包，较长的增量按配置压缩。
+ */
+public class ReplyOutbox {
+    // 单个合并后的聊天包最多包含的字符数
+    private static final int MAX_PACKET_CHARS = 1024;
+
+    private final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger nextReplyId = new AtomicInteger();
+    private final OpenAIAPIService openAIService;
+    // 只在主线程上编码
+    private ReplyDeltaCodec codec;
+    private int compressionThreshold;
+
+    public ReplyOutbox(OpenAIAPIService openAIService) {
+        this.openAIService = openAIService;
+        openAIService.getMetrics().gauge("ai_outbox_pending", "Reply parts waiting in the outbox", false, pending::get);
+    }
+
+    public void send(ServerCommandSource source, Text text) {
+        enqueue(source, text, false);
+    }
+
+    public void sendError(ServerCommandSource source, String message) {
+        enqueue(source, Text.literal(message).formatted(Formatting.RED), true);
+    }
+
+    /**
+     * 为装了本模组的玩家开始一条经自定义通道发送的回复，客户端把之后的增量显示在同一处。
+     */
+    public ReplyStream openStream(ServerPlayerEntity player, boolean stripThink) {
+        ReplyStream stream = new ReplyStream(player.getUuid(), nextReplyId.incrementAndGet());
+        enqueue(new Delivery(stream.playerId, ReplyDeltaCodec.START, stream.replyId, null, stripThink ? ReplyDeltaCodec.STRIP_THINK : 0));
+        return stream;
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    private void enqueue(ServerCommandSource source, Text text, boolean error) {
+        ServerPlayerEntity player = source.getPlayer();
+        enqueue(new Delivery(player != null ? player.getUuid() : null, player != null ? null : source, text, error));
+    }
+
+    private void enqueue(Delivery delivery) {
+        queue.add(delivery);
+        pending.incrementAndGet();
+    }
+
+    /**
+     * 在 END_SERVER_TICK 中调用，按预算取出消息并按接收者合并后发送。
+     */
+    public void drain(MinecraftServer server) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        OpenAIAPIConfig config = openAIService.getConfig();
+        int messageBudget = config != null ? Math.max(1, config.getOutboxMessagesPerTick()) : 8;
+        int charBudget = config != null ? Math.max(1, config.getOutboxCharsPerTick()) : 4096;
+        int threshold = config != null ? config.getClientCompressionThreshold() : 256;
+        if (codec == null || threshold != compressionThreshold) {
+            codec = new ReplyDeltaCodec(threshold);
+            compressionThreshold = threshold;
+        }
+
+        // 按接收者分组，保持各自的先后顺序
+        Map<Object, List<Delivery>> byTarget = new LinkedHashMap<>();
+        int chars = 0;
+        int taken = 0;
+        Delivery next;
+        while (taken < messageBudget && (next = queue.peek()) != null) {
+            if (taken > 0 && chars + next.length > charBudget) {
+                break;
+            }
+            queue.poll();
+            pending.decrementAndGet();
+            taken++;
+            chars += next.length;
+            byTarget.computeIfAbsent(next.target(), key -> new ArrayList<>()).add(next);
+        }
+
+        AIMetrics metrics = openAIService.getMetrics();
+        long now = System.nanoTime();
+        for (List<Delivery> deliveries : byTarget.values()) {
+            Delivery first = deliveries.get(0);
+            if (first.playerId != null) {
+                ServerPlayerEntity player = server.getPlayerManager().getPlayer(first.playerId);
+                if (player == null || player.isDisconnected()) {
+                    continue;
+                }
+                for (Delivery delivery : deliveries) {
+                    metrics.record(AIMetrics.Stage.DELIVERY, now - delivery.enqueuedAt);
+                }
+                deliver(player, deliveries);
+            } else {
+                for (Delivery delivery : deliveries) {
+                    if (delivery.error) {
+                        delivery.source.sendError(delivery.text);
+                    } else {
+                        delivery.source.sendFeedback(() -> delivery.text, false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 在关服前调用，不受预算限制地把剩余消息全部发出。
+     */
+    public void flush(MinecraftServer server) {
+        while (!queue.isEmpty()) {
+            drain(server);
+        }
+    }
+
+    // 按原来的顺序发送：连续的聊天消息合并成尽量少的聊天包，同一回复连续的增量合并成一帧
+    private void deliver(ServerPlayerEntity player, List<Delivery> deliveries) {
+        int i = 0;
+        while (i < deliveries.size()) {
+            Delivery first = deliveries.get(i);
+            int end = i + 1;
+            if (first.frameType < 0) {
+                while (end < deliveries.size() && deliveries.get(end).frameType < 0) {
+                    end++;
+                }
+                for (Text packet : coalesce(deliveries.subList(i, end))) {
+                    player.sendMessage(packet, false);
+                }
+            } else if (first.frameType == ReplyDeltaCodec.DELTA) {
+                StringBuilder text = new StringBuilder(first.delta);
+                while (end < deliveries.size() && deliveries.get(end).frameType == ReplyDeltaCodec.DELTA
+                        && deliveries.get(end).replyId == first.replyId) {
+                    text.append(deliveries.get(end).delta);
+                    end++;
+                }
+                ReplyChannel.send(player, codec.delta(first.replyId, text.toString()));
+            } else if (first.frameType == ReplyDeltaCodec.START) {
+                ReplyChannel.send(player, codec.start(first.replyId, first.flags));
+            } else {
+                ReplyChannel.send(player, codec.end(first.replyId));
+            }
+            i = end;
+        }
+    }
+
+    // 把同一玩家的多段消息用换行拼成尽量少的聊天包
+    private static List<Text> coalesce(List<Delivery> deliveries) {
+        List<Text> packets = new ArrayList<>(1);
+        MutableText current = null;
+        int length = 0;
+        for (Delivery delivery : deliveries) {
+            if (current != null && length + 1 + delivery.length > MAX_PACKET_CHARS) {
+                packets.add(current);
+                current = null;
+            }
+            if (current == null) {
+                current = Text.empty();
+                length = 0;
+            } else {
+                current.append("\n");
+                length++;
+            }
+            current.append(delivery.text);
+            length += delivery.length;
+        }
+        if (current != null) {
+            packets.add(current);
+        }
+        return packets;
+    }
+
+    /**
+     * 经自定义通道发送的一条回复。append 可以在任意线程调用，close 之后的增量被丢弃。
+     */
+    public final class ReplyStream {
+        private final UUID playerId;
+        private final int replyId;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private ReplyStream(UUID playerId, int replyId) {
+            this.playerId = playerId;
+            this.replyId = replyId;
+        }
+
+        public void append(String text) {
+            if (text != null && !text.isEmpty() && !closed.get()) {
+                enqueue(new Delivery(playerId, ReplyDeltaCodec.DELTA, replyId, text, 0));
+            }
+        }
+
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                enqueue(new Delivery(playerId, ReplyDeltaCodec.END, replyId, null, 0));
+            }
+        }
+    }
+
+    private static final class Delivery {
+        final UUID playerId;
+        final ServerCommandSource source;
+        final Text text;
+        final boolean error;
+        // 自定义通道的帧类型，聊天消息为 -1
+        final byte frameType;
+        final int replyId;
+        final String delta;
+        final int flags;
+        final int length;
+        final long enqueuedAt = System.nanoTime();
+
+        Delivery(UUID playerId, ServerCommandSource source, Text text, boolean error) {
+            this.playerId = playerId;
+            this.source = source;
+            this.text = text;
+            this.error = error;
+            this.frameType = -1;
+            this.replyId = 0;
+            this.delta = null;
+            this.flags = 0;
+            this.length = text.getString().length();
+        }
+
+        Delivery(UUID playerId, byte frameType, int replyId, String delta, int flags) {
+            this.playerId = playerId;
+            this.source = null;
+            this.text = null;
+            this.error = false;
+            this.frameType = frameType;
+            this.replyId = replyId;
+            this.delta = delta;
+            this.flags = flags;
+            this.length = delta != null ? delta.length() : 0;
+        }
+
+        Object target() {
+            return playerId != null ? playerId : source;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example;
+
+import java.util.UUID;
+
+/**
+ * 发起一次AI请求的调用方信息，用于排队调度和限流。
+ * 控制台等非玩家来源使用 {@link #SYSTEM}。
+ * 开启环境上下文时还带有玩家周围情况的文字描述，随问题一起发给模型。
+ */
+public final class RequestContext {
+    public static final RequestContext SYSTEM = new RequestContext(null, "Server", true);
+
+    private final UUID playerId;
+    private final String playerName;
+    private final boolean operator;
+    private final String worldContext;
+
+    public RequestContext(UUID playerId, String playerName, boolean operator) {
+        this(playerId, playerName, operator, null);
+    }
+
+    private RequestContext(UUID playerId, String playerName, boolean operator, String worldContext) {
+        this.playerId = playerId;
+        this.playerName = playerName;
+        this.operator = operator;
+        this.worldContext = worldContext;
+    }
+
+    public RequestContext withWorldContext(String worldContext) {
+        return new RequestContext(playerId, playerName, operator, worldContext);
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public boolean isOperator() {
+        return operator;
+    }
+
+    /**
+     * 玩家周围情况的描述，未开启环境上下文或不是玩家发起时为 null。
+     */
+    public String getWorldContext() {
+        return worldContext;
+    }
+}
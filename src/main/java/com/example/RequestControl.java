@@ -0,0 +1,157 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一次AI调用的截止时间和取消信号，从命令一路传到 HTTP 请求。
+ * <p>
+ * 排队许可、每次发出的 HTTP 请求等可取消的环节都登记在这里；
+ * 调用方取消、玩家下线或超过截止时间时 {@link #cancel()} 一次性取消它们，
+ * HttpClient 收到取消后会中断对应的连接交换，不再继续消耗 token。
+ */
+final class RequestControl {
+    private final long deadline;
+    private final List<Runnable> hooks = new ArrayList<>(4);
+    private boolean cancelled;
+    // 这次调用实际发往上游的用量，写审计日志时读取。
+    // 对冲时只计入胜出的尝试：输掉的尝试在收到回复前就被取消，上游不会报告它的用量
+    private String endpoint;
+    private String model;
+    private long promptTokens;
+    private long completionTokens;
+
+    RequestControl(Duration timeout) {
+        this(System.nanoTime() + timeout.toNanos());
+    }
+
+    private RequestControl(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * 截止时间相同的子控制：随本控制一起取消，单独取消它不影响本控制。用于对冲中的单个尝试。
+     */
+    RequestControl child() {
+        RequestControl child = new RequestControl(deadline);
+        onCancel(child::cancel);
+        return child;
+    }
+
+    /**
+     * 距截止时间还剩多久，已经超时返回 0。
+     */
+    Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    boolean isExpired() {
+        return deadline - System.nanoTime() <= 0;
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 还能不能再发起新的尝试（重试、对冲）。
+     */
+    boolean isActive() {
+        return !isCancelled() && !isExpired();
+    }
+
+    /**
+     * 登记取消时要执行的动作；已经取消时立即执行。
+     */
+    void onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                hooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    /**
+     * 取消时一并取消 future，返回同一个 future 方便链式调用。
+     */
+    <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        if (!future.isDone()) {
+            onCancel(() -> future.cancel(true));
+        }
+        return future;
+    }
+
+    void cancel() {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = new ArrayList<>(hooks);
+            hooks.clear();
+        }
+        for (Runnable hook : pending) {
+            hook.run();
+        }
+    }
+
+    synchronized void addUsage(String endpoint, String model, long promptTokens, long completionTokens) {
+        this.endpoint = endpoint;
+        this.model = model;
+        this.promptTokens += promptTokens;
+        this.completionTokens += completionTokens;
+    }
+
+    /**
+     * 把合并调用的用量记到发起它的调用上。
+     */
+    void addUsage(RequestControl other) {
+        String otherEndpoint;
+        String otherModel;
+        long otherPrompt;
+        long otherCompletion;
+        synchronized (other) {
+            otherEndpoint = other.endpoint;
+            otherModel = other.model;
+            otherPrompt = other.promptTokens;
+            otherCompletion = other.completionTokens;
+        }
+        if (otherEndpoint != null) {
+            addUsage(otherEndpoint, otherModel, otherPrompt, otherCompletion);
+        }
+    }
+
+    /**
+     * 记下合并调用实际由哪个端点和模型回答，不计用量：用量只记在发起它的调用上。
+     */
+    void servedBy(RequestControl other) {
+        String otherEndpoint;
+        String otherModel;
+        synchronized (other) {
+            otherEndpoint = other.endpoint;
+            otherModel = other.model;
+        }
+        if (otherEndpoint != null) {
+            addUsage(otherEndpoint, otherModel, 0, 0);
+        }
+    }
+
+    /**
+     * 实际回答这次调用的端点配置的模型，还没有上游回答（比如命中缓存）时为 null。
+     */
+    synchronized String getModel() {
+        return model;
+    }
+
+    synchronized void describeUsage(AuditLog.Entry entry) {
+        entry.endpoint = endpoint;
+        entry.model = model;
+        entry.promptTokens = promptTokens;
+        entry.completionTokens = completionTokens;
+    }
+}
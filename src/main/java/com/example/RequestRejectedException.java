@@ -0,0 +1,10 @@
+package com.example;
+
+/**
+ * 请求在发出前被拒绝（队列已满、触发限流等）。消息内容会直接展示给玩家。
+ */
+public class RequestRejectedException extends RuntimeException {
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
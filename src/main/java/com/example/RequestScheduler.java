@@ -0,0 +1,288 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AI请求的准入调度器。
+ * <p>
+ * 同时在途的请求数不超过 max_concurrent_requests，其余请求进入有界队列：
+ * 管理员（权限等级4）走优先通道，普通玩家之间按轮转方式公平出队，
+ * 每个玩家还受令牌桶限流。队列已满时立即拒绝，而不是无限堆积。
+ * 状态都由同一把锁保护，完成 future 的操作放在锁外，避免在锁内执行回调。
+ */
+public class RequestScheduler {
+    // 非玩家来源（控制台、命令方块）共用的队列键
+    private static final UUID SYSTEM_KEY = new UUID(0L, 0L);
+
+    private final ArrayDeque<Ticket> priorityLane = new ArrayDeque<>();
+    private final Map<UUID, ArrayDeque<Ticket>> playerQueues = new HashMap<>();
+    // 有排队请求的玩家，按轮转顺序排列
+    private final ArrayDeque<UUID> rotation = new ArrayDeque<>();
+    private final Map<UUID, TokenBucket> buckets = new HashMap<>();
+
+    private int maxConcurrent = 16;
+    private int maxQueueSize = 64;
+    private int maxQueuedPerPlayer = 3;
+    private int rateLimitPerMinute = 6;
+    private int rateLimitBurst = 3;
+
+    private int inFlight;
+    private int queued;
+
+    public void configure(OpenAIAPIConfig config) {
+        configure(config, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param upstreamCapacity 上游端点能同时承受的请求数，并发上限不会超过它
+     */
+    public void configure(OpenAIAPIConfig config, int upstreamCapacity) {
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            maxConcurrent = Math.max(1, Math.min(config.getMaxConcurrentRequests(), upstreamCapacity));
+            maxQueueSize = Math.max(0, config.getMaxQueueSize());
+            maxQueuedPerPlayer = Math.max(1, config.getMaxQueuedPerPlayer());
+            rateLimitPerMinute = config.getRateLimitPerMinute();
+            rateLimitBurst = Math.max(1, config.getRateLimitBurst());
+            // 上限调高后可能可以立即放行更多请求
+            ready = pollReady();
+        }
+        completeAll(ready);
+    }
+
+    /**
+     * 申请一个执行名额。返回的 future 在轮到该请求时完成；
+     * 被限流或队列已满时返回以 {@link RequestRejectedException} 失败的 future。
+     * 执行结束后必须调用 {@link #release()}。
+     */
+    public CompletableFuture<Void> acquire(RequestContext context) {
+        UUID key = keyOf(context);
+        List<CompletableFuture<Void>> ready;
+        Ticket ticket;
+        synchronized (this) {
+            boolean mustQueue = inFlight >= maxConcurrent || queued > 0;
+            ArrayDeque<Ticket> own = playerQueues.get(key);
+            if (mustQueue && queued >= maxQueueSize) {
+                return CompletableFuture.failedFuture(new RequestRejectedException(
+                    "AI服务繁忙，你将排在队列第 " + (queued + 1) + " 位，超出上限 " + maxQueueSize + "，请稍后再试"));
+            }
+            if (mustQueue && !context.isOperator() && own != null && own.size() >= maxQueuedPerPlayer) {
+                return CompletableFuture.failedFuture(new RequestRejectedException(
+                    "你已有 " + own.size() + " 个请求在排队，请等收到回复后再提问"));
+            }
+
+            if (!context.isOperator() && rateLimitPerMinute > 0) {
+                TokenBucket bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(rateLimitBurst, System.nanoTime()));
+                if (!bucket.tryTake(rateLimitBurst, rateLimitPerMinute, System.nanoTime())) {
+                    return CompletableFuture.failedFuture(new RequestRejectedException(
+                        "提问太频繁了，请在 " + bucket.secondsUntilNext(rateLimitPerMinute) + " 秒后再试"));
+                }
+                pruneBuckets();
+            }
+
+            if (!mustQueue) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+
+            ticket = new Ticket(key);
+            if (context.isOperator()) {
+                priorityLane.add(ticket);
+            } else {
+                if (own == null) {
+                    own = new ArrayDeque<>();
+                    playerQueues.put(key, own);
+                }
+                if (own.isEmpty()) {
+                    rotation.add(key);
+                }
+                own.add(ticket);
+            }
+            queued++;
+            // 排队中被取消或超时的请求立即移出队列，不再占用排队名额和位置
+            Ticket queuedTicket = ticket;
+            ticket.start.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    remove(queuedTicket);
+                }
+            });
+            ready = pollReady();
+        }
+        completeAll(ready);
+        return ticket.start;
+    }
+
+    public void release() {
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            inFlight--;
+            ready = pollReady();
+        }
+        completeAll(ready);
+    }
+
+    /**
+     * 估算该玩家最早一个排队请求当前的位置（从1开始），没有排队请求时返回0。
+     * 轮转调度下，排在它前面的是优先通道的全部请求，加上轮转中排在它前面的每个玩家各一个请求。
+     */
+    public synchronized int getQueuePosition(RequestContext context) {
+        UUID key = keyOf(context);
+        if (context.isOperator()) {
+            int index = 0;
+            for (Ticket ticket : priorityLane) {
+                index++;
+                if (ticket.owner.equals(key)) {
+                    return index;
+                }
+            }
+            return 0;
+        }
+        ArrayDeque<Ticket> own = playerQueues.get(key);
+        if (own == null || own.isEmpty()) {
+            return 0;
+        }
+        int position = priorityLane.size() + 1;
+        for (UUID other : rotation) {
+            if (other.equals(key)) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    public synchronized double getAvailableTokens(RequestContext context) {
+        if (context.isOperator() || rateLimitPerMinute <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        TokenBucket bucket = buckets.get(keyOf(context));
+        return bucket == null ? rateLimitBurst : bucket.available(rateLimitBurst, rateLimitPerMinute, System.nanoTime());
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(inFlight, maxConcurrent, queued, maxQueueSize, priorityLane.size(), rotation.size(),
+            maxQueuedPerPlayer, rateLimitPerMinute, rateLimitBurst);
+    }
+
+    // 在锁内挑出所有可以开始执行的请求，由调用方在锁外完成它们
+    private List<CompletableFuture<Void>> pollReady() {
+        List<CompletableFuture<Void>> ready = null;
+        while (inFlight < maxConcurrent && queued > 0) {
+            Ticket next = pollNext();
+            queued--;
+            // 刚被取消、还没来得及移出队列的请求直接丢弃，不占名额
+            if (next.start.isDone()) {
+                continue;
+            }
+            inFlight++;
+            if (ready == null) {
+                ready = new ArrayList<>();
+            }
+            ready.add(next.start);
+        }
+        return ready;
+    }
+
+    private Ticket pollNext() {
+        Ticket ticket = priorityLane.poll();
+        if (ticket != null) {
+            return ticket;
+        }
+        UUID key = rotation.poll();
+        ArrayDeque<Ticket> own = playerQueues.get(key);
+        ticket = own.poll();
+        if (own.isEmpty()) {
+            playerQueues.remove(key);
+        } else {
+            rotation.add(key);
+        }
+        return ticket;
+    }
+
+    private synchronized void remove(Ticket ticket) {
+        if (priorityLane.remove(ticket)) {
+            queued--;
+            return;
+        }
+        ArrayDeque<Ticket> own = playerQueues.get(ticket.owner);
+        if (own == null || !own.remove(ticket)) {
+            // 已经出队
+            return;
+        }
+        queued--;
+        if (own.isEmpty()) {
+            playerQueues.remove(ticket.owner);
+            rotation.remove(ticket.owner);
+        }
+    }
+
+    private void completeAll(List<CompletableFuture<Void>> ready) {
+        if (ready == null) {
+            return;
+        }
+        for (CompletableFuture<Void> start : ready) {
+            if (!start.complete(null)) {
+                release();
+            }
+        }
+    }
+
+    // 已经回满的令牌桶和新建的没有区别，玩家多时顺手清理
+    private void pruneBuckets() {
+        if (buckets.size() < 256) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<TokenBucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isFull(rateLimitBurst, rateLimitPerMinute, now)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static UUID keyOf(RequestContext context) {
+        return context.getPlayerId() != null ? context.getPlayerId() : SYSTEM_KEY;
+    }
+
+    private static final class Ticket {
+        final UUID owner;
+        final CompletableFuture<Void> start = new CompletableFuture<>();
+
+        Ticket(UUID owner) {
+            this.owner = owner;
+        }
+    }
+
+    public static final class Snapshot {
+        public final int inFlight;
+        public final int maxConcurrent;
+        public final int queued;
+        public final int maxQueueSize;
+        public final int priorityQueued;
+        public final int waitingPlayers;
+        public final int maxQueuedPerPlayer;
+        public final int rateLimitPerMinute;
+        public final int rateLimitBurst;
+
+        Snapshot(int inFlight, int maxConcurrent, int queued, int maxQueueSize, int priorityQueued,
+                 int waitingPlayers, int maxQueuedPerPlayer, int rateLimitPerMinute, int rateLimitBurst) {
+            this.inFlight = inFlight;
+            this.maxConcurrent = maxConcurrent;
+            this.queued = queued;
+            this.maxQueueSize = maxQueueSize;
+            this.priorityQueued = priorityQueued;
+            this.waitingPlayers = waitingPlayers;
+            this.maxQueuedPerPlayer = maxQueuedPerPlayer;
+            this.rateLimitPerMinute = rateLimitPerMinute;
+            this.rateLimitBurst = rateLimitBurst;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+
+/**
+ * AI回复缓存。
+ * <p>
+ * 内存中是带TTL的LRU；开启持久化时，每次写入同时追加到 config 目录下的缓存文件，
+ * 启动时把该文件一次性读入内存扫描，恢复未过期的条目。
+ * 缓存键由规范化后的问题和影响回复的配置项（各端点的模型、系统提示、温度、max_tokens、游戏资料设置）组成，
+ * 开启游戏资料时还包括资料索引的内容摘要。这些配置项或游戏资料（/reload 更换数据包后）变化时整个缓存失效。
+ * 开启游戏资料时，启动后要等索引第一次建好、知道了摘要才加载缓存文件，在此之前不使用缓存。
+ */
+public class ResponseCache {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private static final int MAGIC = 0x41494331; // "AIC1"
+
+    private final Path file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Cache-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile boolean enabled;
+    private boolean persist;
+    private int maxEntries;
+    private long ttlMillis;
+    private long fingerprint;
+    private long configFingerprint;
+    private boolean knowledgeEnabled;
+    private long knowledgeHash;
+    // 首次加载在等待游戏资料索引建好
+    private boolean awaitingKnowledge;
+    // 文件中的记录数，用于判断何时需要压缩
+    private int fileRecords;
+
+    public ResponseCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 应用新配置。决定回复内容的配置项有变化时清空缓存；首次配置时从磁盘加载。
+     */
+    public synchronized void configure(OpenAIAPIConfig config) {
+        boolean firstLoad = maxEntries == 0;
+        configFingerprint = fingerprintOf(config);
+        knowledgeEnabled = config.isKnowledgeEnabled();
+        enabled = config.isCacheEnabled();
+        persist = config.isCachePersistent();
+        maxEntries = Math.max(1, config.getCacheMaxEntries());
+        ttlMillis = TimeUnit.MINUTES.toMillis(Math.max(1, config.getCacheTtlMinutes()));
+
+        if (firstLoad) {
+            awaitingKnowledge = knowledgeEnabled;
+            if (!awaitingKnowledge) {
+                activate();
+            }
+        } else if (awaitingKnowledge && !knowledgeEnabled) {
+            activate();
+        } else if (!awaitingKnowledge) {
+            refresh("AI配置已变化");
+        }
+        trim();
+    }
+
+    /**
+     * 游戏资料索引更新后调用。内容摘要变化时清空缓存；启动后第一次调用时才加载缓存文件。
+     */
+    public synchronized void setKnowledgeHash(long hash) {
+        knowledgeHash = hash;
+        if (awaitingKnowledge) {
+            activate();
+        } else {
+            refresh("游戏资料已变化");
+        }
+    }
+
+    private void activate() {
+        awaitingKnowledge = false;
+        fingerprint = currentFingerprint();
+        if (persist) {
+            load();
+        }
+    }
+
+    private void refresh(String reason) {
+        long newFingerprint = currentFingerprint();
+        if (newFingerprint != fingerprint) {
+            fingerprint = newFingerprint;
+            LOGGER.info("{}，清空回复缓存（{} 条）", reason, entries.size());
+            clear();
+        }
+    }
+
+    private long currentFingerprint() {
+        return knowledgeEnabled ? fnv(configFingerprint, Long.toHexString(knowledgeHash)) : configFingerprint;
+    }
+
+    public String get(String prompt) {
+        if (!enabled) {
+            return null;
+        }
+        String key = normalize(prompt);
+        synchronized (this) {
+            if (awaitingKnowledge) {
+                return null;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String prompt, String response) {
+        if (!enabled || response == null || response.isEmpty()) {
+            return;
+        }
+        String key = normalize(prompt);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        synchronized (this) {
+            if (awaitingKnowledge) {
+                return;
+            }
+            entries.put(key, new Entry(response, expiresAt));
+            trim();
+            if (persist) {
+                long currentFingerprint = fingerprint;
+                writer.execute(() -> append(currentFingerprint, key, response, expiresAt));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        if (persist) {
+            writer.execute(this::rewrite);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 规范化问题文本：去掉首尾空白和结尾标点，合并连续空白，统一小写，
+     * 让 "How to make a nether portal?" 与 "how to make a  nether portal" 命中同一条缓存。
+     */
+    static String normalize(String prompt) {
+        StringBuilder sb = new StringBuilder(prompt.length());
+        boolean space = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(c);
+        }
+        int end = sb.length();
+        while (end > 0 && (isTrailingPunctuation(sb.charAt(end - 1)) || sb.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '?' || c == '!' || c == '.' || c == '？' || c == '！' || c == '。' || c == '~';
+    }
+
+    static long fingerprintOf(OpenAIAPIConfig config) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, config.getModel());
+        // 路由可能把请求发往任意一个端点，各端点的模型都会影响回复
+        for (EndpointConfig endpoint : config.getEndpoints()) {
+            hash = fnv(hash, endpoint.getModel() != null ? endpoint.getModel() : config.getModel());
+        }
+        hash = fnv(hash, config.getSystemPrompt());
+        hash = fnv(hash, Double.toString(config.getTemperature()));
+        hash = fnv(hash, Integer.toString(config.getMaxTokens()));
+        hash = fnv(hash, config.isKnowledgeEnabled() ? Integer.toString(config.getKnowledgeContextHits()) : "off");
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // 文件格式: MAGIC, fingerprint, 然后是若干条 [expiresAt][keyLen][key][valueLen][value]
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long start = System.nanoTime();
+        int records = 0;
+        try {
+            // 不用内存映射：映射要等到被回收才释放，在 Windows 上会导致之后重写文件时无法替换
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getLong() != fingerprint) {
+                LOGGER.info("回复缓存文件已过期或格式不符，忽略");
+                writer.execute(this::rewrite);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            while (buffer.hasRemaining()) {
+                long expiresAt = buffer.getLong();
+                String key = readString(buffer);
+                String value = readString(buffer);
+                records++;
+                if (expiresAt > now) {
+                    entries.put(key, new Entry(value, expiresAt));
+                }
+            }
+            fileRecords = records;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // 上次写入时被中断或文件已损坏：保留已读出的完整记录，重写文件去掉残缺部分，免得之后追加的记录接在后面读不出来
+            LOGGER.warn("回复缓存文件末尾不完整或已损坏，已忽略第 {} 条之后的记录", records);
+            fileRecords = records;
+            writer.execute(this::rewrite);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load response cache", e);
+        }
+        trim();
+        LOGGER.info("已加载 {} 条回复缓存，用时 {} ms", entries.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt cache record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void append(long recordFingerprint, String key, String value, long expiresAt) {
+        try {
+            if (!Files.exists(file) || Files.size(file) < 12) {
+                rewrite();
+            }
+            synchronized (this) {
+                // 写入排队期间缓存已被清空，丢弃旧记录
+                if (recordFingerprint != fingerprint) {
+                    return;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+                writeRecord(out, key, value, expiresAt);
+            }
+            // 追加的记录多于存活条目两倍时压缩文件
+            if (++fileRecords > 2 * Math.max(size(), 64)) {
+                rewrite();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to persist response cache entry", e);
+        }
+    }
+
+    private void rewrite() {
+        List<Map.Entry<String, Entry>> live;
+        long currentFingerprint;
+        synchronized (this) {
+            live = new ArrayList<>(entries.entrySet());
+            currentFingerprint = fingerprint;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(currentFingerprint);
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, Entry> e : live) {
+                    if (e.getValue().expiresAt > now) {
+                        writeRecord(out, e.getKey(), e.getValue().value, e.getValue().expiresAt);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileRecords = live.size();
+        } catch (IOException e) {
+            LOGGER.error("Failed to rewrite response cache file", e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, String value, long expiresAt) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeLong(expiresAt);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(valueBytes.length);
+        out.write(valueBytes);
+    }
+
+    private static final class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
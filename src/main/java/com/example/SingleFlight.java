@@ -0,0 +1,173 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+
+/**
+ * 合并同时进行的相同请求：同一个键只发出一次上游调用，所有等待者共享结果。
+ * <p>
+ * 流式请求的每个片段会广播给所有订阅者，中途加入的订阅者先收到已经产生的片段。
+ * 每个调用方拿到的是共享结果的副本，取消自己的副本只会让自己退出；
+ * 所有等待者都取消后，上游调用也随之取消，不再为没人要的回复消耗 token。
+ */
+public class SingleFlight<T> {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private final ConcurrentHashMap<String, Flight<T>> flights = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 加入键为 key 的调用；当前没有进行中的调用时，用 starter 发起一个。
+     * starter 收到的 Consumer 用于广播流式片段，非流式调用可以忽略它。
+     *
+     * @param parts 接收流式片段的订阅者，可以为 null
+     */
+    public CompletableFuture<T> join(String key, Consumer<String> parts,
+                                     Function<Consumer<String>, CompletableFuture<T>> starter) {
+        Flight<T> created = null;
+        Flight<T> flight;
+        while (true) {
+            flight = flights.get(key);
+            if (flight == null) {
+                created = new Flight<>();
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    flight = created;
+                    flight.subscribe(parts);
+                    break;
+                }
+                created = null;
+            }
+            if (flight.subscribe(parts)) {
+                coalesced.increment();
+                break;
+            }
+            // 调用刚好结束、尚未移除，换一个新的
+            flights.remove(key, flight);
+        }
+
+        if (created != null) {
+            Flight<T> leader = created;
+            CompletableFuture<T> upstream;
+            try {
+                upstream = starter.apply(leader::emit);
+            } catch (RuntimeException e) {
+                upstream = CompletableFuture.failedFuture(e);
+            }
+            upstream.whenComplete((result, error) -> {
+                flights.remove(key, leader);
+                leader.finish(result, error);
+            });
+            leader.setUpstream(upstream);
+        }
+        Flight<T> joined = flight;
+        CompletableFuture<T> copy = flight.result.copy();
+        copy.whenComplete((result, error) -> {
+            if (copy.isCancelled() && joined.leave(parts)) {
+                // 最后一个等待者也走了：先移除，后来的相同请求重新发起
+                flights.remove(key, joined);
+                joined.cancelUpstream();
+            }
+        });
+        return copy;
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private static final class Flight<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<String> emitted = new ArrayList<>();
+        private final List<Consumer<String>> subscribers = new ArrayList<>(2);
+        private CompletableFuture<T> upstream;
+        private int waiters;
+        private boolean finished;
+        private boolean abandoned;
+
+        synchronized boolean subscribe(Consumer<String> parts) {
+            if (finished) {
+                return false;
+            }
+            waiters++;
+            if (parts != null) {
+                for (String part : emitted) {
+                    parts.accept(part);
+                }
+                subscribers.add(parts);
+            }
+            return true;
+        }
+
+        synchronized void emit(String part) {
+            emitted.add(part);
+            for (Consumer<String> subscriber : subscribers) {
+                // 某个订阅者出错（比如玩家已下线）不能影响其他人
+                try {
+                    subscriber.accept(part);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to deliver streamed reply part", e);
+                }
+            }
+        }
+
+        /**
+         * 一个等待者取消了。返回是否所有等待者都已取消，需要取消上游调用。
+         */
+        synchronized boolean leave(Consumer<String> parts) {
+            if (parts != null) {
+                subscribers.remove(parts);
+            }
+            if (--waiters > 0 || finished) {
+                return false;
+            }
+            finished = true;
+            abandoned = true;
+            return true;
+        }
+
+        void setUpstream(CompletableFuture<T> future) {
+            boolean cancel;
+            synchronized (this) {
+                upstream = future;
+                cancel = abandoned;
+            }
+            if (cancel) {
+                future.cancel(true);
+            }
+        }
+
+        void cancelUpstream() {
+            CompletableFuture<T> future;
+            synchronized (this) {
+                future = upstream;
+            }
+            // 还没设置时由 setUpstream 负责取消
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        void finish(T value, Throwable error) {
+            synchronized (this) {
+                finished = true;
+                subscribers.clear();
+                emitted.clear();
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+}
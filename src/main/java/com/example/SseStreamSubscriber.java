@@ -0,0 +1,102 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.concurrent.Flow;
+import org.slf4j.Logger;
+
+/**
+ * 逐行消费 chat/completions 的 SSE 响应体。事件以空行结束，一个事件可以有多行 "data:"，按规范用换行连接；
+ * 流以 "data: [DONE]" 结束。增量内容按句子交给 {@link StreamingSentenceBuffer}。
+ */
+class SseStreamSubscriber implements Flow.Subscriber<String> {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private final StreamingSentenceBuffer sentences;
+    private final StringBuilder full = new StringBuilder();
+    // 当前事件已经收到的 data 行
+    private final StringBuilder data = new StringBuilder();
+    private boolean hasData;
+    private boolean done;
+    private int promptTokens = -1;
+    private int completionTokens = -1;
+
+    SseStreamSubscriber(StreamingSentenceBuffer sentences) {
+        this.sentences = sentences;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (done) {
+            return;
+        }
+        if (line.isEmpty()) {
+            dispatch();
+        } else if (line.startsWith("data:")) {
+            // "data:" 后面最多跟一个空格，其余内容原样交给解析器
+            if (hasData) {
+                data.append('\n');
+            }
+            data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+            hasData = true;
+        }
+        // 注释行（以冒号开头）和 event、id 等其他字段用不到
+    }
+
+    private void dispatch() {
+        if (!hasData) {
+            return;
+        }
+        String data = this.data.toString();
+        this.data.setLength(0);
+        hasData = false;
+        if (data.equals("[DONE]")) {
+            done = true;
+            return;
+        }
+        try {
+            ChatCompletionCodec.Reply delta = ChatCompletionCodec.readDelta(data);
+            if (delta.getContent() != null) {
+                full.append(delta.getContent());
+                sentences.append(delta.getContent());
+            }
+            if (delta.getCompletionTokens() >= 0) {
+                promptTokens = delta.getPromptTokens();
+                completionTokens = delta.getCompletionTokens();
+            }
+        } catch (IOException | RuntimeException e) {
+            // 单个事件解析失败不应中断整段回复
+            LOGGER.warn("Skipping malformed stream chunk: {}", data);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        // 错误由 HttpClient 通过返回的 future 传递
+    }
+
+    @Override
+    public void onComplete() {
+        // 最后一个事件后面可能没有空行
+        if (!done) {
+            dispatch();
+        }
+        sentences.flush();
+    }
+
+    String getFullText() {
+        return full.toString();
+    }
+
+    // 上游在流里报告的 token 用量，没有报告时为 -1
+    int getPromptTokens() {
+        return promptTokens;
+    }
+
+    int getCompletionTokens() {
+        return completionTokens;
+    }
+}
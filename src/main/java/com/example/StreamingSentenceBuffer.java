@@ -0,0 +1,88 @@
+package com.example;
+
+import java.util.function.Consumer;
+
+/**
+ * 把流式返回的文本碎片拼接成完整的句子或行再交给下游。
+ * 遇到换行、句末标点或缓冲区超过上限时输出一段，结束时调用 {@link #flush()} 输出剩余内容。
+ * <p>
+ * 只决定在哪里分段，不改动内容：空白、缩进和换行（包括空行）都原样保留，各段首尾相接就是完整的原文，
+ * 下游的 Markdown 格式化器据此判断段落和代码块。
+ */
+public class StreamingSentenceBuffer {
+    private final Consumer<String> sink;
+    private final int maxLength;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public StreamingSentenceBuffer(Consumer<String> sink, int maxLength) {
+        this.sink = sink;
+        this.maxLength = maxLength;
+    }
+
+    public void append(String fragment) {
+        if (fragment == null || fragment.isEmpty()) {
+            return;
+        }
+        buffer.append(fragment);
+        drain();
+    }
+
+    public void flush() {
+        emit(buffer.length());
+    }
+
+    private void drain() {
+        int start = 0;
+        for (int i = 0; i < buffer.length(); i++) {
+            char c = buffer.charAt(i);
+            if (c == '\n') {
+                emit(start, i + 1);
+                start = i + 1;
+            } else if (isFullWidthTerminator(c)) {
+                emit(start, i + 1);
+                start = i + 1;
+            } else if (isTerminator(c) && i + 1 < buffer.length() && Character.isWhitespace(buffer.charAt(i + 1))
+                    && buffer.charAt(i + 1) != '\n') {
+                emit(start, i + 1);
+                start = i + 1;
+            } else if (i + 1 - start >= maxLength) {
+                int cut = lastBreak(start, i + 1);
+                emit(start, cut);
+                start = cut;
+            }
+        }
+        buffer.delete(0, start);
+    }
+
+    // 在上限内找最后一个空白作为断点，找不到就硬切，但不拆开代理对
+    private int lastBreak(int start, int end) {
+        for (int i = end - 1; i > start; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                return i + 1;
+            }
+        }
+        if (Character.isHighSurrogate(buffer.charAt(end - 1)) && end - 1 > start) {
+            return end - 1;
+        }
+        return end;
+    }
+
+    private void emit(int end) {
+        emit(0, end);
+        buffer.setLength(0);
+    }
+
+    private void emit(int start, int end) {
+        if (start < end) {
+            sink.accept(buffer.substring(start, end));
+        }
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ';';
+    }
+
+    private static boolean isFullWidthTerminator(char c) {
+        return c == '。' || c == '！' || c == '？' || c == '；';
+    }
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+/**
+ * 简单的令牌桶：容量为 burst，每分钟补充 perMinute 个令牌。非线程安全，由调用方加锁。
+ */
+class TokenBucket {
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(int burst, long now) {
+        this.tokens = burst;
+        this.lastRefillNanos = now;
+    }
+
+    boolean tryTake(int burst, int perMinute, long now) {
+        refill(burst, perMinute, now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    double available(int burst, int perMinute, long now) {
+        refill(burst, perMinute, now);
+        return tokens;
+    }
+
+    // 距离下一个令牌可用还需等待的秒数
+    long secondsUntilNext(int perMinute) {
+        if (tokens >= 1 || perMinute <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * 60.0 / perMinute);
+    }
+
+    boolean isFull(int burst, int perMinute, long now) {
+        return available(burst, perMinute, now) >= burst;
+    }
+
+    private void refill(int burst, int perMinute, long now) {
+        double elapsedMinutes = (now - lastRefillNanos) / 60_000_000_000.0;
+        tokens = Math.min(burst, tokens + elapsedMinutes * perMinute);
+        lastRefillNanos = now;
+    }
+}
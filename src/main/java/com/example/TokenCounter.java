@@ -0,0 +1,121 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.slf4j.Logger;
+
+/**
+ * 计算文本的token数，用于裁剪对话历史、发送前检查提示长度和按玩家扣减额度。
+ * <p>
+ * config 目录下有 tiktoken 格式的词表（{@link #VOCABULARY_PATH}，例如改名后的 cl100k_base.tiktoken）时，
+ * 第一次计数时加载它并按 BPE 精确计算；没有词表时粗略估算：
+ * 中日韩字符大约一个字一个token，其余文本大约四个字符一个token。
+ */
+public final class TokenCounter {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    public static final Path VOCABULARY_PATH = Path.of("config", "ai-for-minecraft-vocab.tiktoken");
+    // 每条消息还有几个token的固定开销
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenCounter() {
+    }
+
+    // 第一次用到时才加载词表
+    private static final class Vocabulary {
+        static final BpeVocabulary INSTANCE = load();
+
+        private static BpeVocabulary load() {
+            if (!Files.isRegularFile(VOCABULARY_PATH)) {
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                BpeVocabulary vocabulary = BpeVocabulary.load(VOCABULARY_PATH);
+                LOGGER.info("Loaded {} BPE tokens from {} in {} ms", vocabulary.size(), VOCABULARY_PATH,
+                    (System.nanoTime() - start) / 1_000_000);
+                return vocabulary;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to load token vocabulary {}, falling back to estimates", VOCABULARY_PATH, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 一条消息的token数，包括消息本身的固定开销。
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return count(text) + MESSAGE_OVERHEAD;
+    }
+
+    public static int estimate(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimate(message.getContent());
+        }
+        return tokens;
+    }
+
+    /**
+     * 文本本身的token数，不含消息开销。
+     */
+    public static int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        BpeVocabulary vocabulary = Vocabulary.INSTANCE;
+        if (vocabulary != null) {
+            return vocabulary.count(text);
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (isCjk(text.charAt(i))) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 截取不超过 maxTokens 个token的最长前缀。
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        BpeVocabulary vocabulary = Vocabulary.INSTANCE;
+        if (vocabulary != null) {
+            return text.substring(0, vocabulary.prefixLength(text, maxTokens));
+        }
+        // 估算时以四分之一个token为单位累计
+        int budget = maxTokens * 4;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            used += isCjk(text.charAt(i)) ? 4 : 1;
+            if (used > budget) {
+                int end = i > 0 && Character.isHighSurrogate(text.charAt(i - 1)) ? i - 1 : i;
+                return text.substring(0, end);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * 是否按词表精确计数；没有词表时为估算。
+     */
+    public static boolean isExact() {
+        return Vocabulary.INSTANCE != null;
+    }
+
+    private static boolean isCjk(char c) {
+        return c >= 0x2E80 && c <= 0x9FFF || c >= 0xAC00 && c <= 0xD7AF || c >= 0xFF00 && c <= 0xFFEF;
+    }
+}
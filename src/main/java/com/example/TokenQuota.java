@@ -0,0 +1,291 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+
+/**
+ * 按玩家限制token用量，分每小时和每天两个窗口，分别在整点和服务器本地时间的零点重置。
+ * <p>
+ * 请求发出前检查剩余额度够不够这次调用最多用掉的token（本地计算的提示token数加上 max_tokens），
+ * 回复完成后按上游报告的实际用量（提示加回复）扣减。
+ * 缓存命中和合并到别人请求上的提问不消耗额度。管理员和控制台不受限制，但用量照常记录。
+ * 用量保存在 config 目录下的定长记录文件中，变动后延迟几秒批量写回。
+ */
+public class TokenQuota {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    private static final int MAGIC = 0x41495131; // "AIQ1"
+    // uuid(16) + hour(4) + hourUsed(8) + day(4) + dayUsed(8)
+    private static final int RECORD_SIZE = 40;
+    private static final long SAVE_DELAY_SECONDS = 5;
+
+    private final Path file;
+    private final ConcurrentHashMap<UUID, Usage> usage = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-Quota-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private volatile long hourlyLimit;
+    private volatile long dailyLimit;
+    private boolean loaded;
+
+    public TokenQuota(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void configure(OpenAIAPIConfig config) {
+        hourlyLimit = Math.max(0, config.getQuotaTokensPerHour());
+        dailyLimit = Math.max(0, config.getQuotaTokensPerDay());
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+    }
+
+    /**
+     * 发出请求前检查额度，剩余额度不够这次调用最多用掉的 tokens 时抛出 {@link RequestRejectedException}。
+     */
+    public void check(RequestContext context, long tokens) {
+        UUID playerId = context.getPlayerId();
+        if (playerId == null || context.isOperator() || hourlyLimit <= 0 && dailyLimit <= 0) {
+            return;
+        }
+        Remaining remaining = remaining(playerId);
+        if (remaining.dailyRemaining >= 0 && remaining.dailyRemaining < tokens) {
+            throw new RequestRejectedException(shortage("今天", remaining.dailyUsed, dailyLimit, tokens)
+                + "，" + remaining.minutesUntilDailyReset + " 分钟后重置");
+        }
+        if (remaining.hourlyRemaining >= 0 && remaining.hourlyRemaining < tokens) {
+            throw new RequestRejectedException(shortage("本小时", remaining.hourlyUsed, hourlyLimit, tokens)
+                + "，请在 " + remaining.minutesUntilHourlyReset + " 分钟后再试");
+        }
+    }
+
+    /**
+     * 扣减一次调用实际用掉的token。
+     */
+    public void charge(UUID playerId, long tokens) {
+        if (playerId == null || tokens <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int hour = hourOf(now);
+        int day = dayOf(now);
+        // 在 compute 里更新，和 save() 清理过期记录互斥，不会加到刚被移除的记录上
+        usage.compute(playerId, (key, entry) -> {
+            Usage updated = entry != null ? entry : new Usage();
+            synchronized (updated) {
+                updated.roll(hour, day);
+                updated.hourUsed += tokens;
+                updated.dayUsed += tokens;
+            }
+            return updated;
+        });
+        scheduleSave();
+    }
+
+    public Remaining remaining(UUID playerId) {
+        long now = System.currentTimeMillis();
+        int hour = hourOf(now);
+        int day = dayOf(now);
+        long hourUsed = 0;
+        long dayUsed = 0;
+        Usage entry = usage.get(playerId);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.roll(hour, day);
+                hourUsed = entry.hourUsed;
+                dayUsed = entry.dayUsed;
+            }
+        }
+        long hourly = hourlyLimit;
+        long daily = dailyLimit;
+        long nextDay = LocalDate.ofEpochDay(day + 1L).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new Remaining(hourUsed, hourly <= 0 ? -1 : Math.max(0, hourly - hourUsed),
+            dayUsed, daily <= 0 ? -1 : Math.max(0, daily - dayUsed),
+            minutesUntil(TimeUnit.HOURS.toMillis(hour + 1L), now), minutesUntil(nextDay, now));
+    }
+
+    public long getHourlyLimit() {
+        return hourlyLimit;
+    }
+
+    public long getDailyLimit() {
+        return dailyLimit;
+    }
+
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            try {
+                writer.schedule(() -> {
+                    saveScheduled.set(false);
+                    save();
+                }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，close() 会写最后一次
+                saveScheduled.set(false);
+            }
+        }
+    }
+
+    // 文件格式: MAGIC, 记录数, 然后是定长记录 [uuid][hour][hourUsed][day][dayUsed]
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                LOGGER.warn("Ignoring token quota file with unknown format: {}", file);
+                return;
+            }
+            int records = buffer.getInt();
+            int today = dayOf(System.currentTimeMillis());
+            for (int i = 0; i < records; i++) {
+                UUID playerId = new UUID(buffer.getLong(), buffer.getLong());
+                Usage entry = new Usage();
+                entry.hour = buffer.getInt();
+                entry.hourUsed = buffer.getLong();
+                entry.day = buffer.getInt();
+                entry.dayUsed = buffer.getLong();
+                if (entry.day == today) {
+                    usage.put(playerId, entry);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            LOGGER.warn("Token quota file {} is truncated, keeping the complete records", file);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load token quotas", e);
+        }
+    }
+
+    // 先写临时文件再替换；已经过了当天的记录不再写回
+    private synchronized void save() {
+        int today = dayOf(System.currentTimeMillis());
+        for (UUID playerId : usage.keySet()) {
+            usage.computeIfPresent(playerId, (key, entry) -> {
+                synchronized (entry) {
+                    return entry.day != today ? null : entry;
+                }
+            });
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Map<UUID, Usage> snapshot = Map.copyOf(usage);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),
+                    8 + RECORD_SIZE * Math.max(1, snapshot.size())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<UUID, Usage> e : snapshot.entrySet()) {
+                    Usage entry = e.getValue();
+                    out.writeLong(e.getKey().getMostSignificantBits());
+                    out.writeLong(e.getKey().getLeastSignificantBits());
+                    synchronized (entry) {
+                        out.writeInt(entry.hour);
+                        out.writeLong(entry.hourUsed);
+                        out.writeInt(entry.day);
+                        out.writeLong(entry.dayUsed);
+                    }
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to save token quotas", e);
+        }
+    }
+
+    private static String shortage(String window, long used, long limit, long tokens) {
+        if (used >= limit) {
+            return window + "的token额度已用完（" + used + "/" + limit + "）";
+        }
+        return window + "剩余的token额度不够这次提问（剩余 " + (limit - used) + "，本次最多约需 " + tokens + "）";
+    }
+
+    private static int hourOf(long millis) {
+        return (int) TimeUnit.MILLISECONDS.toHours(millis);
+    }
+
+    private static int dayOf(long millis) {
+        return (int) LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).toEpochDay();
+    }
+
+    private static long minutesUntil(long millis, long now) {
+        return Math.max(1, (millis - now + 59_999) / 60_000);
+    }
+
+    private static final class Usage {
+        int hour;
+        long hourUsed;
+        int day;
+        long dayUsed;
+
+        // 进入新的小时或新的一天时清零对应窗口
+        void roll(int currentHour, int currentDay) {
+            if (hour != currentHour) {
+                hour = currentHour;
+                hourUsed = 0;
+            }
+            if (day != currentDay) {
+                day = currentDay;
+                dayUsed = 0;
+            }
+        }
+    }
+
+    /**
+     * 一位玩家的用量和剩余额度；不限额的窗口剩余额度为 -1。
+     */
+    public static final class Remaining {
+        public final long hourlyUsed;
+        public final long hourlyRemaining;
+        public final long dailyUsed;
+        public final long dailyRemaining;
+        public final long minutesUntilHourlyReset;
+        public final long minutesUntilDailyReset;
+
+        Remaining(long hourlyUsed, long hourlyRemaining, long dailyUsed, long dailyRemaining, long minutesUntilHourlyReset,
+                  long minutesUntilDailyReset) {
+            this.hourlyUsed = hourlyUsed;
+            this.hourlyRemaining = hourlyRemaining;
+            this.dailyUsed = dailyUsed;
+            this.dailyRemaining = dailyRemaining;
+            this.minutesUntilHourlyReset = minutesUntilHourlyReset;
+            this.minutesUntilDailyReset = minutesUntilDailyReset;
+        }
+    }
+}
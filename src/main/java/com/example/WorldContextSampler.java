@@ -0,0 +1,433 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.entity.mob.Monster;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.registry.Registries;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Box;
+import org.slf4j.Logger;
+
+/**
+ * 为 /ai 采集提问玩家所处的环境：位置、生物群系、时间天气、生命和饥饿度、手持物品、背包，
+ * 以及附近值得注意的方块和生物，整理成一条系统消息随问题发给模型。
+ * <p>
+ * 玩家状态、背包和附近生物在执行命令的那个tick里直接读取，开销很小；周围方块的扫描排进队列，
+ * 在每个tick末尾按 {@code world_context_blocks_per_tick} 的总预算分批进行，一次采集可能跨越几个tick，
+ * 但不会让单个tick变长。未加载的区块直接跳过，不会因此加载区块。整理成文字在后台线程上完成。
+ * 同一玩家在 {@code world_context_cache_seconds} 秒内的多次提问共用一份结果。
+ */
+public class WorldContextSampler {
+    private static final Logger LOGGER = AiForMinecraft.LOGGER;
+    // 值得告诉模型的方块：矿石、容器、功能方块，以及岩浆、传送门等危险或罕见的方块
+    private static final Pattern NOTABLE_BLOCK = Pattern.compile(
+        "_ore$|^ancient_debris$|chest$|^barrel$|shulker_box$|^spawner$|^crafting_table$|furnace$|^smoker$|anvil$"
+        + "|^enchanting_table$|^brewing_stand$|_bed$|^beacon$|portal|^lava$|^obsidian$|^crying_obsidian$"
+        + "|^budding_amethyst$|^bookshelf$|^smithing_table$|^grindstone$|^respawn_anchor$|^lodestone$|^conduit$");
+    // 方块扫描半径的上限，避免配置过大时一次采集持续太久
+    private static final int MAX_RADIUS = 32;
+    // 附近生物最多统计的个数
+    private static final int MAX_ENTITIES = 256;
+    // 背包、方块和生物各自最多列出的种类数
+    private static final int MAX_LISTED = 10;
+
+    private final OpenAIAPIService service;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AI-World-Context");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<UUID, Cached> cache = new ConcurrentHashMap<>();
+    // 以下只在主线程上访问
+    private final ArrayDeque<Scan> pending = new ArrayDeque<>();
+    private Set<Block> notableBlocks;
+
+    public WorldContextSampler(OpenAIAPIService service) {
+        this.service = service;
+    }
+
+    /**
+     * 在主线程上调用。开启环境上下文时返回带有玩家环境描述的请求上下文，采集完成前不会完成；
+     * 未开启或不是玩家发起时立即以原来的上下文完成。玩家在采集完成前下线时以 {@link CancellationException} 结束。
+     */
+    public CompletableFuture<RequestContext> attach(ServerPlayerEntity player, RequestContext context) {
+        OpenAIAPIConfig config = service.getConfig();
+        if (player == null || config == null || !config.isWorldContextEnabled()) {
+            return CompletableFuture.completedFuture(context);
+        }
+        long now = System.nanoTime();
+        long ttl = TimeUnit.SECONDS.toNanos(Math.max(0, config.getWorldContextCacheSeconds()));
+        Cached cached = cache.get(player.getUuid());
+        if (cached == null || now - cached.capturedAt > ttl || cached.text.isCompletedExceptionally()) {
+            cached = new Cached(now, capture(player, config));
+            cache.put(player.getUuid(), cached);
+        }
+        return cached.text.handle((text, error) -> {
+            if (error == null) {
+                return context.withWorldContext(text);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            // 采集出错时照常提问，只是不带环境描述
+            LOGGER.warn("Failed to capture world context for {}", context.getPlayerName(), cause);
+            return context;
+        });
+    }
+
+    /**
+     * 每个tick末尾在主线程上调用，按预算推进排队中的方块扫描。
+     */
+    public void tick(MinecraftServer server) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        OpenAIAPIConfig config = service.getConfig();
+        int budget = Math.max(1, config != null ? config.getWorldContextBlocksPerTick() : 2048);
+        while (budget > 0 && !pending.isEmpty()) {
+            Scan scan = pending.peek();
+            if (scan.player.isDisconnected()) {
+                pending.poll();
+                scan.done.cancel(false);
+                continue;
+            }
+            if (scan.player.isRemoved() || scan.player.getServerWorld() != scan.world) {
+                // 扫描途中死亡重生或换了维度，已扫描的方块不再是玩家身边的
+                pending.poll();
+                scan.snapshot.blocks.clear();
+                scan.snapshot.blocksScanned = false;
+                scan.done.complete(scan.snapshot);
+                continue;
+            }
+            try {
+                budget -= scan.advance(budget);
+            } catch (RuntimeException e) {
+                pending.poll();
+                scan.done.completeExceptionally(e);
+                continue;
+            }
+            if (scan.isDone()) {
+                pending.poll();
+                scan.done.complete(scan.snapshot);
+            }
+        }
+    }
+
+    /**
+     * 丢弃该玩家缓存的环境描述。
+     */
+    public void evict(UUID playerId) {
+        cache.remove(playerId);
+    }
+
+    /**
+     * 关服时在主线程上调用，取消所有未完成的采集。
+     */
+    public void clear() {
+        Scan scan;
+        while ((scan = pending.poll()) != null) {
+            scan.done.cancel(false);
+        }
+        cache.clear();
+    }
+
+    public void close() {
+        writer.shutdownNow();
+    }
+
+    private CompletableFuture<String> capture(ServerPlayerEntity player, OpenAIAPIConfig config) {
+        int radius = Math.max(1, Math.min(MAX_RADIUS, config.getWorldContextRadius()));
+        Scan scan;
+        try {
+            scan = new Scan(player, radius, notableBlocks());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        pending.add(scan);
+        return scan.done.thenApplyAsync(this::describe, writer);
+    }
+
+    // 注册表开服后不再变化，第一次用到时按 id 挑出一次
+    private Set<Block> notableBlocks() {
+        if (notableBlocks == null) {
+            Set<Block> blocks = new HashSet<>();
+            for (Block block : Registries.BLOCK) {
+                if (NOTABLE_BLOCK.matcher(Registries.BLOCK.getId(block).getPath()).find()) {
+                    blocks.add(block);
+                }
+            }
+            notableBlocks = blocks;
+        }
+        return notableBlocks;
+    }
+
+    // 在后台线程上把采集结果整理成提示文字
+    private String describe(Snapshot snapshot) {
+        StringBuilder text = new StringBuilder("以下是提问玩家当前所处的环境，回答时可以参考，与问题无关时不必提及：");
+        text.append("\n位置：").append(dimensionName(snapshot.dimension)).append("，坐标 (")
+            .append(snapshot.x).append(", ").append(snapshot.y).append(", ").append(snapshot.z).append(")");
+        if (snapshot.biome != null) {
+            text.append("，生物群系 ").append(snapshot.biome);
+        }
+        text.append("\n时间：").append(timeName(snapshot.timeOfDay));
+        if (snapshot.thundering) {
+            text.append("，雷雨");
+        } else if (snapshot.raining) {
+            text.append("，下雨");
+        }
+        text.append("\n状态：生命 ").append(Math.round(snapshot.health)).append('/').append(Math.round(snapshot.maxHealth))
+            .append("，饥饿度 ").append(snapshot.food).append("/20");
+        text.append("\n手持：").append(snapshot.held != null ? itemName(snapshot.held) + " ×" + snapshot.heldCount : "空手");
+
+        text.append("\n背包：");
+        List<Map.Entry<Item, Integer>> inventory = new ArrayList<>(snapshot.inventory.entrySet());
+        inventory.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        if (inventory.isEmpty()) {
+            text.append("空");
+        }
+        for (int i = 0; i < Math.min(MAX_LISTED, inventory.size()); i++) {
+            text.append(i > 0 ? "、" : "").append(itemName(inventory.get(i).getKey())).append(" ×").append(inventory.get(i).getValue());
+        }
+        if (inventory.size() > MAX_LISTED) {
+            text.append(" 等 ").append(inventory.size()).append(" 种物品");
+        }
+
+        if (snapshot.blocksScanned) {
+            text.append("\n附近 ").append(snapshot.radius).append(" 格内值得注意的方块：");
+            appendSightings(text, snapshot.blocks);
+        }
+        text.append("\n附近 ").append(snapshot.radius * 2).append(" 格内的生物：");
+        appendSightings(text, snapshot.entities);
+        return text.toString();
+    }
+
+    private void appendSightings(StringBuilder text, Map<Object, Sighting> sightings) {
+        if (sightings.isEmpty()) {
+            text.append("无");
+            return;
+        }
+        List<Map.Entry<Object, Sighting>> nearest = new ArrayList<>(sightings.entrySet());
+        nearest.sort((a, b) -> Double.compare(a.getValue().nearestSquared, b.getValue().nearestSquared));
+        for (int i = 0; i < Math.min(MAX_LISTED, nearest.size()); i++) {
+            Sighting sighting = nearest.get(i).getValue();
+            text.append(i > 0 ? "、" : "").append(nameOf(nearest.get(i).getKey())).append(" ×").append(sighting.count)
+                .append("（").append(sighting.hostile ? "敌对，" : "").append("最近 ")
+                .append(Math.round(Math.sqrt(sighting.nearestSquared))).append(" 格）");
+        }
+        if (nearest.size() > MAX_LISTED) {
+            text.append(" 等 ").append(nearest.size()).append(" 种");
+        }
+    }
+
+    private String nameOf(Object key) {
+        if (key instanceof Block) {
+            Block block = (Block) key;
+            if (block.asItem() != Items.AIR) {
+                return itemName(block.asItem());
+            }
+            String name = service.getKnowledge().displayName(Registries.BLOCK.getId(block).toString());
+            return name != null ? name : block.getName().getString();
+        }
+        return ((EntityType<?>) key).getName().getString();
+    }
+
+    // 优先使用游戏资料中的名称，放了语言文件时是中文名
+    private String itemName(Item item) {
+        String name = service.getKnowledge().displayName(Registries.ITEM.getId(item).toString());
+        return name != null ? name : item.getName().getString();
+    }
+
+    private static String dimensionName(String dimension) {
+        switch (dimension) {
+            case "minecraft:overworld":
+                return "主世界";
+            case "minecraft:the_nether":
+                return "下界";
+            case "minecraft:the_end":
+                return "末地";
+            default:
+                return dimension;
+        }
+    }
+
+    private static String timeName(long timeOfDay) {
+        long time = Math.floorMod(timeOfDay, 24000L);
+        if (time < 12000) {
+            return "白天";
+        }
+        if (time < 13000) {
+            return "黄昏";
+        }
+        return time < 23000 ? "夜晚" : "黎明";
+    }
+
+    private static final class Cached {
+        final long capturedAt;
+        final CompletableFuture<String> text;
+
+        Cached(long capturedAt, CompletableFuture<String> text) {
+            this.capturedAt = capturedAt;
+            this.text = text;
+        }
+    }
+
+    private static final class Sighting {
+        int count;
+        double nearestSquared = Double.MAX_VALUE;
+        boolean hostile;
+
+        void see(double distanceSquared) {
+            count++;
+            nearestSquared = Math.min(nearestSquared, distanceSquared);
+        }
+    }
+
+    // 采集结果；在主线程上填写，扫描完成后交给后台线程只读
+    private static final class Snapshot {
+        String dimension;
+        String biome;
+        int x;
+        int y;
+        int z;
+        int radius;
+        float health;
+        float maxHealth;
+        int food;
+        long timeOfDay;
+        boolean raining;
+        boolean thundering;
+        Item held;
+        int heldCount;
+        final Map<Item, Integer> inventory = new HashMap<>();
+        final Map<Object, Sighting> blocks = new HashMap<>();
+        final Map<Object, Sighting> entities = new HashMap<>();
+        boolean blocksScanned = true;
+    }
+
+    // 一次采集：构造时读取玩家状态和附近生物，之后每个tick按预算逐列扫描周围的方块
+    private static final class Scan {
+        final ServerPlayerEntity player;
+        final ServerWorld world;
+        final Set<Block> notable;
+        final Snapshot snapshot = new Snapshot();
+        final CompletableFuture<Snapshot> done = new CompletableFuture<>();
+        final BlockPos.Mutable cursor = new BlockPos.Mutable();
+        final int minX;
+        final int minZ;
+        final int minY;
+        final int maxY;
+        final int width;
+        final int columns;
+        int column;
+        int y;
+
+        Scan(ServerPlayerEntity player, int radius, Set<Block> notable) {
+            this.player = player;
+            this.world = player.getServerWorld();
+            this.notable = notable;
+            BlockPos pos = player.getBlockPos();
+            snapshot.x = pos.getX();
+            snapshot.y = pos.getY();
+            snapshot.z = pos.getZ();
+            snapshot.radius = radius;
+            snapshot.dimension = world.getRegistryKey().getValue().toString();
+            snapshot.biome = world.getBiome(pos).getKey().map(key -> key.getValue().toString()).orElse(null);
+            snapshot.timeOfDay = world.getTimeOfDay();
+            snapshot.raining = world.isRaining();
+            snapshot.thundering = world.isThundering();
+            snapshot.health = player.getHealth();
+            snapshot.maxHealth = player.getMaxHealth();
+            snapshot.food = player.getHungerManager().getFoodLevel();
+            ItemStack held = player.getMainHandStack();
+            if (!held.isEmpty()) {
+                snapshot.held = held.getItem();
+                snapshot.heldCount = held.getCount();
+            }
+            PlayerInventory inventory = player.getInventory();
+            for (int i = 0; i < inventory.size(); i++) {
+                ItemStack stack = inventory.getStack(i);
+                if (!stack.isEmpty()) {
+                    snapshot.inventory.merge(stack.getItem(), stack.getCount(), Integer::sum);
+                }
+            }
+            int seen = 0;
+            for (Entity entity : world.getOtherEntities(player, new Box(pos).expand(radius * 2))) {
+                if (!(entity instanceof LivingEntity) || !entity.isAlive()) {
+                    continue;
+                }
+                Sighting sighting = snapshot.entities.computeIfAbsent(entity.getType(), key -> new Sighting());
+                sighting.see(entity.squaredDistanceTo(player));
+                sighting.hostile = entity instanceof Monster;
+                if (++seen >= MAX_ENTITIES) {
+                    break;
+                }
+            }
+
+            minX = pos.getX() - radius;
+            minZ = pos.getZ() - radius;
+            minY = Math.max(world.getBottomY(), pos.getY() - radius);
+            maxY = Math.min(world.getTopY() - 1, pos.getY() + radius);
+            width = radius * 2 + 1;
+            columns = maxY >= minY ? width * width : 0;
+            y = minY;
+        }
+
+        boolean isDone() {
+            return column >= columns;
+        }
+
+        // 至多读取 budget 个方块，返回用掉的预算；未加载区块中的一列按一个方块计
+        int advance(int budget) {
+            int used = 0;
+            while (used < budget && column < columns) {
+                int x = minX + column / width;
+                int z = minZ + column % width;
+                if (y == minY && !world.isChunkLoaded(x >> 4, z >> 4)) {
+                    column++;
+                    used++;
+                    continue;
+                }
+                for (; y <= maxY && used < budget; y++, used++) {
+                    Block block = world.getBlockState(cursor.set(x, y, z)).getBlock();
+                    if (notable.contains(block)) {
+                        double dx = x - snapshot.x;
+                        double dy = y - snapshot.y;
+                        double dz = z - snapshot.z;
+                        snapshot.blocks.computeIfAbsent(block, key -> new Sighting()).see(dx * dx + dy * dy + dz * dz);
+                    }
+                }
+                if (y > maxY) {
+                    y = minY;
+                    column++;
+                }
+            }
+            return used;
+        }
+    }
+}
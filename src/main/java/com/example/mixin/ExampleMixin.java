@@ -1,5 +1,6 @@
 package com.example.mixin;
 
+import com.example.AiForMinecraft;
 import net.minecraft.server.MinecraftServer;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -10,6 +11,10 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 public class ExampleMixin {
 	@Inject(at = @At("HEAD"), method = "loadWorld")
 	private void init(CallbackInfo info) {
-		// This code is injected into the start of MinecraftServer.loadWorld()V
+		// 世界加载期间在后台预热AI服务，开服后的第一个 /ai 不用再等配置加载和建立连接
+		AiForMinecraft mod = AiForMinecraft.getInstance();
+		if (mod != null) {
+			mod.warmUp();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AIMetricsTest {
+    // 样本行：指标名、可选的标签、一个数值
+    private static final Pattern SAMPLE = Pattern.compile("[a-z_]+(\\{[a-z]+=\"[^\"]*\"\\})? (-?[0-9]+(\\.[0-9]+)?|NaN)");
+
+    private final AIMetrics metrics = new AIMetrics();
+
+    @AfterEach
+    void tearDown() {
+        metrics.shutdown();
+    }
+
+    // 导出文本按样本名（含标签）索引，同时检查每一行的格式
+    private Map<String, String> export() {
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        Map<String, String> samples = new LinkedHashMap<>();
+        String declared = null;
+        for (String line : out.toString().split("\n")) {
+            if (line.startsWith("# HELP ")) {
+                continue;
+            }
+            if (line.startsWith("# TYPE ")) {
+                declared = line.split(" ")[2];
+                continue;
+            }
+            assertTrue(SAMPLE.matcher(line).matches(), line);
+            assertTrue(line.startsWith(declared), line + " outside " + declared);
+            int space = line.lastIndexOf(' ');
+            samples.put(line.substring(0, space), line.substring(space + 1));
+        }
+        return samples;
+    }
+
+    @Test
+    void exportsOutcomesAndTokens() {
+        metrics.onComplete(null);
+        metrics.onComplete(null);
+        metrics.onComplete(new CompletionException(new HttpTimeoutException("slow")));
+        metrics.onComplete(new CancellationException());
+        metrics.onComplete(new RequestRejectedException("full"));
+        metrics.onComplete(new IllegalStateException("boom"));
+        metrics.onUsage(100, 50, TimeUnit.SECONDS.toNanos(2));
+
+        Map<String, String> samples = export();
+        assertEquals("2", samples.get("ai_requests_total{outcome=\"success\"}"));
+        assertEquals("1", samples.get("ai_requests_total{outcome=\"timeout\"}"));
+        assertEquals("1", samples.get("ai_requests_total{outcome=\"cancelled\"}"));
+        assertEquals("1", samples.get("ai_requests_total{outcome=\"rejected\"}"));
+        assertEquals("1", samples.get("ai_requests_total{outcome=\"error\"}"));
+        assertEquals("100", samples.get("ai_tokens_total{type=\"prompt\"}"));
+        assertEquals("50", samples.get("ai_tokens_total{type=\"completion\"}"));
+        assertEquals("2", samples.get("ai_generation_seconds_total"));
+        assertEquals(25, metrics.getTokensPerSecond(), 1e-9);
+    }
+
+    @Test
+    void exportsStageQuantilesInSeconds() {
+        for (int millis = 1; millis <= 100; millis++) {
+            metrics.record(AIMetrics.Stage.TOTAL, TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        Map<String, String> samples = export();
+        assertEquals("100", samples.get("ai_total_seconds_count"));
+        assertEquals("5.050000", samples.get("ai_total_seconds_sum"));
+        double[] expected = {0.05, 0.09, 0.099};
+        String[] quantiles = {"0.5", "0.9", "0.99"};
+        for (int i = 0; i < quantiles.length; i++) {
+            double value = Double.parseDouble(samples.get("ai_total_seconds{quantile=\"" + quantiles[i] + "\"}"));
+            assertTrue(value >= expected[i] && value <= expected[i] * (1 + 1.0 / 16), quantiles[i] + ": " + value);
+        }
+
+        // 没有样本的阶段只输出计数和总和，不输出分位数
+        assertEquals("0", samples.get("ai_queue_wait_seconds_count"));
+        assertEquals("0", samples.get("ai_queue_wait_seconds_sum"));
+        assertFalse(samples.containsKey("ai_queue_wait_seconds{quantile=\"0.5\"}"));
+    }
+
+    @Test
+    void exportsGaugesWithTheirType() {
+        metrics.gauge("ai_queue_length", "Requests waiting for a permit", false, () -> 3);
+        metrics.gauge("ai_cache_hits_total", "Replies served from the cache", true, () -> 7.5);
+        metrics.gauge("ai_ratio", "Not a number yet", false, () -> Double.NaN);
+
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE ai_queue_length gauge\nai_queue_length 3\n"), text);
+        assertTrue(text.contains("# TYPE ai_cache_hits_total counter\nai_cache_hits_total 7.500000\n"), text);
+        assertEquals("NaN", export().get("ai_ratio"));
+        assertEquals(3, metrics.getGauge("ai_queue_length"), 1e-9);
+        assertEquals(0, metrics.getGauge("missing"), 1e-9);
+    }
+}
@@ -0,0 +1,219 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AuditLogTest {
+    private static final UUID ALICE = UUID.randomUUID();
+    private static final UUID BOB = UUID.randomUUID();
+
+    @TempDir
+    Path directory;
+
+    private static OpenAIAPIConfig config(boolean compress, int maxTotalMb) {
+        return ChatCompletionCodec.GSON.fromJson("{\"audit_enabled\":true,\"audit_compress\":" + compress
+            + ",\"audit_segment_mb\":1,\"audit_max_total_mb\":" + maxTotalMb + "}", OpenAIAPIConfig.class);
+    }
+
+    private AuditLog open(boolean compress, int maxTotalMb) {
+        AuditLog log = new AuditLog(directory.resolve("audit"));
+        log.configure(config(compress, maxTotalMb));
+        return log;
+    }
+
+    private static AuditLog.Entry entry(long time, UUID playerId, String player, String prompt) {
+        AuditLog.Entry entry = new AuditLog.Entry(time, playerId, player, "api", "success", prompt);
+        entry.model = "gpt-test";
+        entry.promptTokens = 10;
+        entry.completionTokens = 20;
+        return entry;
+    }
+
+    private static List<String> prompts(List<AuditLog.Entry> entries) {
+        List<String> prompts = new ArrayList<>();
+        for (AuditLog.Entry entry : entries) {
+            prompts.add(entry.prompt);
+        }
+        return prompts;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("audit"))) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void returnsTheMostRecentEntriesOldestFirst() throws IOException {
+        AuditLog log = open(false, 0);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(log.append(entry(now + i, i % 2 == 0 ? ALICE : BOB, i % 2 == 0 ? "Alice" : "Bob", "q" + i)));
+        }
+        log.close();
+        assertEquals(5, log.getWritten());
+
+        List<AuditLog.Entry> recent = log.recent(null, 3);
+        assertEquals(List.of("q2", "q3", "q4"), prompts(recent));
+        assertEquals("gpt-test", recent.get(0).model);
+        assertEquals(30, recent.get(0).promptTokens + recent.get(0).completionTokens);
+        assertTrue(log.recent(null, 0).isEmpty());
+    }
+
+    @Test
+    void filtersByPlayerNameOrUuidIgnoringCase() throws IOException {
+        AuditLog log = open(false, 0);
+        long now = System.currentTimeMillis();
+        log.append(entry(now, ALICE, "Alice", "q0"));
+        log.append(entry(now + 1, BOB, "Bob", "q1"));
+        // 提问里提到别的玩家不算
+        log.append(entry(now + 2, BOB, "Bob", "\"player\":\"Alice\""));
+        log.append(entry(now + 3, ALICE, "Alice", "q3"));
+        log.close();
+
+        assertEquals(List.of("q0", "q3"), prompts(log.recent("alice", 10)));
+        assertEquals(List.of("q0", "q3"), prompts(log.recent("ALICE", 10)));
+        assertEquals(List.of("q0", "q3"), prompts(log.recent(ALICE.toString().toUpperCase(Locale.ROOT), 10)));
+        assertEquals(List.of("q3"), prompts(log.recent("Alice", 1)));
+        assertTrue(log.recent("Carol", 10).isEmpty());
+    }
+
+    @Test
+    void readsCompressedSegmentsWhileTheyAreStillBeingWritten() throws Exception {
+        AuditLog log = open(true, 0);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            log.append(entry(now + i, ALICE, "Alice", "q" + i));
+        }
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (log.getWritten() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(List.of("q0", "q1", "q2"), prompts(log.recent("Alice", 10)));
+        log.close();
+        assertEquals(List.of("q0", "q1", "q2"), prompts(log.recent("Alice", 10)));
+    }
+
+    @Test
+    void rotatesSegmentsAndDropsTheOldestOverTheSizeLimit() throws IOException {
+        AuditLog log = open(false, 2);
+        String large = "x".repeat(100 * 1024);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 35; i++) {
+            log.append(entry(now + i, ALICE, "Alice", i + large));
+        }
+        log.close();
+        assertEquals(35, log.getWritten());
+
+        List<AuditLog.Entry> all = log.recent(null, 100);
+        assertTrue(all.size() < 35, "oldest segment should have been deleted");
+        assertEquals("34", all.get(all.size() - 1).prompt.substring(0, 2));
+        // 剩下的记录是连续的最新的一段
+        for (int i = 1; i < all.size(); i++) {
+            assertEquals(all.get(i - 1).time + 1, all.get(i).time);
+        }
+        assertTrue(segmentCount() >= 2);
+    }
+
+    @Test
+    void disabledLogIgnoresEntries() throws IOException {
+        AuditLog log = new AuditLog(directory.resolve("audit"));
+        assertFalse(log.isEnabled());
+        assertFalse(log.append(entry(System.currentTimeMillis(), ALICE, "Alice", "q")));
+        log.close();
+        assertTrue(log.recent(null, 10).isEmpty());
+    }
+
+    @Test
+    void failedBatchesAreNotCountedAsWritten() throws IOException {
+        // 目录的位置被一个普通文件占着，分段文件建不出来
+        Path blocked = Files.createFile(directory.resolve("blocked"));
+        AuditLog log = new AuditLog(blocked);
+        log.configure(config(false, 0));
+        log.append(entry(System.currentTimeMillis(), ALICE, "Alice", "q"));
+        log.close();
+        assertEquals(0, log.getWritten());
+    }
+
+    @Test
+    void ringRejectsOffersWhenFull() {
+        // 容量向上取到 2 的幂
+        AuditLog.Ring ring = new AuditLog.Ring(3);
+        List<AuditLog.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entries.add(entry(i, ALICE, "Alice", "q" + i));
+            assertTrue(ring.offer(entries.get(i)));
+        }
+        assertFalse(ring.offer(entry(4, ALICE, "Alice", "q4")));
+        assertEquals(entries.get(0), ring.poll());
+        assertTrue(ring.offer(entry(4, ALICE, "Alice", "q4")));
+        for (int i = 1; i < 4; i++) {
+            assertEquals(entries.get(i), ring.poll());
+        }
+        assertEquals(4, ring.poll().time);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void ringDeliversEveryEntryFromConcurrentProducersInOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        AuditLog.Ring ring = new AuditLog.Ring(256);
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String name = "p" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    AuditLog.Entry entry = new AuditLog.Entry(i, null, name, "api", "success", null);
+                    while (!ring.offer(entry)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        ready.countDown();
+
+        // 每个生产者的记录按它放入的顺序出现，不丢也不重复
+        long[] next = new long[producers];
+        int received = 0;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received < producers * perProducer && System.nanoTime() < deadline) {
+            AuditLog.Entry entry = ring.poll();
+            if (entry == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int producer = Integer.parseInt(entry.player.substring(1));
+            assertEquals(next[producer], entry.time);
+            next[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+        assertEquals(producers * perProducer, received);
+        assertNull(ring.poll());
+    }
+}
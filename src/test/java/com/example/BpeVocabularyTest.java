@@ -0,0 +1,89 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BpeVocabularyTest {
+    @TempDir
+    Path directory;
+
+    private Path vocabulary(String... tokens) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int rank = 0; rank < tokens.length; rank++) {
+            lines.append(Base64.getEncoder().encodeToString(tokens[rank].getBytes(StandardCharsets.UTF_8)))
+                .append(' ').append(rank).append('\n');
+        }
+        Path file = directory.resolve("vocab.tiktoken");
+        Files.writeString(file, lines);
+        return file;
+    }
+
+    @Test
+    void wholePieceInTheVocabularyIsOneToken() throws IOException {
+        BpeVocabulary vocabulary = BpeVocabulary.load(vocabulary("a", "b", "c", "ab", "bc", "abc"));
+        assertEquals(6, vocabulary.size());
+        assertEquals(1, vocabulary.count("abc"));
+        assertEquals(0, vocabulary.count(""));
+    }
+
+    @Test
+    void mergesLowestRankedPairsFirst() throws IOException {
+        BpeVocabulary vocabulary = BpeVocabulary.load(vocabulary("a", "b", "c", "ab", "bc", "abc"));
+        // ab|c|ab → abc|ab，没有 "abcab" 可以再合并
+        assertEquals(2, vocabulary.count("abcab"));
+        // 先合并 rank 更小的 ab，剩下的 c 不能再和 b 合并
+        assertEquals(2, vocabulary.count("abcc"));
+    }
+
+    @Test
+    void unknownBytesCountOneEach() throws IOException {
+        BpeVocabulary vocabulary = BpeVocabulary.load(vocabulary("a"));
+        // 预分词成 "hello" 和 " world"，没有可合并的对
+        assertEquals(11, vocabulary.count("hello world"));
+        // 每个汉字是 3 个 UTF-8 字节
+        assertEquals(6, vocabulary.count("铁块"));
+    }
+
+    @Test
+    void prefixLengthStopsAtPieceBoundaries() throws IOException {
+        BpeVocabulary vocabulary = BpeVocabulary.load(vocabulary("a", "b", "ab", " ab"));
+        assertEquals(5, vocabulary.prefixLength("ab ab ab", 2));
+        assertEquals(8, vocabulary.prefixLength("ab ab ab", 3));
+        assertEquals(0, vocabulary.prefixLength("ab ab ab", 0));
+    }
+
+    @Test
+    void rejectsMalformedAndEmptyFiles() throws IOException {
+        Path malformed = directory.resolve("malformed.tiktoken");
+        Files.writeString(malformed, "YQ== 0\nYg== x\n");
+        assertThrows(IOException.class, () -> BpeVocabulary.load(malformed));
+
+        Path empty = directory.resolve("empty.tiktoken");
+        Files.writeString(empty, "\n");
+        assertThrows(IOException.class, () -> BpeVocabulary.load(empty));
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() throws IOException {
+        // 只用字母，保证每个 token 预分词后还是一个片段
+        String[] tokens = new String[70_000];
+        for (int i = 0; i < tokens.length; i++) {
+            StringBuilder token = new StringBuilder("t");
+            for (int n = i; n > 0; n /= 26) {
+                token.append((char) ('a' + n % 26));
+            }
+            tokens[i] = token.toString();
+        }
+        BpeVocabulary vocabulary = BpeVocabulary.load(vocabulary(tokens));
+        assertEquals(tokens.length, vocabulary.size());
+        assertEquals(1, vocabulary.count(tokens[tokens.length - 1]));
+    }
+}
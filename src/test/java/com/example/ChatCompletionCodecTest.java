@@ -0,0 +1,175 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import org.junit.jupiter.api.Test;
+
+class ChatCompletionCodecTest {
+    private static final String REPLY = "{\"id\":\"x\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":%s},"
+        + "\"finish_reason\":\"stop\"},{\"message\":{\"content\":\"second\"}}],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":34,"
+        + "\"total_tokens\":46},\"extra\":{\"nested\":[1,2,{\"a\":null}]}}";
+
+    private static byte[] reply(String content) {
+        return String.format(REPLY, ChatCompletionCodec.GSON.toJson(content)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void writesEscapedRequestBody() throws IOException {
+        OpenAIAPIConfig config = ChatCompletionCodec.GSON.fromJson("{\"max_tokens\":100,\"temperature\":0.5}", OpenAIAPIConfig.class);
+        List<ChatMessage> messages = List.of(new ChatMessage(ChatMessage.SYSTEM, "say \"hi\"\n\\ok"),
+            new ChatMessage(ChatMessage.USER, "怎么合成活塞？😀"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChatCompletionCodec.writeRequest(out, "gpt-test", config, messages, true);
+
+        JsonObject json = ChatCompletionCodec.GSON.fromJson(out.toString(StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals("gpt-test", json.get("model").getAsString());
+        assertEquals(100, json.get("max_tokens").getAsInt());
+        assertEquals(0.5, json.get("temperature").getAsDouble());
+        assertTrue(json.get("stream").getAsBoolean());
+        JsonArray written = json.getAsJsonArray("messages");
+        assertEquals("system", written.get(0).getAsJsonObject().get("role").getAsString());
+        assertEquals("say \"hi\"\n\\ok", written.get(0).getAsJsonObject().get("content").getAsString());
+        assertEquals("怎么合成活塞？😀", written.get(1).getAsJsonObject().get("content").getAsString());
+    }
+
+    @Test
+    void readsFirstChoiceAndUsage() throws IOException {
+        ChatCompletionCodec.Reply reply = read(reply("answer"));
+        assertEquals("answer", reply.getContent());
+        assertEquals(12, reply.getPromptTokens());
+        assertEquals(34, reply.getCompletionTokens());
+    }
+
+    @Test
+    void reportsMissingUsageAsUnknown() throws IOException {
+        ChatCompletionCodec.Reply reply = read(
+            "{\"choices\":[{\"message\":{\"content\":\"a\"}}]}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(-1, reply.getPromptTokens());
+        assertEquals(-1, reply.getCompletionTokens());
+    }
+
+    @Test
+    void failsOnErrorBodiesAndMissingContent() {
+        IOException error = assertThrows(IOException.class, () -> read(
+            "{\"error\":{\"message\":\"quota exceeded\",\"type\":\"insufficient_quota\"}}".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(error.getMessage().contains("quota exceeded"));
+        assertThrows(IOException.class, () -> read(
+            "{\"choices\":[{\"message\":{\"content\":null}}]}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void readsStreamingDeltas() throws IOException {
+        assertEquals("片段", ChatCompletionCodec.readDelta("{\"choices\":[{\"delta\":{\"content\":\"片段\"}}]}").getContent());
+        assertNull(ChatCompletionCodec.readDelta("{\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}").getContent());
+        ChatCompletionCodec.Reply last = ChatCompletionCodec.readDelta("{\"choices\":[],\"usage\":{\"prompt_tokens\":5,\"completion_tokens\":7}}");
+        assertNull(last.getContent());
+        assertEquals(7, last.getCompletionTokens());
+    }
+
+    @Test
+    void decodesMultiByteCharacters() throws IOException {
+        String text = "a é 中文 😀 ࠀ ￿ end";
+        assertEquals(text, read(reply(text)).getContent());
+    }
+
+    @Test
+    void replacesMalformedUtf8() throws IOException {
+        byte[] prefix = "{\"choices\":[{\"message\":{\"content\":\"a".getBytes(StandardCharsets.UTF_8);
+        byte[] suffix = "b\"}}]}".getBytes(StandardCharsets.UTF_8);
+        // 孤立的续字节、被 ASCII 打断的三字节序列
+        byte[] bad = {(byte) 0x80, (byte) 0xE4, (byte) 0xB8, 'x'};
+        byte[] body = new byte[prefix.length + bad.length + suffix.length];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        System.arraycopy(bad, 0, body, prefix.length, bad.length);
+        System.arraycopy(suffix, 0, body, prefix.length + bad.length, suffix.length);
+        assertEquals("a��xb", read(body).getContent());
+    }
+
+    @Test
+    void subscriberDecodesCharactersSplitAcrossBuffers() throws Exception {
+        String text = "中文😀é回复";
+        byte[] body = reply(text);
+        for (int split = 1; split < body.length; split++) {
+            List<ByteBuffer> first = List.of(ByteBuffer.wrap(body, 0, split).slice());
+            List<ByteBuffer> rest = List.of(ByteBuffer.wrap(body, split, body.length - split).slice());
+            ChatCompletionCodec.Reply reply = subscribe(List.of(first, rest));
+            assertEquals(text, reply.getContent(), "split at " + split);
+            assertEquals(34, reply.getCompletionTokens());
+        }
+    }
+
+    @Test
+    void subscriberHandlesOneByteBuffers() throws Exception {
+        byte[] body = reply("逐字节😀");
+        List<List<ByteBuffer>> batches = new ArrayList<>();
+        for (byte b : body) {
+            batches.add(List.of(ByteBuffer.wrap(new byte[] {b}), ByteBuffer.allocate(0)));
+        }
+        assertEquals("逐字节😀", subscribe(batches).getContent());
+    }
+
+    @Test
+    void subscriberReadsReadOnlyAndDirectBuffers() throws Exception {
+        byte[] body = reply("只读和堆外😀");
+        int half = body.length / 2;
+        ByteBuffer readOnly = ByteBuffer.wrap(body, 0, half).slice().asReadOnlyBuffer();
+        ByteBuffer direct = ByteBuffer.allocateDirect(body.length - half);
+        direct.put(body, half, body.length - half).flip();
+        assertEquals("只读和堆外😀", subscribe(List.of(List.of(readOnly, direct))).getContent());
+    }
+
+    @Test
+    void subscriberFailsOnMalformedBody() {
+        ExecutionException error = assertThrows(ExecutionException.class,
+            () -> subscribe(List.of(List.of(ByteBuffer.wrap("{\"choices\":[".getBytes(StandardCharsets.UTF_8))))));
+        assertInstanceOf(IOException.class, error.getCause());
+    }
+
+    // 和 HttpClient 一样经订阅者解析，整个响应体作为一个缓冲区交付
+    private static ChatCompletionCodec.Reply read(byte[] body) throws IOException {
+        try {
+            return subscribe(List.of(List.of(ByteBuffer.wrap(body))));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ChatCompletionCodec.Reply subscribe(List<List<ByteBuffer>> batches)
+        throws ExecutionException, InterruptedException {
+        BodySubscriber<ChatCompletionCodec.Reply> subscriber = ChatCompletionCodec.replySubscriber();
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        for (List<ByteBuffer> batch : batches) {
+            subscriber.onNext(batch);
+        }
+        subscriber.onComplete();
+        return subscriber.getBody().toCompletableFuture().get();
+    }
+}
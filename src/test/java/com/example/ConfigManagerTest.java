@@ -0,0 +1,132 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigManagerTest {
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private ConfigManager manager;
+    private final AtomicInteger published = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = dir.resolve("ai-for-minecraft.json");
+        manager = new ConfigManager(file);
+        manager.load();
+        manager.addListener(config -> published.incrementAndGet());
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private void writeExternally(int maxTokens) throws IOException {
+        Files.writeString(file, "{\"api_key\":\"sk-test\",\"max_tokens\":" + maxTokens + "}");
+    }
+
+    private static boolean await(BooleanSupplier condition, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    @Test
+    void loadCreatesTheDefaultFile() {
+        assertTrue(Files.exists(file));
+        assertEquals(1000, manager.get().getMaxTokens());
+        assertEquals("gpt-3.5-turbo", manager.get().getModel());
+    }
+
+    @Test
+    void setRejectsUnknownOptionsAndMalformedValues() {
+        assertThrows(IllegalArgumentException.class, () -> manager.set("no_such_option", "1"));
+        assertThrows(IllegalArgumentException.class, () -> manager.set("max_tokens", "-1"));
+        assertThrows(IllegalArgumentException.class, () -> manager.set("max_tokens", "many"));
+        assertThrows(IllegalArgumentException.class, () -> manager.set("temperature", "NaN"));
+        assertThrows(IllegalArgumentException.class, () -> manager.set("stream", "yes"));
+        // 列表只能编辑文件
+        assertThrows(IllegalArgumentException.class, () -> manager.set("endpoints", "[]"));
+        assertEquals(0, published.get());
+        assertEquals(1000, manager.get().getMaxTokens());
+        assertFalse(ConfigManager.getOptionNames().contains("endpoints"));
+    }
+
+    @Test
+    void setPublishesImmediatelyAndPersistsOnClose() throws IOException {
+        OpenAIAPIConfig snapshot = manager.set("MAX_TOKENS", " 500 ");
+        assertEquals(500, snapshot.getMaxTokens());
+        assertEquals(500, manager.get().getMaxTokens());
+        assertEquals(1, published.get());
+        manager.set("stream", "TRUE");
+        assertTrue(manager.get().isStreamEnabled());
+
+        manager.close();
+        Map<?, ?> saved = ChatCompletionCodec.GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), Map.class);
+        // 整数按默认值的类型写回，不会变成 500.0
+        assertTrue(Files.readString(file).contains("\"max_tokens\": 500,"));
+        assertEquals(true, saved.get("stream"));
+    }
+
+    @Test
+    void burstOfExternalEditsReloadsOnce() throws Exception {
+        manager.startWatching();
+        for (int i = 1; i <= 5; i++) {
+            writeExternally(100 * i);
+        }
+        assertTrue(await(() -> manager.get().getMaxTokens() == 500, 5000));
+        // 防抖期过后也不会再重载
+        Thread.sleep(1000);
+        assertEquals(1, published.get());
+    }
+
+    @Test
+    void ignoresItsOwnWriteButNotLaterEdits() throws Exception {
+        manager.startWatching();
+        manager.set("max_tokens", "321");
+        assertTrue(await(() -> {
+            try {
+                return Files.readString(file).contains("\"max_tokens\": 321");
+            } catch (IOException e) {
+                return false;
+            }
+        }, 5000));
+        Thread.sleep(1000);
+        assertEquals(1, published.get());
+
+        writeExternally(654);
+        assertTrue(await(() -> manager.get().getMaxTokens() == 654, 5000));
+        assertEquals(2, published.get());
+    }
+
+    @Test
+    void brokenFileKeepsThePreviousSnapshot() throws Exception {
+        writeExternally(222);
+        manager.load();
+        Files.writeString(file, "{not json");
+        assertThrows(RuntimeException.class, manager::load);
+        assertEquals(222, manager.get().getMaxTokens());
+    }
+}
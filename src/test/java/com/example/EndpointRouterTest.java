@@ -0,0 +1,154 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class EndpointRouterTest {
+    private final EndpointRouter router = new EndpointRouter(HttpClient.newHttpClient());
+    // 每次调用依次选中的端点名
+    private final List<String> chosen = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+    }
+
+    private void configure(String fields) {
+        router.configure(ChatCompletionCodec.GSON.fromJson("{\"api_url\":\"http://localhost\",\"api_key\":\"k\","
+            + "\"health_check_interval_seconds\":0,\"endpoints\":["
+            + "{\"name\":\"a\",\"api_url\":\"http://a.invalid/v1/chat/completions\"},"
+            + "{\"name\":\"b\",\"api_url\":\"http://b.invalid/v1/chat/completions\"}]" + fields + "}", OpenAIAPIConfig.class));
+    }
+
+    private CompletableFuture<String> execute(Function<String, CompletableFuture<String>> byName) {
+        return router.execute(endpoint -> {
+            chosen.add(endpoint.getName());
+            return byName.apply(endpoint.getName());
+        }, () -> true);
+    }
+
+    private Endpoint.Stats stats(String name) {
+        for (Endpoint.Stats stats : router.snapshot()) {
+            if (stats.name.equals(name)) {
+                return stats;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    private static Throwable failure(CompletableFuture<String> future) {
+        return assertThrows(ExecutionException.class, future::get).getCause();
+    }
+
+    @Test
+    void routesToTheLowerLatencyEndpoint() throws Exception {
+        configure("");
+        // 分数相同时按配置顺序选第一个；a 回复慢，之后的请求都去 b
+        assertEquals("a", execute(name -> CompletableFuture.supplyAsync(() -> name,
+            CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS))).get());
+        assertEquals("b", execute(CompletableFuture::completedFuture).get());
+        assertEquals("b", execute(CompletableFuture::completedFuture).get());
+        assertEquals(List.of("a", "b", "b"), chosen);
+    }
+
+    @Test
+    void failsOverAndOpensTheCircuit() throws Exception {
+        configure(",\"circuit_failure_threshold\":1");
+        String result = execute(name -> name.equals("a")
+            ? CompletableFuture.failedFuture(new ApiHttpException(503, "unavailable"))
+            : CompletableFuture.completedFuture(name)).get();
+        assertEquals("b", result);
+        assertEquals(Endpoint.State.OPEN, stats("a").state);
+        assertEquals(1, stats("a").failures);
+
+        // 熔断期间不再选 a
+        execute(CompletableFuture::completedFuture).get();
+        assertEquals(List.of("a", "b", "b"), chosen);
+    }
+
+    @Test
+    void stopsAfterMaxFailoverAttemptsWithTheLastError() {
+        configure(",\"max_failover_attempts\":1");
+        ApiHttpException error = new ApiHttpException(500, "boom");
+        assertSame(error, failure(execute(name -> CompletableFuture.failedFuture(error))));
+        assertEquals(List.of("a"), chosen);
+    }
+
+    @Test
+    void rejectsWhenEveryEndpointIsOpen() {
+        configure(",\"circuit_failure_threshold\":1");
+        ApiHttpException last = new ApiHttpException(429, "b");
+        Throwable error = failure(execute(name -> CompletableFuture.failedFuture(
+            name.equals("a") ? new ApiHttpException(429, "a") : last)));
+        assertSame(last, error);
+
+        assertInstanceOf(RequestRejectedException.class, failure(execute(CompletableFuture::completedFuture)));
+        assertEquals(List.of("a", "b"), chosen);
+    }
+
+    @Test
+    void clientErrorsAreNeitherRetriedNorCounted() {
+        configure(",\"circuit_failure_threshold\":1");
+        assertInstanceOf(ApiHttpException.class,
+            failure(execute(name -> CompletableFuture.failedFuture(new ApiHttpException(400, "bad request")))));
+        assertEquals(List.of("a"), chosen);
+        assertEquals(Endpoint.State.CLOSED, stats("a").state);
+        assertEquals(0, stats("a").failures);
+        assertEquals(0, stats("a").inFlight);
+    }
+
+    @Test
+    void noRetryOnceOutputHasStarted() {
+        configure("");
+        router.execute(endpoint -> {
+            chosen.add(endpoint.getName());
+            return CompletableFuture.failedFuture(new ApiHttpException(502, "bad gateway"));
+        }, () -> false);
+        assertEquals(List.of("a"), chosen);
+        assertEquals(1, stats("a").failures);
+    }
+
+    @Test
+    void timeoutsCountOnlyWhenTheEndpointHadEnoughTime() throws Exception {
+        // 请求时限 1 秒：立即超时说明调用自己的时间用完了，不怪端点
+        configure(",\"request_timeout_seconds\":1,\"circuit_failure_threshold\":1");
+        assertInstanceOf(HttpTimeoutException.class,
+            failure(execute(name -> CompletableFuture.failedFuture(new HttpTimeoutException("timed out")))));
+        assertEquals(List.of("a"), chosen);
+        assertEquals(Endpoint.State.CLOSED, stats("a").state);
+
+        // 用了超过一半时限仍然超时，算端点故障并换端点
+        String result = execute(name -> name.equals("a")
+            ? CompletableFuture.supplyAsync(() -> {
+                throw new CompletionException(new HttpTimeoutException("timed out"));
+            }, CompletableFuture.delayedExecutor(600, TimeUnit.MILLISECONDS))
+            : CompletableFuture.completedFuture(name)).get();
+        assertEquals("b", result);
+        assertEquals(Endpoint.State.OPEN, stats("a").state);
+    }
+
+    @Test
+    void reconfigureKeepsStatsOfUnchangedEndpoints() throws Exception {
+        configure(",\"circuit_failure_threshold\":1");
+        execute(name -> name.equals("a")
+            ? CompletableFuture.failedFuture(new ApiHttpException(503, "unavailable"))
+            : CompletableFuture.completedFuture(name)).get();
+        configure(",\"circuit_failure_threshold\":5");
+        assertEquals(Endpoint.State.OPEN, stats("a").state);
+        assertEquals(1, stats("b").requests);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EndpointTest {
+    private static final long OPEN_MILLIS = 500;
+
+    private static Endpoint endpoint(String fields) {
+        EndpointConfig config = ChatCompletionCodec.GSON.fromJson(
+            "{\"name\":\"test\",\"api_url\":\"http://localhost/v1/chat/completions\"" + fields + "}", EndpointConfig.class);
+        return new Endpoint("test", config, "model");
+    }
+
+    private static void fail(Endpoint endpoint, long now, int threshold) {
+        assertTrue(endpoint.tryAcquire(now, OPEN_MILLIS));
+        endpoint.onFailure(now, threshold);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailuresOnly() {
+        Endpoint endpoint = endpoint("");
+        fail(endpoint, 0, 3);
+        fail(endpoint, 0, 3);
+        // 成功一次清零连续失败计数
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        endpoint.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        fail(endpoint, 0, 3);
+        fail(endpoint, 0, 3);
+        assertEquals(Endpoint.State.CLOSED, endpoint.stats().state);
+
+        assertTrue(endpoint.tryAcquire(1000, OPEN_MILLIS));
+        assertTrue(endpoint.onFailure(1000, 3));
+        assertEquals(Endpoint.State.OPEN, endpoint.stats().state);
+        assertFalse(endpoint.isAvailable(1000 + OPEN_MILLIS - 1, OPEN_MILLIS));
+        assertFalse(endpoint.tryAcquire(1000 + OPEN_MILLIS - 1, OPEN_MILLIS));
+    }
+
+    @Test
+    void halfOpenAdmitsOneTrialAndClosesOnSuccess() {
+        Endpoint endpoint = endpoint("");
+        fail(endpoint, 1000, 1);
+        assertTrue(endpoint.isOpen());
+
+        long cooled = 1000 + OPEN_MILLIS;
+        assertTrue(endpoint.tryAcquire(cooled, OPEN_MILLIS));
+        assertEquals(Endpoint.State.HALF_OPEN, endpoint.stats().state);
+        assertFalse(endpoint.tryAcquire(cooled, OPEN_MILLIS));
+
+        endpoint.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(Endpoint.State.CLOSED, endpoint.stats().state);
+        assertTrue(endpoint.tryAcquire(cooled, OPEN_MILLIS));
+        assertTrue(endpoint.tryAcquire(cooled, OPEN_MILLIS));
+    }
+
+    @Test
+    void failedTrialReopensForAnotherCooldown() {
+        Endpoint endpoint = endpoint("");
+        fail(endpoint, 1000, 1);
+        assertTrue(endpoint.tryAcquire(2000, OPEN_MILLIS));
+        assertTrue(endpoint.onFailure(2000, 1));
+        assertEquals(Endpoint.State.OPEN, endpoint.stats().state);
+        assertFalse(endpoint.isAvailable(2000 + OPEN_MILLIS - 1, OPEN_MILLIS));
+        assertTrue(endpoint.isAvailable(2000 + OPEN_MILLIS, OPEN_MILLIS));
+    }
+
+    @Test
+    void inconclusiveTrialLetsTheNextOneTry() {
+        Endpoint endpoint = endpoint("");
+        fail(endpoint, 1000, 1);
+        assertTrue(endpoint.tryAcquire(2000, OPEN_MILLIS));
+        endpoint.onNeutral();
+        assertTrue(endpoint.isOpen());
+        assertTrue(endpoint.tryAcquire(2000, OPEN_MILLIS));
+        assertEquals(Endpoint.State.HALF_OPEN, endpoint.stats().state);
+    }
+
+    @Test
+    void passedHealthCheckSkipsTheCooldown() {
+        Endpoint endpoint = endpoint("");
+        long now = System.currentTimeMillis();
+        fail(endpoint, now, 1);
+        assertFalse(endpoint.isAvailable(now + 1, 30_000));
+        endpoint.onProbeSuccess();
+        assertTrue(endpoint.isAvailable(now + 1, 30_000));
+    }
+
+    @Test
+    void respectsMaxConcurrent() {
+        Endpoint endpoint = endpoint(",\"max_concurrent\":2");
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        assertFalse(endpoint.tryAcquire(0, OPEN_MILLIS));
+        endpoint.onNeutral();
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        assertEquals(2, endpoint.stats().inFlight);
+    }
+
+    @Test
+    void latencyAndErrorRateAreMovingAverages() {
+        Endpoint endpoint = endpoint("");
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        endpoint.onSuccess(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(100, endpoint.stats().latencyMillis, 1e-9);
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        endpoint.onSuccess(TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(130, endpoint.stats().latencyMillis, 1e-9);
+
+        fail(endpoint, 0, 5);
+        assertEquals(0.1, endpoint.stats().errorRate, 1e-9);
+        assertTrue(endpoint.tryAcquire(0, OPEN_MILLIS));
+        endpoint.onSuccess(TimeUnit.MILLISECONDS.toNanos(130));
+        assertEquals(0.09, endpoint.stats().errorRate, 1e-9);
+        assertEquals(4, endpoint.stats().requests);
+        assertEquals(1, endpoint.stats().failures);
+    }
+
+    @Test
+    void scorePrefersFastLightAndHeavilyWeightedEndpoints() {
+        Endpoint slow = endpoint("");
+        Endpoint fast = endpoint("");
+        assertTrue(slow.tryAcquire(0, OPEN_MILLIS));
+        slow.onSuccess(TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(fast.tryAcquire(0, OPEN_MILLIS));
+        fast.onSuccess(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(fast.score() < slow.score());
+
+        // 在途请求多了，快的端点也会让位
+        for (int i = 0; i < 3; i++) {
+            assertTrue(fast.tryAcquire(0, OPEN_MILLIS));
+        }
+        assertTrue(fast.score() > slow.score());
+
+        Endpoint heavy = endpoint(",\"weight\":4");
+        assertTrue(heavy.tryAcquire(0, OPEN_MILLIS));
+        heavy.onSuccess(TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(heavy.score() < slow.score());
+    }
+}
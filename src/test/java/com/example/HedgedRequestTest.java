@@ -0,0 +1,167 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HedgedRequestTest {
+    private final RequestControl control = new RequestControl(Duration.ofMinutes(1));
+    private final HedgedRequest hedge = new HedgedRequest(control);
+    private final List<CompletableFuture<String>> attempts = new ArrayList<>();
+    private final List<RequestControl> controls = new ArrayList<>();
+    // 对冲任务交给测试线程手动执行，时机完全由测试决定
+    private final BlockingQueue<Runnable> hedgeTasks = new LinkedBlockingQueue<>();
+
+    private CompletableFuture<String> start(long hedgeDelayMillis) {
+        return hedge.start((index, attemptControl) -> {
+            assertEquals(attempts.size(), index);
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempts.add(attempt);
+            controls.add(attemptControl);
+            return attempt;
+        }, hedgeDelayMillis, hedgeTasks::add);
+    }
+
+    private void runHedge() throws InterruptedException {
+        Runnable task = hedgeTasks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(task, "hedge task was not scheduled");
+        task.run();
+    }
+
+    private static Throwable failure(CompletableFuture<String> future) {
+        return assertThrows(ExecutionException.class, future::get).getCause();
+    }
+
+    @Test
+    void negativeDelayNeverHedges() throws Exception {
+        CompletableFuture<String> result = start(-1);
+        assertEquals(1, attempts.size());
+        assertTrue(hedgeTasks.isEmpty());
+
+        assertTrue(hedge.onFirstByte(0));
+        attempts.get(0).complete("primary");
+        assertEquals("primary", result.get());
+        assertFalse(hedge.isHedged());
+    }
+
+    @Test
+    void hedgeWinsWhenItsResponseArrivesFirst() throws Exception {
+        CompletableFuture<String> result = start(0);
+        runHedge();
+        assertEquals(2, attempts.size());
+        assertTrue(hedge.isHedged());
+
+        assertTrue(hedge.onFirstByte(1));
+        // 胜负已定，主尝试被取消，之后收到的响应头不再算数
+        assertTrue(controls.get(0).isCancelled());
+        assertFalse(hedge.onFirstByte(0));
+        assertTrue(hedge.isWinner(1));
+
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.get());
+        assertTrue(hedge.isHedgeWon());
+        assertFalse(controls.get(1).isCancelled());
+    }
+
+    @Test
+    void primaryResponseBeforeDelayClosesTheHedge() throws Exception {
+        CompletableFuture<String> result = start(0);
+        assertTrue(hedge.onFirstByte(0));
+        runHedge();
+        assertEquals(1, attempts.size());
+        assertFalse(hedge.isHedged());
+
+        attempts.get(0).complete("primary");
+        assertEquals("primary", result.get());
+    }
+
+    @Test
+    void primaryFailureBeforeHedgeIsReturnedWithoutHedging() throws Exception {
+        CompletableFuture<String> result = start(0);
+        IllegalStateException error = new IllegalStateException("primary");
+        attempts.get(0).completeExceptionally(error);
+        assertSame(error, failure(result));
+
+        runHedge();
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    void waitsForTheOtherAttemptWhenOneFailsBeforeAnyResponse() throws Exception {
+        CompletableFuture<String> result = start(0);
+        runHedge();
+
+        attempts.get(0).completeExceptionally(new IllegalStateException("primary"));
+        assertFalse(result.isDone());
+        assertTrue(hedge.onFirstByte(1));
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.get());
+    }
+
+    @Test
+    void bothFailingReportsThePrimaryError() throws Exception {
+        CompletableFuture<String> result = start(0);
+        runHedge();
+        IllegalStateException primary = new IllegalStateException("primary");
+
+        attempts.get(1).completeExceptionally(new IllegalStateException("hedge"));
+        assertFalse(result.isDone());
+        attempts.get(0).completeExceptionally(primary);
+        assertSame(primary, failure(result));
+    }
+
+    @Test
+    void winnerFailingMidStreamFailsTheCall() throws Exception {
+        CompletableFuture<String> result = start(0);
+        runHedge();
+        assertTrue(hedge.onFirstByte(0));
+        IllegalStateException error = new IllegalStateException("stream broken");
+
+        attempts.get(0).completeExceptionally(error);
+        assertSame(error, failure(result));
+    }
+
+    @Test
+    void loserFinishingLateDoesNotChangeTheResult() throws Exception {
+        CompletableFuture<String> result = start(0);
+        runHedge();
+        assertTrue(hedge.onFirstByte(0));
+
+        attempts.get(1).complete("loser");
+        assertFalse(result.isDone());
+        attempts.get(0).complete("winner");
+        assertEquals("winner", result.get());
+    }
+
+    @Test
+    void cancellingTheCallCancelsEveryAttemptAndSkipsTheHedge() throws Exception {
+        start(0);
+        control.cancel();
+        assertTrue(controls.get(0).isCancelled());
+
+        runHedge();
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    void attemptThatThrowsFailsTheCall() {
+        IllegalStateException error = new IllegalStateException("no endpoint");
+        CompletableFuture<String> result = hedge.start((index, attemptControl) -> {
+            throw error;
+        }, -1, Runnable::run);
+        assertSame(error, failure(result));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KnowledgeIndexTest {
+    private static final KnowledgeIndex.Document IRON_BLOCK = item("minecraft:iron_block", "铁块", "Block of Iron");
+    private static final KnowledgeIndex.Document IRON_BLOCK_RECIPE = recipe("minecraft:iron_block", "铁块",
+        "铁块：9 个铁锭在工作台合成");
+    private static final KnowledgeIndex.Document ENDER_EYE = item("minecraft:ender_eye", "末影之眼", "Eye of Ender");
+    private static final KnowledgeIndex.Document ENDER_EYE_RECIPE = recipe("minecraft:ender_eye", "末影之眼",
+        "末影之眼：末影珍珠和烈焰粉无序合成");
+    private static final KnowledgeIndex.Document CREEPER_HEAD = item("minecraft:creeper_head", "苦力怕的头颅", "Creeper Head");
+    private static final KnowledgeIndex.Document CREEPER_HEAD_RECIPE = recipe("minecraft:creeper_head", "苦力怕的头颅",
+        "苦力怕的头颅：测试用配方");
+    private static final KnowledgeIndex.Document STICK = item("minecraft:stick", "木棍", "Stick");
+
+    private final KnowledgeIndex index = new KnowledgeIndex();
+
+    private static KnowledgeIndex.Document item(String id, String title, String englishName) {
+        return new KnowledgeIndex.Document("item:" + id, KnowledgeIndex.Kind.ITEM, id, title, List.of(title, englishName, id),
+            title + " " + englishName, title + "（" + id + "）");
+    }
+
+    private static KnowledgeIndex.Document recipe(String id, String product, String summary) {
+        return new KnowledgeIndex.Document("recipe:" + id, KnowledgeIndex.Kind.RECIPE, id, product, List.of(), summary, summary);
+    }
+
+    @BeforeEach
+    void fill() {
+        index.update(List.of(IRON_BLOCK, IRON_BLOCK_RECIPE, ENDER_EYE, ENDER_EYE_RECIPE, CREEPER_HEAD, CREEPER_HEAD_RECIPE, STICK));
+    }
+
+    @Test
+    void answersRecipeQuestionsInEitherLanguage() {
+        String answer = index.answer("怎么合成铁块？");
+        assertNotNull(answer);
+        assertTrue(answer.contains("9 个铁锭"));
+        assertNotNull(index.answer("how do I craft iron_block"));
+        assertEquals(2, index.getAnswered());
+    }
+
+    @Test
+    void namesContainingNoiseWordsStillMatch() {
+        // 名称里的 of、的 和问题里的一样被去掉
+        assertNotNull(index.answer("how do I craft a block of iron"));
+        assertNotNull(index.answer("Block of Iron recipe"));
+        assertNotNull(index.answer("how to make eye of ender"));
+        assertNotNull(index.answer("苦力怕的头颅怎么做"));
+        assertNotNull(index.answer("合成一块铁块"));
+    }
+
+    @Test
+    void doesNotAnswerOtherQuestions() {
+        // 不是配方问题
+        assertNull(index.answer("铁块有什么用"));
+        // 名称对不上
+        assertNull(index.answer("怎么合成铁"));
+        // 物品没有配方
+        assertNull(index.answer("怎么合成木棍"));
+        // 太长的问题通常不是单纯的查询
+        assertNull(index.answer("how do I craft a block of iron if I only have a furnace and some raw iron ore"));
+        assertEquals(0, index.getAnswered());
+    }
+
+    @Test
+    void searchRanksDocumentsMentioningTheQuery() {
+        List<KnowledgeIndex.Hit> hits = index.search("末影珍珠", 3);
+        assertFalse(hits.isEmpty());
+        assertEquals(ENDER_EYE_RECIPE, hits.get(0).document);
+        assertTrue(index.search("   ", 3).isEmpty());
+        assertTrue(index.search("铁块", 0).isEmpty());
+    }
+
+    @Test
+    void contextOnlyIncludesRelevantDocuments() {
+        String context = index.context("末影之眼要用什么", 2);
+        assertNotNull(context);
+        assertTrue(context.contains("末影珍珠和烈焰粉"));
+        assertNull(index.context("redstone comparator timing", 2));
+    }
+
+    @Test
+    void updateReportsChangesAndDropsRemovedNames() {
+        List<KnowledgeIndex.Document> documents = new ArrayList<>(List.of(IRON_BLOCK, IRON_BLOCK_RECIPE, STICK));
+        documents.add(recipe("minecraft:stick", "木棍", "木棍：两块木板竖着放"));
+        KnowledgeIndex.UpdateResult result = index.update(documents);
+        assertEquals(1, result.added);
+        assertEquals(0, result.changed);
+        assertEquals(4, result.removed);
+        assertEquals(4, index.size());
+        assertNull(index.answer("how to make eye of ender"));
+        assertNotNull(index.answer("怎么合成木棍"));
+
+        result = index.update(List.of(IRON_BLOCK, recipe("minecraft:iron_block", "铁块", "铁块：新的配方")));
+        assertEquals(0, result.added);
+        assertEquals(1, result.changed);
+        assertEquals(2, result.removed);
+        assertTrue(index.answer("怎么合成铁块").contains("新的配方"));
+        assertEquals("铁块", index.displayName("minecraft:iron_block"));
+        assertNull(index.displayName("minecraft:stick"));
+    }
+
+    @Test
+    void contentHashDependsOnlyOnTheDocuments() {
+        long hash = index.getContentHash();
+        KnowledgeIndex reordered = new KnowledgeIndex();
+        reordered.update(List.of(STICK, CREEPER_HEAD_RECIPE, CREEPER_HEAD, ENDER_EYE_RECIPE, ENDER_EYE, IRON_BLOCK_RECIPE, IRON_BLOCK));
+        assertEquals(hash, reordered.getContentHash());
+
+        reordered.update(List.of(STICK, CREEPER_HEAD_RECIPE, CREEPER_HEAD, ENDER_EYE_RECIPE, ENDER_EYE, IRON_BLOCK,
+            recipe("minecraft:iron_block", "铁块", "铁块：新的配方")));
+        assertNotEquals(hash, reordered.getContentHash());
+        reordered.clear();
+        assertEquals(0, reordered.getContentHash());
+    }
+
+    @Test
+    void normalizesNamesTheSameWayAsQuestions() {
+        assertEquals("blockiron", KnowledgeIndex.nameKey("Block of Iron"));
+        assertEquals("blockiron", KnowledgeIndex.nameKey("How do I craft a block of iron?"));
+        assertEquals("ironblock", KnowledgeIndex.nameKey("minecraft:iron_block"));
+        assertEquals("苦力怕头颅", KnowledgeIndex.nameKey("苦力怕的头颅"));
+        // 全是虚词时保留原文
+        assertEquals("of", KnowledgeIndex.nameKey("of"));
+    }
+}
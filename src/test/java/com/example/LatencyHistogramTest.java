@@ -0,0 +1,149 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+    // 每个二进制量级 16 个子桶
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 16;
+
+    private static void recordMillis(LatencyHistogram histogram, double millis) {
+        histogram.record(Math.round(millis * 1_000_000));
+    }
+
+    // 估算值取桶的上界：不低于真实值，也不超出相对误差
+    private static void assertEstimate(double expectedMillis, double actualMillis) {
+        assertTrue(actualMillis >= expectedMillis, actualMillis + " < " + expectedMillis);
+        assertTrue(actualMillis <= expectedMillis * (1 + MAX_RELATIVE_ERROR) + 0.001, actualMillis + " > " + expectedMillis);
+    }
+
+    @Test
+    void valuesBelowThirtyTwoMicrosAreExact() {
+        for (int micros = 0; micros < 32; micros++) {
+            assertEquals(micros, LatencyHistogram.bucketOf(micros));
+            assertEquals(micros + 1, LatencyHistogram.upperBound(micros));
+        }
+        // 32 微秒以上每个桶宽 2 微秒，此后每个量级翻倍
+        assertEquals(31, LatencyHistogram.bucketOf(31));
+        assertEquals(32, LatencyHistogram.bucketOf(32));
+        assertEquals(32, LatencyHistogram.bucketOf(33));
+        assertEquals(34, LatencyHistogram.upperBound(32));
+    }
+
+    @Test
+    void bucketsAreContiguousAndBoundTheirValues() {
+        int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        for (int bucket = 1; bucket < last; bucket++) {
+            long lower = LatencyHistogram.upperBound(bucket - 1);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(upper > lower);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper - 1));
+            // 桶宽不超过下界的 1/16
+            assertTrue(upper - lower <= Math.max(1, lower / 16), "bucket " + bucket);
+        }
+    }
+
+    @Test
+    void hugeValuesGoToTheLastBucket() {
+        int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        // 超出记录范围的值和最高的子桶合并
+        assertEquals(last, LatencyHistogram.bucketOf(1L << 37));
+        assertEquals(last, LatencyHistogram.bucketOf(1L << 50));
+        assertEquals(last - 1, LatencyHistogram.bucketOf((1L << 37) - (1L << 32) - 1));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertTrue(histogram.percentileMillis(100) > 0);
+        assertEquals(0.001, histogram.percentileMillis(1), 1e-9);
+    }
+
+    @Test
+    void emptyOrSparseHistogramsReportNoPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.percentile(50, 0));
+        assertEquals(-1, histogram.percentileMillis(50), 1e-9);
+        for (int i = 0; i < 5; i++) {
+            recordMillis(histogram, 10);
+        }
+        assertEquals(-1, histogram.percentile(50, 6));
+        assertTrue(histogram.percentile(50, 5) >= 10);
+    }
+
+    @Test
+    void uniformDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            recordMillis(histogram, millis);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEstimate(500, histogram.percentileMillis(50));
+        assertEstimate(900, histogram.percentileMillis(90));
+        assertEstimate(990, histogram.percentileMillis(99));
+        assertEstimate(1000, histogram.percentileMillis(100));
+        assertEstimate(1, histogram.percentileMillis(0));
+        // 整数毫秒向上取整
+        long p50 = histogram.percentile(50, 1);
+        assertTrue(p50 >= 500 && p50 <= 532, String.valueOf(p50));
+        assertEquals(500_500, TimeUnit.NANOSECONDS.toMillis(histogram.getSumNanos()));
+    }
+
+    @Test
+    void bimodalDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            recordMillis(histogram, 20);
+        }
+        for (int i = 0; i < 10; i++) {
+            recordMillis(histogram, 2000);
+        }
+        assertEstimate(20, histogram.percentileMillis(50));
+        assertEstimate(20, histogram.percentileMillis(90));
+        assertEstimate(2000, histogram.percentileMillis(91));
+        assertEstimate(2000, histogram.percentileMillis(99));
+    }
+
+    @Test
+    void exponentialDistributionMatchesExactPercentiles() {
+        Random random = new Random(42);
+        int n = 20_000;
+        double[] samples = new double[n];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < n; i++) {
+            // 平均 200ms 的指数分布
+            samples[i] = Math.ceil(-200 * Math.log(1 - random.nextDouble()) * 1000) / 1000;
+            recordMillis(histogram, samples[i]);
+        }
+        Arrays.sort(samples);
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            double exact = samples[(int) Math.ceil(n * percentile / 100) - 1];
+            assertEstimate(exact, histogram.percentileMillis(percentile));
+        }
+    }
+
+    @Test
+    void decayingHistogramFollowsTheRecentDistribution() {
+        LatencyHistogram decaying = LatencyHistogram.decaying();
+        LatencyHistogram cumulative = new LatencyHistogram();
+        for (int i = 0; i < 4000; i++) {
+            recordMillis(decaying, 50);
+            recordMillis(cumulative, 50);
+        }
+        for (int i = 0; i < 4000; i++) {
+            recordMillis(decaying, 400);
+            recordMillis(cumulative, 400);
+        }
+        assertTrue(decaying.getCount() < 2048);
+        assertEquals(8000, cumulative.getCount());
+        // 旧样本减半了好几次，中位数已经是新的延迟；累计直方图的中位数还是旧的
+        assertEstimate(400, decaying.percentileMillis(50));
+        assertEstimate(50, cumulative.percentileMillis(50));
+    }
+}
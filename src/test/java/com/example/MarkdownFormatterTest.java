@@ -0,0 +1,158 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MarkdownFormatterTest {
+    private static List<List<MarkdownFormatter.Span>> format(String text) {
+        return MarkdownFormatter.format(text, 256, true);
+    }
+
+    private static String plain(List<MarkdownFormatter.Span> spans) {
+        StringBuilder sb = new StringBuilder();
+        for (MarkdownFormatter.Span span : spans) {
+            sb.append(span.getText());
+        }
+        return sb.toString();
+    }
+
+    private static List<String> lines(List<List<MarkdownFormatter.Span>> chunks) {
+        List<String> lines = new ArrayList<>();
+        for (List<MarkdownFormatter.Span> chunk : chunks) {
+            lines.add(plain(chunk));
+        }
+        return lines;
+    }
+
+    private static List<String> describe(List<List<MarkdownFormatter.Span>> chunks) {
+        List<String> described = new ArrayList<>();
+        for (List<MarkdownFormatter.Span> chunk : chunks) {
+            StringBuilder sb = new StringBuilder();
+            for (MarkdownFormatter.Span span : chunk) {
+                sb.append('[').append(span.getStyle()).append(']').append(span.getText());
+            }
+            described.add(sb.toString());
+        }
+        return described;
+    }
+
+    @Test
+    void convertsInlineStyles() {
+        List<MarkdownFormatter.Span> spans = format("a **bold** *it* ~~gone~~ `x*y`").get(0);
+        assertEquals("a bold it gone x*y", plain(spans));
+        assertEquals("bold", spans.get(1).getText());
+        assertTrue(spans.get(1).has(MarkdownFormatter.BOLD));
+        assertTrue(spans.get(3).has(MarkdownFormatter.ITALIC));
+        assertTrue(spans.get(5).has(MarkdownFormatter.STRIKETHROUGH));
+        assertEquals("x*y", spans.get(7).getText());
+        assertEquals(MarkdownFormatter.CODE, spans.get(7).getStyle());
+    }
+
+    @Test
+    void leavesArithmeticAndEscapedMarkersAlone() {
+        List<MarkdownFormatter.Span> spans = format("2 * 3 * 4 = 24, \\*literal\\*").get(0);
+        assertEquals(1, spans.size());
+        assertEquals("2 * 3 * 4 = 24, *literal*", spans.get(0).getText());
+        assertEquals(0, spans.get(0).getStyle());
+    }
+
+    @Test
+    void convertsBlocks() {
+        List<List<MarkdownFormatter.Span>> chunks = format("# 标题\n## 小节\n- 第一项\n> 引用");
+        assertEquals(List.of("标题", "小节", "• 第一项", "引用"), lines(chunks));
+        assertTrue(chunks.get(0).get(0).has(MarkdownFormatter.HEADING1));
+        assertTrue(chunks.get(1).get(0).has(MarkdownFormatter.HEADING2));
+        assertTrue(chunks.get(3).get(0).has(MarkdownFormatter.QUOTE));
+    }
+
+    @Test
+    void keepsLinkTargets() {
+        List<MarkdownFormatter.Span> spans = format("见 [Wiki](https://minecraft.wiki/w/Piston) 页面").get(0);
+        assertEquals("见 Wiki 页面", plain(spans));
+        MarkdownFormatter.Span link = spans.get(1);
+        assertTrue(link.has(MarkdownFormatter.LINK));
+        assertEquals("https://minecraft.wiki/w/Piston", link.getLink());
+    }
+
+    @Test
+    void codeBlocksAreNotParsed() {
+        List<List<MarkdownFormatter.Span>> chunks = format("```\n**not bold**\n```\n**bold**");
+        assertEquals(List.of("**not bold**", "bold"), lines(chunks));
+        assertEquals(MarkdownFormatter.CODE, chunks.get(0).get(0).getStyle());
+        assertEquals(MarkdownFormatter.BOLD, chunks.get(1).get(0).getStyle());
+    }
+
+    @Test
+    void inlineStylesContinueUntilABlankLine() {
+        List<List<MarkdownFormatter.Span>> chunks = format("**one\ntwo\n\nthree**");
+        assertTrue(chunks.get(0).get(0).has(MarkdownFormatter.BOLD));
+        assertTrue(chunks.get(1).get(0).has(MarkdownFormatter.BOLD));
+        assertFalse(chunks.get(2).get(0).has(MarkdownFormatter.BOLD));
+    }
+
+    @Test
+    void stripsThinkTagsSplitAcrossFragments() {
+        List<List<MarkdownFormatter.Span>> chunks = new ArrayList<>();
+        MarkdownFormatter formatter = new MarkdownFormatter(chunks::add, 256, true);
+        for (String fragment : new String[] {"<thi", "nk>hidden\nreasoning</th", "ink>答", "案\n"}) {
+            formatter.append(fragment);
+        }
+        formatter.flush();
+        assertEquals(List.of("答案"), lines(chunks));
+
+        assertEquals(List.of("<think>kept</think>"), lines(MarkdownFormatter.format("<think>kept</think>", 256, false)));
+    }
+
+    @Test
+    void splitsLongLinesAtWhitespaceWithinTheLimit() {
+        String text = "word ".repeat(20).trim();
+        List<String> lines = lines(MarkdownFormatter.format(text, 16, true));
+        assertTrue(lines.size() > 1);
+        for (String line : lines) {
+            assertTrue(line.length() <= 16, line);
+            assertFalse(line.startsWith(" ") || line.endsWith(" "), line);
+        }
+        assertEquals(text, String.join(" ", lines));
+    }
+
+    @Test
+    void hardCutsNeverSplitSurrogatePairs() {
+        String text = "a" + "😀".repeat(20);
+        List<String> lines = lines(MarkdownFormatter.format(text, 16, true));
+        for (String line : lines) {
+            assertFalse(Character.isHighSurrogate(line.charAt(line.length() - 1)), line);
+            assertFalse(Character.isLowSurrogate(line.charAt(0)), line);
+        }
+        assertEquals(text, String.join("", lines));
+    }
+
+    @Test
+    void flushResetsStateForTheNextReply() {
+        List<List<MarkdownFormatter.Span>> chunks = new ArrayList<>();
+        MarkdownFormatter formatter = new MarkdownFormatter(chunks::add, 256, true);
+        formatter.append("**unclosed\n");
+        formatter.flush();
+        formatter.append("plain\n");
+        formatter.flush();
+        assertEquals(0, chunks.get(1).get(0).getStyle());
+    }
+
+    @Test
+    void streamedSentencesRenderLikeTheWholeReply() {
+        String reply = "# 合成\n\n- 先放木板. 再放木棍.\n  缩进的说明。\n\n```\nfoo(); bar();\n    baz();\n```\n**结束**";
+        List<List<MarkdownFormatter.Span>> chunks = new ArrayList<>();
+        MarkdownFormatter formatter = new MarkdownFormatter(chunks::add, 256, true);
+        StreamingSentenceBuffer sentences = new StreamingSentenceBuffer(formatter::append, 256);
+        for (int i = 0; i < reply.length(); i += 3) {
+            sentences.append(reply.substring(i, Math.min(reply.length(), i + 3)));
+        }
+        sentences.flush();
+        formatter.flush();
+        assertEquals(describe(format(reply)), describe(chunks));
+    }
+}
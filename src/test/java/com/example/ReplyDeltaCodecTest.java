@@ -0,0 +1,137 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+class ReplyDeltaCodecTest {
+    private static final String SENTENCE = "先找到村庄，给村民放置对应的工作方块 🙂\n";
+    private static final String REPLY = ("村民交易是获取绿宝石最稳定的方式。Librarians can sell enchanted books such as Mending.\n").repeat(8);
+
+    private final ReplyDeltaCodec encoder = new ReplyDeltaCodec(256);
+    private final ReplyDeltaCodec decoder = new ReplyDeltaCodec(0);
+
+    // 回复编号小于 128 时，第三个字节是 DELTA 的标志字节
+    private static boolean isCompressed(byte[] frame) {
+        return (frame[2] & 1) != 0;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void startAndEndRoundTrip() {
+        ReplyDeltaCodec.Frame start = decoder.decode(encoder.start(7, ReplyDeltaCodec.STRIP_THINK));
+        assertEquals(7, start.replyId);
+        assertEquals(ReplyDeltaCodec.START, start.type);
+        assertEquals(ReplyDeltaCodec.STRIP_THINK, start.flags);
+        assertNull(start.text);
+
+        ReplyDeltaCodec.Frame end = decoder.decode(encoder.end(7));
+        assertEquals(ReplyDeltaCodec.END, end.type);
+        assertEquals(7, end.replyId);
+    }
+
+    @Test
+    void shortDeltasAreSentAsIs() {
+        byte[] frame = encoder.delta(1, SENTENCE);
+        assertFalse(isCompressed(frame));
+        ReplyDeltaCodec.Frame decoded = decoder.decode(frame);
+        assertEquals(ReplyDeltaCodec.DELTA, decoded.type);
+        assertEquals(SENTENCE, decoded.text);
+        assertEquals("", decoder.decode(encoder.delta(1, "")).text);
+    }
+
+    @Test
+    void longDeltasAreCompressed() {
+        byte[] frame = encoder.delta(1, REPLY);
+        assertTrue(isCompressed(frame));
+        assertTrue(frame.length < REPLY.getBytes(StandardCharsets.UTF_8).length / 2);
+        assertEquals(REPLY, decoder.decode(frame).text);
+        // 阈值为 0 的实例从不压缩
+        assertFalse(isCompressed(decoder.delta(1, REPLY)));
+    }
+
+    @Test
+    void codecsCanBeReusedForManyFrames() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(REPLY, decoder.decode(encoder.delta(i, REPLY)).text);
+            assertEquals(SENTENCE, decoder.decode(encoder.delta(i, SENTENCE)).text);
+        }
+        String longer = REPLY.repeat(4);
+        assertEquals(longer, decoder.decode(encoder.delta(3, longer)).text);
+        assertEquals(REPLY, decoder.decode(encoder.delta(4, REPLY)).text);
+    }
+
+    @Test
+    void replyIdsUseTheFullIntRange() {
+        for (int replyId : new int[] {0, 127, 128, 300_000, Integer.MAX_VALUE, -1}) {
+            assertEquals(replyId, decoder.decode(encoder.delta(replyId, SENTENCE)).replyId);
+            assertEquals(replyId, decoder.decode(encoder.end(replyId)).replyId);
+        }
+    }
+
+    @Test
+    void everyTruncationIsRejected() {
+        for (byte[] frame : new byte[][] {encoder.delta(1, SENTENCE), encoder.delta(1, REPLY), encoder.start(1, 0)}) {
+            for (int length = 0; length < frame.length; length++) {
+                byte[] truncated = Arrays.copyOf(frame, length);
+                assertThrows(IllegalArgumentException.class, () -> decoder.decode(truncated), "prefix of " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void rejectsMalformedFrames() {
+        // 未知类型
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(new byte[] {1, 9}));
+        // VarInt 超过 5 个字节
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(new byte[] {-1, -1, -1, -1, -1, 0, 2}));
+        // 声明的长度和实际内容不符
+        byte[] frame = encoder.delta(1, SENTENCE);
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(Arrays.copyOf(frame, frame.length + 1)));
+        // 压缩数据损坏
+        byte[] compressed = encoder.delta(1, REPLY);
+        Arrays.fill(compressed, 5, compressed.length, (byte) 0x55);
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(compressed));
+    }
+
+    @Test
+    void rejectsTextLargerThanTheLimit() {
+        String huge = "a".repeat(ReplyDeltaCodec.MAX_TEXT_BYTES + 1);
+        byte[] frame = encoder.delta(1, huge);
+        assertTrue(isCompressed(frame));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(frame));
+
+        String limit = "a".repeat(ReplyDeltaCodec.MAX_TEXT_BYTES);
+        assertEquals(limit, decoder.decode(encoder.delta(1, limit)).text);
+    }
+
+    @Test
+    void rejectsCompressedDataThatInflatesPastTheDeclaredLength() {
+        // 2 MB 的压缩数据声明成 1000 字节：解压出 1000 字节后还没结束，不能继续解压下去
+        Deflater deflater = new Deflater();
+        deflater.setInput(new byte[2 << 20]);
+        deflater.finish();
+        byte[] payload = new byte[64 << 10];
+        int length = deflater.deflate(payload);
+        assertTrue(deflater.finished());
+        deflater.end();
+        // 1000 的 varint 编码是 0xE8 0x07
+        byte[] forged = concat(new byte[] {1, ReplyDeltaCodec.DELTA, 1, (byte) 0xE8, 0x07}, Arrays.copyOf(payload, length));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(forged));
+    }
+}
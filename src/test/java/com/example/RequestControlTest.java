@@ -0,0 +1,112 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RequestControlTest {
+    private final RequestControl control = new RequestControl(Duration.ofMinutes(1));
+
+    @Test
+    void cancelRunsEachHookOnce() {
+        AtomicInteger runs = new AtomicInteger();
+        control.onCancel(runs::incrementAndGet);
+        control.cancel();
+        control.cancel();
+        assertEquals(1, runs.get());
+        assertTrue(control.isCancelled());
+        assertFalse(control.isActive());
+    }
+
+    @Test
+    void hookRegisteredAfterCancelRunsImmediately() {
+        control.cancel();
+        AtomicInteger runs = new AtomicInteger();
+        control.onCancel(runs::incrementAndGet);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void trackedFuturesAreCancelled() {
+        CompletableFuture<String> pending = control.track(new CompletableFuture<>());
+        CompletableFuture<String> done = control.track(CompletableFuture.completedFuture("done"));
+        control.cancel();
+        assertTrue(pending.isCancelled());
+        assertFalse(done.isCancelled());
+    }
+
+    @Test
+    void childIsCancelledWithParentButNotTheOtherWay() {
+        RequestControl first = control.child();
+        RequestControl second = control.child();
+
+        first.cancel();
+        assertFalse(control.isCancelled());
+        assertFalse(second.isCancelled());
+
+        control.cancel();
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    void expiresAtTheDeadline() {
+        RequestControl expired = new RequestControl(Duration.ZERO);
+        assertTrue(expired.isExpired());
+        assertFalse(expired.isActive());
+        assertEquals(Duration.ZERO, expired.remaining());
+        // 子控制继承截止时间
+        assertTrue(expired.child().isExpired());
+
+        assertFalse(control.isExpired());
+        assertTrue(control.remaining().compareTo(Duration.ofSeconds(59)) > 0);
+    }
+
+    @Test
+    void usageAccumulatesAndKeepsTheLastEndpoint() {
+        assertNull(control.getModel());
+        control.addUsage("primary", "model-a", 100, 20);
+        control.addUsage("backup", "model-b", 50, 10);
+
+        AuditLog.Entry entry = new AuditLog.Entry();
+        control.describeUsage(entry);
+        assertEquals("backup", entry.endpoint);
+        assertEquals("model-b", entry.model);
+        assertEquals(150, entry.promptTokens);
+        assertEquals(30, entry.completionTokens);
+        assertEquals("model-b", control.getModel());
+    }
+
+    @Test
+    void coalescedCallUsageGoesToTheStarterOnly() {
+        RequestControl flight = new RequestControl(Duration.ofMinutes(1));
+        flight.addUsage("primary", "model-a", 100, 20);
+        RequestControl starter = new RequestControl(Duration.ofMinutes(1));
+        RequestControl joiner = new RequestControl(Duration.ofMinutes(1));
+
+        starter.addUsage(flight);
+        joiner.servedBy(flight);
+
+        AuditLog.Entry started = new AuditLog.Entry();
+        starter.describeUsage(started);
+        assertEquals(120, started.promptTokens + started.completionTokens);
+        AuditLog.Entry joined = new AuditLog.Entry();
+        joiner.describeUsage(joined);
+        assertEquals("primary", joined.endpoint);
+        assertEquals("model-a", joined.model);
+        assertEquals(0, joined.promptTokens + joined.completionTokens);
+    }
+
+    @Test
+    void callWithoutUpstreamUsageRecordsNothing() {
+        RequestControl flight = new RequestControl(Duration.ofMinutes(1));
+        control.addUsage(flight);
+        control.servedBy(flight);
+        assertNull(control.getModel());
+    }
+}
@@ -0,0 +1,151 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class RequestSchedulerTest {
+    private static final RequestContext ALICE = new RequestContext(UUID.randomUUID(), "Alice", false);
+    private static final RequestContext BOB = new RequestContext(UUID.randomUUID(), "Bob", false);
+    private static final RequestContext OPERATOR = new RequestContext(UUID.randomUUID(), "Op", true);
+
+    private static RequestScheduler scheduler(int maxConcurrent, int maxQueueSize, int maxQueuedPerPlayer, int ratePerMinute) {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.configure(ChatCompletionCodec.GSON.fromJson("{\"max_concurrent_requests\":" + maxConcurrent
+            + ",\"max_queue_size\":" + maxQueueSize + ",\"max_queued_per_player\":" + maxQueuedPerPlayer
+            + ",\"rate_limit_per_minute\":" + ratePerMinute + ",\"rate_limit_burst\":2}", OpenAIAPIConfig.class));
+        return scheduler;
+    }
+
+    private static Throwable failure(CompletableFuture<Void> future) {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        throw new AssertionError("future did not fail");
+    }
+
+    @Test
+    void queuesBeyondConcurrencyLimitAndAdmitsOnRelease() {
+        RequestScheduler scheduler = scheduler(2, 8, 3, 0);
+        assertTrue(scheduler.acquire(ALICE).isDone());
+        assertTrue(scheduler.acquire(BOB).isDone());
+        CompletableFuture<Void> third = scheduler.acquire(ALICE);
+        assertFalse(third.isDone());
+        assertEquals(1, scheduler.getQueuePosition(ALICE));
+
+        scheduler.release();
+        assertTrue(third.isDone());
+        assertEquals(2, scheduler.snapshot().inFlight);
+        assertEquals(0, scheduler.snapshot().queued);
+    }
+
+    @Test
+    void servesPlayersRoundRobin() {
+        RequestScheduler scheduler = scheduler(1, 8, 3, 0);
+        scheduler.acquire(BOB);
+        List<String> order = new ArrayList<>();
+        scheduler.acquire(ALICE).thenRun(() -> order.add("alice-1"));
+        scheduler.acquire(ALICE).thenRun(() -> order.add("alice-2"));
+        scheduler.acquire(ALICE).thenRun(() -> order.add("alice-3"));
+        scheduler.acquire(BOB).thenRun(() -> order.add("bob-1"));
+        assertEquals(2, scheduler.getQueuePosition(BOB));
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.release();
+        }
+        assertEquals(List.of("alice-1", "bob-1", "alice-2", "alice-3"), order);
+    }
+
+    @Test
+    void operatorsSkipAheadOfPlayers() {
+        RequestScheduler scheduler = scheduler(1, 8, 3, 0);
+        scheduler.acquire(BOB);
+        CompletableFuture<Void> player = scheduler.acquire(ALICE);
+        CompletableFuture<Void> operator = scheduler.acquire(OPERATOR);
+        assertEquals(1, scheduler.getQueuePosition(OPERATOR));
+        assertEquals(2, scheduler.getQueuePosition(ALICE));
+
+        scheduler.release();
+        assertTrue(operator.isDone());
+        assertFalse(player.isDone());
+    }
+
+    @Test
+    void rejectsWhenQueueOrPlayerShareIsFull() {
+        RequestScheduler scheduler = scheduler(1, 3, 2, 0);
+        scheduler.acquire(BOB);
+        scheduler.acquire(ALICE);
+        scheduler.acquire(ALICE);
+        assertInstanceOf(RequestRejectedException.class, failure(scheduler.acquire(ALICE)));
+
+        scheduler.acquire(BOB);
+        assertInstanceOf(RequestRejectedException.class, failure(scheduler.acquire(OPERATOR)));
+        assertEquals(3, scheduler.snapshot().queued);
+    }
+
+    @Test
+    void cancelledTicketLeavesQueueImmediately() {
+        RequestScheduler scheduler = scheduler(1, 2, 1, 0);
+        scheduler.acquire(BOB);
+        CompletableFuture<Void> cancelled = scheduler.acquire(ALICE);
+        assertEquals(1, scheduler.snapshot().queued);
+
+        cancelled.cancel(true);
+        assertEquals(0, scheduler.snapshot().queued);
+        assertEquals(0, scheduler.snapshot().waitingPlayers);
+        assertEquals(0, scheduler.getQueuePosition(ALICE));
+
+        // 取消后不再占用该玩家的排队名额，也不会在出队时占用执行名额
+        CompletableFuture<Void> retry = scheduler.acquire(ALICE);
+        assertFalse(retry.isCompletedExceptionally());
+        scheduler.release();
+        assertTrue(retry.isDone());
+        assertEquals(1, scheduler.snapshot().inFlight);
+    }
+
+    @Test
+    void timedOutTicketDoesNotCountAgainstOthers() {
+        RequestScheduler scheduler = scheduler(1, 1, 1, 0);
+        scheduler.acquire(BOB);
+        CompletableFuture<Void> waiting = scheduler.acquire(ALICE);
+        waiting.completeExceptionally(new java.util.concurrent.TimeoutException());
+
+        CompletableFuture<Void> other = scheduler.acquire(OPERATOR);
+        assertFalse(other.isCompletedExceptionally());
+        assertEquals(1, scheduler.getQueuePosition(OPERATOR));
+    }
+
+    @Test
+    void rateLimitsPlayersButNotOperators() {
+        RequestScheduler scheduler = scheduler(16, 8, 3, 1);
+        assertTrue(scheduler.acquire(ALICE).isDone());
+        assertTrue(scheduler.acquire(ALICE).isDone());
+        assertInstanceOf(RequestRejectedException.class, failure(scheduler.acquire(ALICE)));
+        assertTrue(scheduler.acquire(BOB).isDone());
+        for (int i = 0; i < 5; i++) {
+            assertFalse(scheduler.acquire(OPERATOR).isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    void raisingTheLimitAdmitsWaitingRequests() {
+        RequestScheduler scheduler = scheduler(1, 8, 3, 0);
+        scheduler.acquire(BOB);
+        CompletableFuture<Void> waiting = scheduler.acquire(ALICE);
+        scheduler.configure(ChatCompletionCodec.GSON.fromJson("{\"max_concurrent_requests\":2,\"rate_limit_per_minute\":0}",
+            OpenAIAPIConfig.class));
+        assertTrue(waiting.isDone());
+    }
+}
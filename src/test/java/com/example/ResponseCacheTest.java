@@ -0,0 +1,197 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResponseCacheTest {
+    private static final int MAGIC = 0x41494331;
+
+    @TempDir
+    Path directory;
+
+    private static OpenAIAPIConfig config(String model, int maxEntries, boolean persist) {
+        return config("\"model\":\"" + model + "\",\"knowledge_enabled\":false,\"cache_max_entries\":" + maxEntries
+            + ",\"cache_persist\":" + persist);
+    }
+
+    private static OpenAIAPIConfig config(String fields) {
+        return ChatCompletionCodec.GSON.fromJson("{\"cache_enabled\":true,\"cache_ttl_minutes\":60," + fields + "}", OpenAIAPIConfig.class);
+    }
+
+    @Test
+    void normalizesWhitespaceCaseAndTrailingPunctuation() {
+        assertEquals("how to make a nether portal", ResponseCache.normalize("  How to make a   nether portal?? "));
+        assertEquals("怎么合成活塞", ResponseCache.normalize("怎么合成活塞？"));
+        assertEquals(ResponseCache.normalize("Hello\tworld!"), ResponseCache.normalize("hello world"));
+    }
+
+    @Test
+    void servesHitsAndCountsMisses() {
+        ResponseCache cache = new ResponseCache(directory.resolve("cache.bin"));
+        cache.configure(config("m", 8, false));
+        assertNull(cache.get("question"));
+        cache.put("Question?", "answer");
+        assertEquals("answer", cache.get("question"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+        cache.close();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        ResponseCache cache = new ResponseCache(directory.resolve("cache.bin"));
+        cache.configure(config("m", 2, false));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.size());
+        cache.close();
+    }
+
+    @Test
+    void clearsWhenReplyAffectingConfigChanges() {
+        ResponseCache cache = new ResponseCache(directory.resolve("cache.bin"));
+        cache.configure(config("m", 8, false));
+        cache.put("a", "1");
+        cache.configure(config("m", 16, false));
+        assertEquals("1", cache.get("a"));
+        cache.configure(config("other-model", 16, false));
+        assertNull(cache.get("a"));
+        cache.close();
+    }
+
+    @Test
+    void restoresPersistedEntries() {
+        Path file = directory.resolve("cache.bin");
+        ResponseCache cache = new ResponseCache(file);
+        cache.configure(config("m", 8, true));
+        cache.put("a", "第一条");
+        cache.put("b", "second");
+        cache.close();
+
+        ResponseCache reloaded = new ResponseCache(file);
+        reloaded.configure(config("m", 8, true));
+        assertEquals("第一条", reloaded.get("a"));
+        assertEquals("second", reloaded.get("b"));
+        reloaded.close();
+
+        ResponseCache otherModel = new ResponseCache(file);
+        otherModel.configure(config("other-model", 8, true));
+        assertNull(otherModel.get("a"));
+        otherModel.close();
+    }
+
+    @Test
+    void clearsWhenAnEndpointModelChanges() {
+        ResponseCache cache = new ResponseCache(directory.resolve("cache.bin"));
+        String endpoints = "\"model\":\"m\",\"knowledge_enabled\":false,\"endpoints\":[{\"name\":\"a\",\"api_url\":\"http://a\"},"
+            + "{\"name\":\"b\",\"api_url\":\"http://b\",\"model\":\"%s\"}]";
+        cache.configure(config(String.format(endpoints, "small")));
+        cache.put("a", "1");
+        cache.configure(config(String.format(endpoints, "small")));
+        assertEquals("1", cache.get("a"));
+        cache.configure(config(String.format(endpoints, "large")));
+        assertNull(cache.get("a"));
+        cache.close();
+    }
+
+    @Test
+    void waitsForTheKnowledgeIndexAndClearsWhenItChanges() {
+        Path file = directory.resolve("cache.bin");
+        OpenAIAPIConfig withKnowledge = config("\"model\":\"m\",\"cache_persist\":true");
+        ResponseCache cache = new ResponseCache(file);
+        cache.configure(withKnowledge);
+        // 索引建好之前不使用缓存
+        cache.put("a", "ignored");
+        assertNull(cache.get("a"));
+        cache.setKnowledgeHash(42);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        cache.close();
+
+        // 重启后资料没变，缓存文件照常加载
+        ResponseCache reloaded = new ResponseCache(file);
+        reloaded.configure(withKnowledge);
+        reloaded.setKnowledgeHash(42);
+        assertEquals("1", reloaded.get("a"));
+        // 更换数据包后清空
+        reloaded.setKnowledgeHash(43);
+        assertNull(reloaded.get("a"));
+        reloaded.close();
+
+        ResponseCache changed = new ResponseCache(file);
+        changed.configure(withKnowledge);
+        changed.setKnowledgeHash(44);
+        assertNull(changed.get("a"));
+        changed.close();
+    }
+
+    @Test
+    void keepsValidRecordsBeforeAnOversizedLength() throws IOException {
+        Path file = directory.resolve("cache.bin");
+        writeFile(file, config("m", 8, true), Integer.MAX_VALUE);
+        assertRecoversFirstRecordAndRewrites(file);
+    }
+
+    @Test
+    void keepsValidRecordsBeforeANegativeLength() throws IOException {
+        Path file = directory.resolve("cache.bin");
+        writeFile(file, config("m", 8, true), -5);
+        assertRecoversFirstRecordAndRewrites(file);
+    }
+
+    @Test
+    void keepsValidRecordsBeforeATruncatedTail() throws IOException {
+        Path file = directory.resolve("cache.bin");
+        writeFile(file, config("m", 8, true), 100);
+        assertRecoversFirstRecordAndRewrites(file);
+    }
+
+    private static void assertRecoversFirstRecordAndRewrites(Path file) throws IOException {
+        ResponseCache cache = new ResponseCache(file);
+        cache.configure(config("m", 8, true));
+        assertEquals("answer", cache.get("question"));
+        assertEquals(1, cache.size());
+        // 追加的新记录在重写后的文件里能被读出来
+        cache.put("later", "reply");
+        cache.close();
+
+        ResponseCache reloaded = new ResponseCache(file);
+        reloaded.configure(config("m", 8, true));
+        assertEquals("answer", reloaded.get("question"));
+        assertEquals("reply", reloaded.get("later"));
+        assertEquals(2, reloaded.size());
+        reloaded.close();
+    }
+
+    // 一条完整记录，之后是一条键长度为 badLength 但内容只有几个字节的记录
+    private static void writeFile(Path file, OpenAIAPIConfig config, int badLength) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeLong(ResponseCache.fingerprintOf(config));
+            long expiresAt = System.currentTimeMillis() + 60_000;
+            byte[] key = "question".getBytes(StandardCharsets.UTF_8);
+            byte[] value = "answer".getBytes(StandardCharsets.UTF_8);
+            out.writeLong(expiresAt);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+            out.writeLong(expiresAt);
+            out.writeInt(badLength);
+            out.write(new byte[] {1, 2, 3});
+        }
+    }
+}
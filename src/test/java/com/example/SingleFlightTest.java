@@ -0,0 +1,137 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+    private final AtomicInteger started = new AtomicInteger();
+    private final List<CompletableFuture<String>> upstreams = new ArrayList<>();
+    private final List<Consumer<String>> emitters = new ArrayList<>();
+
+    private CompletableFuture<String> join(String key, Consumer<String> parts) {
+        return singleFlight.join(key, parts, emit -> {
+            started.incrementAndGet();
+            CompletableFuture<String> upstream = new CompletableFuture<>();
+            upstreams.add(upstream);
+            emitters.add(emit);
+            return upstream;
+        });
+    }
+
+    @Test
+    void identicalConcurrentCallsShareOneUpstreamCall() throws Exception {
+        CompletableFuture<String> first = join("key", null);
+        CompletableFuture<String> second = join("key", null);
+        assertEquals(1, started.get());
+        assertEquals(1, singleFlight.getCoalesced());
+
+        upstreams.get(0).complete("reply");
+        assertEquals("reply", first.get());
+        assertEquals("reply", second.get());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    void differentKeysAndLaterCallsStartTheirOwnCall() {
+        join("a", null);
+        join("b", null);
+        assertEquals(2, started.get());
+
+        upstreams.get(0).complete("done");
+        join("a", null);
+        assertEquals(3, started.get());
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    @Test
+    void lateSubscribersReceiveEarlierParts() {
+        List<String> early = new ArrayList<>();
+        List<String> late = new ArrayList<>();
+        join("key", early::add);
+        emitters.get(0).accept("one");
+        join("key", late::add);
+        emitters.get(0).accept("two");
+
+        assertEquals(List.of("one", "two"), early);
+        assertEquals(List.of("one", "two"), late);
+    }
+
+    @Test
+    void failingSubscriberDoesNotAffectOthers() {
+        List<String> received = new ArrayList<>();
+        join("key", part -> {
+            throw new IllegalStateException("player left");
+        });
+        join("key", received::add);
+        emitters.get(0).accept("part");
+        assertEquals(List.of("part"), received);
+    }
+
+    @Test
+    void cancellingOneWaiterKeepsTheCallForOthers() throws Exception {
+        CompletableFuture<String> first = join("key", null);
+        CompletableFuture<String> second = join("key", null);
+        first.cancel(true);
+        assertFalse(upstreams.get(0).isCancelled());
+
+        upstreams.get(0).complete("reply");
+        assertEquals("reply", second.get());
+    }
+
+    @Test
+    void cancellingAllWaitersCancelsUpstream() {
+        CompletableFuture<String> first = join("key", null);
+        CompletableFuture<String> second = join("key", null);
+        first.cancel(true);
+        second.cancel(true);
+        assertTrue(upstreams.get(0).isCancelled());
+        assertEquals(0, singleFlight.getInFlight());
+
+        // 被放弃的调用不会被后来的相同请求复用
+        CompletableFuture<String> third = join("key", null);
+        assertEquals(2, started.get());
+        assertFalse(third.isDone());
+    }
+
+    @Test
+    void errorsReachEveryWaiter() {
+        CompletableFuture<String> first = join("key", null);
+        CompletableFuture<String> second = join("key", null);
+        IllegalStateException error = new IllegalStateException("upstream failed");
+        upstreams.get(0).completeExceptionally(error);
+        assertSame(error, causeOf(first));
+        assertSame(error, causeOf(second));
+    }
+
+    @Test
+    void starterExceptionsFailTheCall() {
+        IllegalArgumentException error = new IllegalArgumentException("bad request");
+        CompletableFuture<String> result = singleFlight.join("key", null, emit -> {
+            throw error;
+        });
+        assertSame(error, causeOf(result));
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    private static Throwable causeOf(CompletableFuture<String> future) {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        throw new AssertionError("future did not fail");
+    }
+}
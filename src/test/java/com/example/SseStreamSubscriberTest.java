@@ -0,0 +1,76 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SseStreamSubscriberTest {
+    private final List<String> parts = new ArrayList<>();
+    private final SseStreamSubscriber subscriber = new SseStreamSubscriber(new StreamingSentenceBuffer(parts::add, 256));
+
+    private static String delta(String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":" + ChatCompletionCodec.GSON.toJson(content) + "}}]}";
+    }
+
+    private void receive(String... lines) {
+        for (String line : lines) {
+            subscriber.onNext(line);
+        }
+    }
+
+    @Test
+    void assemblesDeltasIntoSentences() {
+        receive(delta("Hello"), "", delta(" world."), "", delta(" Bye"), "", "data: [DONE]", "");
+        subscriber.onComplete();
+        assertEquals("Hello world. Bye", subscriber.getFullText());
+        assertEquals(List.of("Hello world.", " Bye"), parts);
+    }
+
+    @Test
+    void stopsAtDone() {
+        receive(delta("kept"), "", "data: [DONE]", "", delta(" ignored"), "");
+        subscriber.onComplete();
+        assertEquals("kept", subscriber.getFullText());
+    }
+
+    @Test
+    void joinsMultiLineDataFields() {
+        // 一个事件的 JSON 分在两行 data 里
+        receive("data: {\"choices\":[{\"index\":0,", "data: \"delta\":{\"content\":\"joined\"}}]}", "");
+        subscriber.onComplete();
+        assertEquals("joined", subscriber.getFullText());
+    }
+
+    @Test
+    void keepsWhitespaceAndNewlinesInDeltas() {
+        receive(delta("```\n"), "", delta("    foo(); bar();\n"), "", delta("```\n\nafter"), "");
+        subscriber.onComplete();
+        assertEquals("```\n    foo(); bar();\n```\n\nafter", String.join("", parts));
+    }
+
+    @Test
+    void ignoresCommentsOtherFieldsAndMalformedEvents() {
+        receive(": keep-alive", "event: message", "id: 1", delta("a"), "", "data: {not json", "", "data:" + delta("b").substring(5), "");
+        subscriber.onComplete();
+        assertEquals("ab", subscriber.getFullText());
+    }
+
+    @Test
+    void dispatchesTheLastEventWithoutATrailingBlankLine() {
+        receive(delta("last"));
+        subscriber.onComplete();
+        assertEquals("last", subscriber.getFullText());
+        assertEquals(List.of("last"), parts);
+    }
+
+    @Test
+    void readsUsageFromTheFinalChunk() {
+        receive(delta("x"), "", "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15}}", "",
+            "data: [DONE]", "");
+        subscriber.onComplete();
+        assertEquals(12, subscriber.getPromptTokens());
+        assertEquals(3, subscriber.getCompletionTokens());
+    }
+}
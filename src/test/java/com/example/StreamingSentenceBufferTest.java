@@ -0,0 +1,76 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StreamingSentenceBufferTest {
+    private final List<String> parts = new ArrayList<>();
+
+    private List<String> feed(int maxLength, String... fragments) {
+        StreamingSentenceBuffer buffer = new StreamingSentenceBuffer(parts::add, maxLength);
+        for (String fragment : fragments) {
+            buffer.append(fragment);
+        }
+        buffer.flush();
+        return parts;
+    }
+
+    @Test
+    void splitsAfterSentenceTerminatorsAndNewlines() {
+        assertEquals(List.of("First.", " Second!", " 第三句。", "第四句\n", "tail"),
+            feed(256, "First. Second! 第三句。第四句\ntail"));
+    }
+
+    @Test
+    void keepsWhitespaceIndentationAndBlankLines() {
+        String text = "## Title\n\n- a. b\n\n```\n    foo(); bar();\n```\n  end  ";
+        assertEquals(text, String.join("", feed(256, text)));
+        assertTrue(parts.contains("\n"), "blank line should be passed through");
+    }
+
+    @Test
+    void terminatorFollowedByNewlineStaysWithIt() {
+        assertEquals(List.of("Done.\n", "Next"), feed(256, "Done.\nNext"));
+    }
+
+    @Test
+    void waitsForTheCharacterAfterAnAsciiTerminator() {
+        // 3.14 里的点不是句末，要等到下一个碎片才知道
+        assertEquals(List.of("Pi is 3.14 roughly.", " Yes"), feed(256, "Pi is 3.", "14 roughly.", " Yes"));
+    }
+
+    @Test
+    void terminatorsSplitAcrossFragmentsAreFound() {
+        assertEquals(List.of("Hello world.", " Bye"), feed(256, "Hel", "lo wor", "ld", ".", " ", "Bye"));
+    }
+
+    @Test
+    void longTextIsCutAtWhitespaceWithinTheLimit() {
+        String text = "word ".repeat(10);
+        for (String part : feed(16, text)) {
+            assertTrue(part.length() <= 16, part);
+        }
+        assertEquals(text, String.join("", parts));
+        assertTrue(parts.get(0).endsWith(" "));
+    }
+
+    @Test
+    void hardCutsNeverSplitSurrogatePairs() {
+        String text = "a" + "😀".repeat(20);
+        for (String part : feed(8, text)) {
+            assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)), part);
+            assertFalse(Character.isLowSurrogate(part.charAt(0)), part);
+        }
+        assertEquals(text, String.join("", parts));
+    }
+
+    @Test
+    void emptyFragmentsAndFlushEmitNothing() {
+        assertTrue(feed(256, "", null).isEmpty());
+    }
+}
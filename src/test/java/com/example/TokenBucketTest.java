@@ -0,0 +1,43 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void allowsBurstThenRefillsAtConfiguredRate() {
+        TokenBucket bucket = new TokenBucket(3, 0);
+        assertTrue(bucket.tryTake(3, 6, 0));
+        assertTrue(bucket.tryTake(3, 6, 0));
+        assertTrue(bucket.tryTake(3, 6, 0));
+        assertFalse(bucket.tryTake(3, 6, 0));
+        assertEquals(10, bucket.secondsUntilNext(6));
+
+        // 每分钟 6 个，即每 10 秒一个
+        assertFalse(bucket.tryTake(3, 6, 9 * SECOND));
+        assertTrue(bucket.tryTake(3, 6, 11 * SECOND));
+        assertFalse(bucket.tryTake(3, 6, 11 * SECOND));
+    }
+
+    @Test
+    void neverExceedsBurst() {
+        TokenBucket bucket = new TokenBucket(2, 0);
+        assertTrue(bucket.tryTake(2, 60, 0));
+        assertEquals(2.0, bucket.available(2, 60, 3600 * SECOND));
+        assertTrue(bucket.isFull(2, 60, 3600 * SECOND));
+    }
+
+    @Test
+    void reportsNoWaitWhenTokensRemain() {
+        TokenBucket bucket = new TokenBucket(1, 0);
+        assertEquals(0, bucket.secondsUntilNext(6));
+        bucket.tryTake(1, 6, 0);
+        assertFalse(bucket.isFull(1, 6, 5 * SECOND));
+        assertEquals(5, bucket.secondsUntilNext(6));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TokenQuotaTest {
+    private static final RequestContext ALICE = new RequestContext(UUID.randomUUID(), "Alice", false);
+    private static final RequestContext OPERATOR = new RequestContext(UUID.randomUUID(), "Op", true);
+
+    @TempDir
+    Path directory;
+
+    private static OpenAIAPIConfig config(int perHour, int perDay) {
+        return ChatCompletionCodec.GSON.fromJson("{\"quota_tokens_per_hour\":" + perHour + ",\"quota_tokens_per_day\":" + perDay + "}",
+            OpenAIAPIConfig.class);
+    }
+
+    private TokenQuota quota(int perHour, int perDay) {
+        TokenQuota quota = new TokenQuota(directory.resolve("quota.bin"));
+        quota.configure(config(perHour, perDay));
+        return quota;
+    }
+
+    @Test
+    void rejectsCallsThatMayExceedTheRemainingQuota() {
+        TokenQuota quota = quota(1000, 0);
+        quota.charge(ALICE.getPlayerId(), 600);
+        assertDoesNotThrow(() -> quota.check(ALICE, 400));
+        RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> quota.check(ALICE, 401));
+        assertTrue(e.getMessage().contains("剩余 400"));
+
+        quota.charge(ALICE.getPlayerId(), 400);
+        e = assertThrows(RequestRejectedException.class, () -> quota.check(ALICE, 1));
+        assertTrue(e.getMessage().contains("已用完"));
+    }
+
+    @Test
+    void dailyLimitIsCheckedFirst() {
+        TokenQuota quota = quota(1000, 500);
+        quota.charge(ALICE.getPlayerId(), 500);
+        RequestRejectedException e = assertThrows(RequestRejectedException.class, () -> quota.check(ALICE, 1));
+        assertTrue(e.getMessage().startsWith("今天"));
+    }
+
+    @Test
+    void operatorsAndTheConsoleAreNotLimitedButStillCharged() {
+        TokenQuota quota = quota(100, 100);
+        quota.charge(OPERATOR.getPlayerId(), 1000);
+        assertDoesNotThrow(() -> quota.check(OPERATOR, 1000));
+        assertDoesNotThrow(() -> quota.check(RequestContext.SYSTEM, 1000));
+        assertEquals(1000, quota.remaining(OPERATOR.getPlayerId()).hourlyUsed);
+    }
+
+    @Test
+    void unlimitedWindowsReportMinusOne() {
+        TokenQuota quota = quota(0, 0);
+        quota.charge(ALICE.getPlayerId(), 10_000);
+        assertDoesNotThrow(() -> quota.check(ALICE, 1_000_000));
+        TokenQuota.Remaining remaining = quota.remaining(ALICE.getPlayerId());
+        assertEquals(-1, remaining.hourlyRemaining);
+        assertEquals(-1, remaining.dailyRemaining);
+        assertEquals(10_000, remaining.dailyUsed);
+    }
+
+    @Test
+    void usageSurvivesARestart() {
+        TokenQuota first = quota(1000, 5000);
+        first.charge(ALICE.getPlayerId(), 300);
+        first.close();
+
+        TokenQuota second = quota(1000, 5000);
+        TokenQuota.Remaining remaining = second.remaining(ALICE.getPlayerId());
+        assertEquals(700, remaining.hourlyRemaining);
+        assertEquals(4700, remaining.dailyRemaining);
+    }
+
+    @Test
+    void truncatedFileKeepsTheCompleteRecords() throws IOException {
+        UUID bob = UUID.randomUUID();
+        TokenQuota first = quota(1000, 0);
+        first.charge(ALICE.getPlayerId(), 100);
+        first.charge(bob, 200);
+        first.close();
+        Path file = directory.resolve("quota.bin");
+        byte[] bytes = Files.readAllBytes(file);
+        // 砍掉第二条记录的后半截
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 20));
+
+        TokenQuota second = quota(1000, 0);
+        long total = second.remaining(ALICE.getPlayerId()).hourlyUsed + second.remaining(bob).hourlyUsed;
+        // 记录的顺序不固定，完整的那一条是 100 或 200
+        assertTrue(total == 100 || total == 200);
+    }
+}